@@ -0,0 +1,79 @@
+package com.randomman552.boids.benchmarks;
+
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
+
+/**
+ * The default scene (map edges or periodic boundary, central obstacle and randomly placed boids) shared by the
+ * benchmarks, with the world resized so the boids are spread at the requested density.
+ * Every setting a benchmark can change is pinned to its default on creation and restored by {@link #restore()},
+ * so results do not depend on which benchmark ran before in the same JVM.
+ */
+final class BenchmarkScene {
+    static final float DELTA = 1f / 60f;
+
+    private final boolean periodicBoundary = Constants.PERIODIC_BOUNDARY;
+    private final float senseRadius = Constants.SENSE_RADIUS;
+    private final boolean useSpatialGrid = Constants.USE_SPATIAL_GRID;
+    private final boolean topologicalNeighbours = Constants.TOPOLOGICAL_NEIGHBOURS;
+    private final float steeringUpdateFraction = Constants.STEERING_UPDATE_FRACTION;
+    private final boolean barnesHutCentering = Constants.BARNES_HUT_CENTERING;
+    private final boolean parallelSteering = Constants.PARALLEL_STEERING;
+    private final boolean vectorSteering = Constants.VECTOR_STEERING;
+    private final boolean useObstacleField = Constants.USE_OBSTACLE_FIELD;
+    private final boolean useObstacleBVH = Constants.USE_OBSTACLE_BVH;
+    private final float worldWidth, worldHeight;
+
+    /**
+     * Remember the current settings and pin them to the defaults the simulation ships with.
+     * @param boids Number of boids the world will hold.
+     * @param density Boids per square unit of world area.
+     */
+    BenchmarkScene(int boids, float density) {
+        Constants.PERIODIC_BOUNDARY = true;
+        Constants.SENSE_RADIUS = 1f;
+        Constants.USE_SPATIAL_GRID = true;
+        Constants.TOPOLOGICAL_NEIGHBOURS = false;
+        Constants.STEERING_UPDATE_FRACTION = 1f;
+        Constants.BARNES_HUT_CENTERING = false;
+        Constants.PARALLEL_STEERING = false;
+        Constants.VECTOR_STEERING = false;
+        Constants.USE_OBSTACLE_FIELD = true;
+        Constants.USE_OBSTACLE_BVH = true;
+
+        // Keep the default 16:9 aspect ratio while scaling the area to the density
+        float area = boids / density;
+        worldHeight = (float) Math.sqrt(area * 9 / 16);
+        worldWidth = area / worldHeight;
+    }
+
+    /**
+     * Create and populate the simulation with the current settings, then let the flock settle into its usual
+     * structure before measuring.
+     */
+    Simulation create(int boids) {
+        Simulation simulation = new Simulation(42);
+        simulation.setWorldSize(worldWidth, worldHeight);
+        simulation.populate(boids);
+        for (int i = 0; i < 60; i++) {
+            simulation.step(DELTA);
+        }
+        return simulation;
+    }
+
+    /**
+     * Put back the settings from before this scene was created.
+     */
+    void restore() {
+        Constants.PERIODIC_BOUNDARY = periodicBoundary;
+        Constants.SENSE_RADIUS = senseRadius;
+        Constants.USE_SPATIAL_GRID = useSpatialGrid;
+        Constants.TOPOLOGICAL_NEIGHBOURS = topologicalNeighbours;
+        Constants.STEERING_UPDATE_FRACTION = steeringUpdateFraction;
+        Constants.BARNES_HUT_CENTERING = barnesHutCentering;
+        Constants.PARALLEL_STEERING = parallelSteering;
+        Constants.VECTOR_STEERING = vectorSteering;
+        Constants.USE_OBSTACLE_FIELD = useObstacleField;
+        Constants.USE_OBSTACLE_BVH = useObstacleBVH;
+    }
+}
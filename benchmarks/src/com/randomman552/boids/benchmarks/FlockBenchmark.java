@@ -0,0 +1,87 @@
+package com.randomman552.boids.benchmarks;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
+import com.randomman552.boids.boid.FlockState;
+import com.randomman552.boids.util.SpatialGrid;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per-tick work of the simulation.
+ * Each benchmark runs on the default scene (see {@link BenchmarkScene}) with the default settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlockBenchmark {
+    private static final float DELTA = BenchmarkScene.DELTA;
+
+    @Param({"100", "1000", "10000"})
+    public int boids;
+
+    /**
+     * Boids per square unit of world area.
+     */
+    @Param({"1", "4", "16"})
+    public float density;
+
+    private BenchmarkScene scene;
+    private Simulation simulation;
+    private final SpatialGrid grid = new SpatialGrid();
+    private final IntArray neighbours = new IntArray(false, 256);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scene = new BenchmarkScene(boids, density);
+        simulation = scene.create(boids);
+
+        // Wrap queries around the world edges like the flock does with the periodic boundary
+        grid.setPeriodic(Constants.PERIODIC_BOUNDARY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.dispose();
+        scene.restore();
+    }
+
+    /**
+     * One full steering tick: the flock's steering phase followed by every boid acting (obstacle avoidance and
+     * applying the new velocity), without stepping the physics world.
+     */
+    @Benchmark
+    public void steeringTick() {
+        simulation.act(DELTA);
+    }
+
+    /**
+     * Rebuilding the spatial grid and gathering the neighbours of every boid.
+     */
+    @Benchmark
+    public int neighbourGathering() {
+        FlockState state = simulation.flock.getState();
+        grid.rebuild(state.posX, state.posY, state.size, Constants.SENSE_RADIUS,
+                simulation.getWorldWidth(), simulation.getWorldHeight());
+
+        int found = 0;
+        for (int i = 0; i < state.size; i++) {
+            neighbours.clear();
+            found += grid.query(state.posX[i], state.posY[i], Constants.SENSE_RADIUS, i, neighbours);
+        }
+        return found;
+    }
+
+    /**
+     * One Box2D world step.
+     */
+    @Benchmark
+    public void worldStep() {
+        simulation.stepWorld(DELTA);
+    }
+}
@@ -0,0 +1,70 @@
+package com.randomman552.boids.benchmarks;
+
+import com.badlogic.gdx.utils.Array;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
+import com.randomman552.boids.boid.Boid;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of obstacle avoidance for every boid, with each way of querying the obstacles.
+ * Runs on the default scene (see {@link BenchmarkScene}) with the other settings at their defaults.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObstacleAvoidanceBenchmark {
+    private static final float DELTA = BenchmarkScene.DELTA;
+
+    @Param({"100", "1000", "10000"})
+    public int boids;
+
+    /**
+     * Boids per square unit of world area.
+     */
+    @Param({"1", "4", "16"})
+    public float density;
+
+    /**
+     * How rays are cast: Box2D world ray casts, the obstacle BVH, or marching the obstacle distance field.
+     */
+    @Param({"box2d", "bvh", "field"})
+    public String queries;
+
+    private BenchmarkScene scene;
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scene = new BenchmarkScene(boids, density);
+        Constants.USE_OBSTACLE_FIELD = queries.equals("field");
+        Constants.USE_OBSTACLE_BVH = queries.equals("bvh");
+        simulation = scene.create(boids);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.dispose();
+        scene.restore();
+    }
+
+    /**
+     * Obstacle avoidance of every boid, including the batched probe rays the flock casts through the BVH.
+     */
+    @Benchmark
+    public void avoidObstacles(Blackhole blackhole) {
+        if (queries.equals("bvh")) {
+            simulation.flock.probeObstacles(simulation.getObstacleBVH());
+        }
+        Array<Boid> all = simulation.flock.getBoids();
+        for (int i = 0; i < all.size; i++) {
+            blackhole.consume(all.get(i).avoidObstacles(DELTA));
+        }
+    }
+}
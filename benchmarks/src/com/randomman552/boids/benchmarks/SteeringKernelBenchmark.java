@@ -0,0 +1,91 @@
+package com.randomman552.boids.benchmarks;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
+import com.randomman552.boids.boid.FlockState;
+import com.randomman552.boids.boid.FlockSteering;
+import com.randomman552.boids.util.SpatialGrid;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the flocking forces of every boid from neighbours gathered beforehand, with the scalar kernel and
+ * the Vector API kernel of the vector module.
+ * Runs on the default scene (see {@link BenchmarkScene}). The forked JVM is given the Vector API incubator module,
+ * so needs JDK 16+.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SteeringKernelBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int boids;
+
+    /**
+     * Boids per square unit of world area.
+     */
+    @Param({"1", "4", "16"})
+    public float density;
+
+    /**
+     * Kernel calculating the forces: one neighbour at a time, or several at a time with the Vector API.
+     */
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private BenchmarkScene scene;
+    private Simulation simulation;
+    private FlockSteering steering;
+    /**
+     * Neighbours of every boid, gathered once so the kernels are measured on their own.
+     */
+    private IntArray[] gathered;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean vector = kernel.equals("vector");
+        if (vector && !FlockSteering.isVectorAvailable()) {
+            throw new IllegalStateException("The Vector API kernel could not be loaded");
+        }
+        scene = new BenchmarkScene(boids, density);
+        simulation = scene.create(boids);
+        steering = FlockSteering.create(vector);
+        steering.setConfig(simulation.getConfig());
+
+        SpatialGrid grid = new SpatialGrid();
+        grid.setPeriodic(Constants.PERIODIC_BOUNDARY);
+        FlockState state = simulation.flock.getState();
+        grid.rebuild(state.posX, state.posY, state.size, Constants.SENSE_RADIUS,
+                simulation.getWorldWidth(), simulation.getWorldHeight());
+        gathered = new IntArray[state.size];
+        for (int i = 0; i < state.size; i++) {
+            gathered[i] = new IntArray();
+            grid.query(state.posX[i], state.posY[i], Constants.SENSE_RADIUS, i, gathered[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.dispose();
+        scene.restore();
+    }
+
+    /**
+     * Flocking forces of every boid from its gathered neighbours.
+     */
+    @Benchmark
+    public float steeringKernel() {
+        FlockState state = simulation.flock.getState();
+        float sum = 0;
+        for (int i = 0; i < gathered.length; i++) {
+            steering.steer(state, i, gathered[i]);
+            sum += steering.desiredX;
+        }
+        return sum;
+    }
+}
@@ -2,28 +2,33 @@ package com.randomman552.boids;
 
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
 import com.badlogic.gdx.InputMultiplexer;
 import com.badlogic.gdx.graphics.*;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Box2DDebugRenderer;
-import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.scenes.scene2d.InputEvent;
+import com.badlogic.gdx.scenes.scene2d.InputListener;
 import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.scenes.scene2d.ui.Skin;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.ScreenUtils;
 import com.badlogic.gdx.utils.viewport.StretchViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
-import com.randomman552.boids.boid.Boid;
-import com.randomman552.boids.boid.BoidContactListener;
-import com.randomman552.boids.obstacles.MapEdge;
-import com.randomman552.boids.obstacles.RectangleObstacle;
+import com.randomman552.boids.obstacles.Obstacle;
+import com.randomman552.boids.replay.ReplayBoid;
+import com.randomman552.boids.replay.TrajectoryPlayer;
+import com.randomman552.boids.replay.TrajectoryRecorder;
 import com.randomman552.boids.ui.UIStage;
+import com.randomman552.boids.util.FrameGovernor;
+import com.randomman552.boids.util.FrameProfiler;
 
-import java.util.Random;
+import java.io.File;
+import java.io.IOException;
 
 /**
- * Singleton class representing the Boids simulation.
+ * Singleton class rendering the Boids simulation.
  */
 public class Boids extends ApplicationAdapter {
 	private static Boids instance;
@@ -35,23 +40,69 @@ public class Boids extends ApplicationAdapter {
 	private UIStage uiStage;
 	private InputMultiplexer inputMultiplexer;
 
-	public final Random random;
+	public Simulation simulation;
 	public Box2DDebugRenderer box2DDebugRenderer;
-	public World world;
 	public ShapeRenderer shapeRenderer;
 	public TextureRegion boidTexture;
 	public TextureRegion obstacleTexture;
 	public Skin skin;
 
+	/**
+	 * Simulation time not yet stepped when using a fixed timestep (in seconds).
+	 */
+	private float accumulator;
+
+	/**
+	 * Times the phases of each frame, shown by the UI.
+	 */
+	public final FrameProfiler profiler = new FrameProfiler();
+	public final FrameGovernor governor = new FrameGovernor();
+	private File profileFile;
+
+	private File recordFile, replayFile, sceneFile;
+	private TrajectoryRecorder recorder;
+	/**
+	 * Plays back a recording instead of running the simulation, null when running live.
+	 */
+	private TrajectoryPlayer player;
+	private final Array<ReplayBoid> replayBoids = new Array<>();
+
 	public Boids() {
 		if (instance != null) {
 			throw new RuntimeException("Attempt to instantiate multiple of singleton Boids class!");
 		}
-		this.random = new Random();
-
 		instance = this;
 	}
 
+	/**
+	 * Record the simulation to the given file, must be set before the application is created.
+	 */
+	public void setRecordFile(File recordFile) {
+		this.recordFile = recordFile;
+	}
+
+	/**
+	 * Play back the given recording instead of running the simulation, must be set before the application is created.
+	 */
+	public void setReplayFile(File replayFile) {
+		this.replayFile = replayFile;
+	}
+
+	/**
+	 * Load the obstacles from the given scene file rather than creating the default scene,
+	 * must be set before the application is created.
+	 */
+	public void setSceneFile(File sceneFile) {
+		this.sceneFile = sceneFile;
+	}
+
+	/**
+	 * Stream frame timings to the given CSV file from the start, must be set before the application is created.
+	 */
+	public void setProfileFile(File profileFile) {
+		this.profileFile = profileFile;
+	}
+
 	@Override
 	public void create () {
 		// Load assets
@@ -59,8 +110,45 @@ public class Boids extends ApplicationAdapter {
 		obstacleTexture = new TextureRegion(new Texture(Gdx.files.internal("obstacle.png")));
 		skin = new Skin(Gdx.files.internal("uiskin.json"));
 
+		if (replayFile != null) {
+			try {
+				player = new TrajectoryPlayer(replayFile);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to open recording " + replayFile, e);
+			}
+		}
+
+		// Create the simulation first, as a scene file may change the world size
+		simulation = Constants.DETERMINISTIC ? new Simulation(Constants.RANDOM_SEED) : new Simulation();
+		if (player != null) {
+			simulation.setWorldSize(player.getWorldWidth(), player.getWorldHeight());
+			// Only the obstacles of the recorded scene are simulated, the boids are drawn where the player places them
+			try {
+				if (player.getScene() != null) {
+					simulation.populate(0, player.getScene());
+				} else {
+					simulation.populate(0);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to load scene " + player.getScene(), e);
+			}
+			for (int i = 0; i < player.getMaxCount(); i++) {
+				ReplayBoid boid = new ReplayBoid();
+				replayBoids.add(boid);
+				simulation.addActor(boid);
+			}
+		} else if (sceneFile != null) {
+			try {
+				simulation.populate(100, sceneFile);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to load scene " + sceneFile, e);
+			}
+		} else {
+			simulation.populate(100);
+		}
+
 		// Create stage with static viewport size for boid world
-		Viewport vp = new StretchViewport(Constants.WORLD_SIZE.x, Constants.WORLD_SIZE.y);
+		Viewport vp = new StretchViewport(simulation.getWorldWidth(), simulation.getWorldHeight());
 		stage = new Stage(vp);
 		uiStage = new UIStage();
 
@@ -74,35 +162,57 @@ public class Boids extends ApplicationAdapter {
 		shapeRenderer.setColor(0, 0, 1, 1);
 		shapeRenderer.setAutoShapeType(true);
 
-		// Start Box2D physics
-		world = new World(new Vector2(0, 0), true);
-		world.setContactListener(new BoidContactListener());
-		box2DDebugRenderer = new Box2DDebugRenderer(false, false, false, false, false, false);
+		box2DDebugRenderer = new Box2DDebugRenderer(true, false, false, false, true, false);
 		box2DDebugRenderer.VELOCITY_COLOR.set(1, 1, 0, 1);
 
-		// Spawn the 4 walls of our map and place them correctly.
-		MapEdge[] edges = new MapEdge[4];
-		for (int i = 0; i < edges.length; i++) {
-			edges[i] = new MapEdge(i);
-		}
-		for (int i = 0; i < edges.length; i++) {
-			edges[i].setPaired(edges[(i + 2) % edges.length]);
-			stage.addActor(edges[i]);
+		stage.addActor(simulation.getRoot());
+		if (player != null) {
+			stage.addListener(new InputListener() {
+				@Override
+				public boolean keyDown(InputEvent event, int keycode) {
+					// Scrub through the recording a second at a time, or jump to either end
+					switch (keycode) {
+						case Input.Keys.LEFT: player.seekTick(player.getTick() - Constants.SIMULATION_RATE); return true;
+						case Input.Keys.RIGHT: player.seekTick(player.getTick() + Constants.SIMULATION_RATE); return true;
+						case Input.Keys.HOME: player.seekTick(player.getFirstTick()); return true;
+						case Input.Keys.END: player.seekTick(player.getLastTick()); return true;
+						default: return false;
+					}
+				}
+			});
+		} else {
+			stage.addListener(new InputListener() {
+				@Override
+				public boolean touchDown(InputEvent event, float x, float y, int pointer, int button) {
+					// Left click spawns boids around the cursor, right click despawns them
+					if (button == Input.Buttons.LEFT) {
+						simulation.spawnBoidsAround(Constants.SPAWN_BURST_SIZE, x, y, Constants.SPAWN_RADIUS);
+						return true;
+					} else if (button == Input.Buttons.RIGHT) {
+						simulation.despawnBoidsAround(x, y, Constants.SPAWN_RADIUS);
+						return true;
+					}
+					return false;
+				}
+			});
 		}
 
-		// Spawn boids at random points with random rotations
-		for (int i = 0; i < 100; i++) {
-			float x, y, rotation;
-			x = random.nextFloat() * vp.getWorldWidth();
-			y = random.nextFloat() * vp.getWorldHeight();
-			rotation = random.nextFloat() * 360;
-
-			Boid boid = new Boid(x, y, rotation);
-			stage.addActor(boid);
+		if (recordFile != null) {
+			try {
+				recorder = new TrajectoryRecorder(recordFile, simulation.getWorldWidth(), simulation.getWorldHeight(),
+						sceneFile);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to start recording " + recordFile, e);
+			}
+			simulation.setRecorder(recorder);
+		}
+		if (profileFile != null) {
+			try {
+				profiler.startCsv(profileFile);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to open " + profileFile, e);
+			}
 		}
-
-		// Create obstacles
-		stage.addActor(new RectangleObstacle(Constants.WORLD_SIZE.x / 2, Constants.WORLD_SIZE.y / 2, 2, 2));
 	}
 
 	@Override
@@ -110,21 +220,105 @@ public class Boids extends ApplicationAdapter {
 		ScreenUtils.clear(Constants.BACKGROUND_COLOR);
 		Gdx.gl.glEnable(GL20.GL_BLEND);
 
+		long time = profiler.beginFrame();
 		shapeRenderer.setProjectionMatrix(stage.getBatch().getProjectionMatrix());
 		shapeRenderer.begin();
-		stage.act();
+		if (player != null) {
+			player.advance(Gdx.graphics.getDeltaTime());
+			player.apply(replayBoids);
+			time = profiler.record(FrameProfiler.Phase.SIMULATION, time);
+		} else if (usingFixedTimestep()) {
+			time = stepFixed(Gdx.graphics.getDeltaTime(), time);
+		} else {
+			simulation.act(Gdx.graphics.getDeltaTime());
+			time = profiler.record(FrameProfiler.Phase.SIMULATION, time);
+		}
 		shapeRenderer.end();
+		time = profiler.record(FrameProfiler.Phase.DEBUG_DRAW, time);
 
+		drawObstacleShapes();
 		stage.draw();
-		box2DDebugRenderer.render(world, stage.getCamera().combined);
+		time = profiler.record(FrameProfiler.Phase.STAGE_DRAW, time);
+		if (Constants.DRAW_PHYSICS_DEBUG) {
+			box2DDebugRenderer.render(simulation.world, stage.getCamera().combined);
+		}
+		time = profiler.record(FrameProfiler.Phase.DEBUG_DRAW, time);
+		uiStage.updateTimings(profiler);
+		uiStage.updateAnalytics(simulation.analytics);
+		uiStage.updateGovernor(governor);
 		uiStage.draw();
+		time = profiler.record(FrameProfiler.Phase.UI_DRAW, time);
+
+		if (player == null && !usingFixedTimestep()) {
+			simulation.stepWorld(Gdx.graphics.getDeltaTime());
+			profiler.record(FrameProfiler.Phase.WORLD_STEP, time);
+		}
+		profiler.endFrame(simulation.counters);
+		governor.update(profiler.getLast(FrameProfiler.Phase.FRAME), Gdx.graphics.getDeltaTime());
+	}
+
+	/**
+	 * Draw the obstacles drawn from their geometry rather than with a texture.
+	 */
+	private void drawObstacleShapes() {
+		shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+		shapeRenderer.setColor(Constants.FOREGROUND_COLOR);
+		for (Obstacle obstacle : simulation.getObstacles()) {
+			obstacle.drawShape(shapeRenderer);
+		}
+		shapeRenderer.end();
+	}
 
-		world.step(Gdx.graphics.getDeltaTime(), 6, 2);
+	private boolean usingFixedTimestep() {
+		// Variable steps follow the frame timing, so would make every run different
+		return Constants.USE_FIXED_TIMESTEP || Constants.DETERMINISTIC;
+	}
+
+	/**
+	 * Advance the simulation in fixed size steps to catch up with the time that has passed,
+	 * then interpolate the drawn boids between the last two simulated states.
+	 * @param frameDelta Time since the last frame (in seconds).
+	 * @param time Time the simulation phase started, as passed to the profiler.
+	 * @return The time the last phase finished.
+	 */
+	private long stepFixed(float frameDelta, long time) {
+		float step = 1f / Constants.SIMULATION_RATE;
+		accumulator += frameDelta;
+
+		int steps = 0;
+		while (accumulator >= step && steps < Constants.MAX_STEPS_PER_FRAME) {
+			simulation.act(step);
+			time = profiler.record(FrameProfiler.Phase.SIMULATION, time);
+			simulation.stepWorld(step);
+			time = profiler.record(FrameProfiler.Phase.WORLD_STEP, time);
+			accumulator -= step;
+			steps++;
+		}
+		// Drop any time we could not catch up on, so one slow frame does not cause a burst of steps later
+		if (accumulator >= step) {
+			accumulator = 0;
+		}
+
+		simulation.flock.interpolate(accumulator / step);
+		return profiler.record(FrameProfiler.Phase.SIMULATION, time);
 	}
 	
 	@Override
 	public void dispose () {
 		stage.dispose();
+		if (recorder != null) recorder.dispose();
+		if (player != null) player.dispose();
+		try {
+			profiler.stopCsv();
+		} catch (IOException e) {
+			Gdx.app.error("Boids", "Failed to close frame timings", e);
+		}
+		try {
+			simulation.analytics.stopCsv();
+		} catch (IOException e) {
+			Gdx.app.error("Boids", "Failed to close flock analytics", e);
+		}
+		simulation.dispose();
 		instance = null;
 	}
 
@@ -3,7 +3,15 @@ package com.randomman552.boids;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.Vector2;
 
+/**
+ * Settings of the program, changed at runtime by the options menu and the frame governor.
+ * A simulation does not read its behaviour settings from here directly, it takes a {@link SimulationConfig} snapshot
+ * of them at the start of each tick.
+ */
 public abstract class Constants {
+    /**
+     * Size of the world of new simulations. Scenes and snapshots resize their own simulation rather than this.
+     */
     public static final Vector2 WORLD_SIZE = new Vector2(16, 9);
 
     // Appearance settings
@@ -16,10 +24,100 @@ public abstract class Constants {
     public static final short BOID_COLLISION_GROUP = -2;
     public static final short MAP_EDGE_GROUP = BOID_SENSE_GROUP;
 
+    // Simulation loop settings
+    /**
+     * Whether the simulation is seeded with RANDOM_SEED and always uses the fixed timestep,
+     * so every run plays out the same regardless of frame timing.
+     */
+    public static boolean DETERMINISTIC = false;
+    public static long RANDOM_SEED = 0;
+    /**
+     * Whether the simulation runs at a fixed rate (SIMULATION_RATE) independent of the frame rate,
+     * with drawing interpolated between simulation steps.
+     */
+    public static boolean USE_FIXED_TIMESTEP = true;
+    /**
+     * In simulation steps per second
+     */
+    public static int SIMULATION_RATE = 60;
+    /**
+     * Maximum number of simulation steps run in one frame when catching up after a slow frame.
+     */
+    public static int MAX_STEPS_PER_FRAME = 4;
+    /**
+     * Box2D constraint solver iterations per world step.
+     */
+    public static int VELOCITY_ITERATIONS = 6;
+    public static int POSITION_ITERATIONS = 2;
+    /**
+     * Whether the frame governor lowers simulation quality while frames take longer than TARGET_FRAME_RATE allows,
+     * restoring it when there is headroom again.
+     */
+    public static boolean FRAME_GOVERNOR = false;
+    public static int TARGET_FRAME_RATE = 60;
+    /**
+     * Whether the world wraps around as a torus: boid positions are wrapped arithmetically after each step and
+     * neighbours are found across the edges. Otherwise boids are teleported by the MapEdge bodies.
+     */
+    public static boolean PERIODIC_BOUNDARY = true;
+
     // Boid behavior settings
     public static final int VELOCITY = 3;
     public static float SENSE_RADIUS = 1f;
+    /**
+     * Whether boids find their neighbours through the spatial grid (rebuilt each frame),
+     * or through the contacts of their Box2D sensor fixtures.
+     */
+    public static boolean USE_SPATIAL_GRID = true;
+    /**
+     * Whether boids only take their nearest TOPOLOGICAL_NEIGHBOUR_COUNT perceived neighbours into account,
+     * rather than every boid within SENSE_RADIUS. Bounds the steering cost of boids in dense clumps.
+     * Starlings have been observed to interact with around 7 neighbours regardless of density.
+     */
+    public static boolean TOPOLOGICAL_NEIGHBOURS = false;
+    public static int TOPOLOGICAL_NEIGHBOUR_COUNT = 7;
+    /**
+     * Fraction of boids whose flocking forces are recalculated each tick, taken in turn.
+     * The rest keep turning towards their last steering target, unless they are near an obstacle
+     * or their neighbours changed, in which case they are always recalculated.
+     */
+    public static float STEERING_UPDATE_FRACTION = 1f;
+    /**
+     * Whether the velocity matching and flock centering sums are taken from a quadtree over the whole SENSE_RADIUS,
+     * approximating distant groups of boids by their aggregate (Barnes-Hut), so large sense radii stay cheap.
+     * Neighbours are then only gathered individually within BARNES_HUT_NEAR_RADIUS, for separation.
+     */
+    public static boolean BARNES_HUT_CENTERING = false;
+    public static float BARNES_HUT_NEAR_RADIUS = 1f;
+    /**
+     * Largest ratio of quadtree node size to distance at which a node is approximated by its aggregate.
+     */
+    public static float BARNES_HUT_THETA = 0.5f;
+    /**
+     * Whether the flocking forces of boids are calculated across all cores (ForkJoinPool),
+     * rather than one boid after another on the render thread.
+     */
+    public static boolean PARALLEL_STEERING = false;
+    /**
+     * Whether flocking forces are calculated by the Vector API kernel (see the vector module), several neighbours
+     * at a time. Falls back to the scalar kernel when the JVM cannot load it.
+     */
+    public static boolean VECTOR_STEERING = false;
     public static int ESCAPE_STEPS = 6;
+    /**
+     * Whether obstacle avoidance samples the precomputed obstacle distance field,
+     * rather than ray casting through the Box2D world.
+     */
+    public static boolean USE_OBSTACLE_FIELD = true;
+    /**
+     * When not using the obstacle distance field, whether avoidance ray casts go through the obstacle-only
+     * bounding volume hierarchy rather than the Box2D world.
+     */
+    public static boolean USE_OBSTACLE_BVH = true;
+    /**
+     * Distance between samples of the obstacle distance field.
+     */
+    public static float OBSTACLE_FIELD_CELL_SIZE = 0.05f;
     /**
      * Angle at which an obstacle in front of a boid must be avoided (in degrees)
      * For example, with a value of 15, -15 and 15 degrees will be checked,
@@ -33,6 +131,16 @@ public abstract class Constants {
     public static float MIN_SEPARATION_DIST = 0.25f;
     public static float SEPARATION_FORCE_AT_MIN_DIST = 2;
 
+    // Population settings
+    /**
+     * Number of boids spawned around the cursor by a left click, right clicking despawns the boids around it.
+     */
+    public static int SPAWN_BURST_SIZE = 50;
+    /**
+     * Radius of the circle boids are spawned in and despawned from around the cursor.
+     */
+    public static float SPAWN_RADIUS = 0.75f;
+
     // Boid "desire" force scalars
     // Are used to scale behavior elements of boids (weighted avg)
     public static float SEPARATION_FORCE_SCALAR = 1f;
@@ -40,6 +148,16 @@ public abstract class Constants {
     public static float FLOCK_CENTER_FORCE_SCALAR = 1f;
 
     // Debug drawing variables
+    /**
+     * Whether the time taken by each phase of recent frames is shown on screen.
+     */
+    public static boolean SHOW_FRAME_TIMINGS = false;
+    /**
+     * Whether flock analytics (polarisation, flock count and size, nearest neighbour distance) are measured each
+     * tick and shown on screen. They are also measured while being written to a CSV file.
+     */
+    public static boolean SHOW_FLOCK_ANALYTICS = false;
+    public static boolean DRAW_PHYSICS_DEBUG = false;
     public static boolean DRAW_SEPARATION_FORCE = false;
     public static final Color COLOR_SEPARATION_FORCE = new Color(0, 1, 0, 1);
     public static boolean DRAW_VELOCITY_MATCH_FORCE = false;
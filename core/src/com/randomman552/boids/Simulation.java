@@ -0,0 +1,500 @@
+package com.randomman552.boids;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.scenes.scene2d.Actor;
+import com.badlogic.gdx.scenes.scene2d.Group;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectFloatMap;
+import com.randomman552.boids.boid.Boid;
+import com.randomman552.boids.boid.BoidContactListener;
+import com.randomman552.boids.boid.BoidPool;
+import com.randomman552.boids.boid.Flock;
+import com.randomman552.boids.boid.FlockAnalytics;
+import com.randomman552.boids.obstacles.MapEdge;
+import com.randomman552.boids.obstacles.Obstacle;
+import com.randomman552.boids.obstacles.ObstacleBVH;
+import com.randomman552.boids.obstacles.ObstacleField;
+import com.randomman552.boids.obstacles.RectangleObstacle;
+import com.randomman552.boids.obstacles.SceneLoader;
+import com.randomman552.boids.obstacles.StaticObstacle;
+import com.randomman552.boids.replay.TrajectoryRecorder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The boid simulation itself, without any rendering or asset loading.
+ * Owns the Box2D world, the flock and the scene2d actors of the simulation (in a Group which can be added to a Stage
+ * for drawing), so it can be stepped without a graphics context.
+ */
+public class Simulation implements Disposable {
+    /**
+     * Number of random points tried when spawning a boid in a scene before accepting one inside an obstacle.
+     */
+    private static final int SPAWN_ATTEMPTS = 16;
+
+    /**
+     * Source of all randomness in the simulation, its state is included in snapshots.
+     */
+    public final RandomXS128 random;
+    public final World world;
+    public final Flock flock;
+    /**
+     * Work done by the simulation, never reset by the simulation itself.
+     */
+    public final SimulationCounters counters = new SimulationCounters();
+    /**
+     * Measurements of the flock, updated each tick while Constants.SHOW_FLOCK_ANALYTICS is set or they are being
+     * written to a file.
+     */
+    public final FlockAnalytics analytics = new FlockAnalytics();
+    private final Group root = new Group();
+    /**
+     * Actors of the boids, in the same order as the flock, so a boid's id is also its index in the group.
+     */
+    private final Group boidGroup = new Group();
+    private final BoidPool boidPool;
+    private final Array<Obstacle> obstacles = new Array<>();
+    private final ObstacleField obstacleField = new ObstacleField();
+    private final ObstacleBVH obstacleBVH = new ObstacleBVH();
+    /**
+     * Body at the world origin holding the fixtures of every static obstacle, created with the first of them.
+     */
+    private Body staticBody;
+    /**
+     * The 4 walls teleporting boids to the opposite side, null while using the periodic boundary.
+     */
+    private MapEdge[] edges;
+    private long tick;
+    private TrajectoryRecorder recorder;
+    private SimulationConfig config = SimulationConfig.fromConstants();
+    private boolean followConstants = true;
+
+    public Simulation() {
+        this(new RandomXS128());
+    }
+
+    /**
+     * Create a simulation whose random choices are fully determined by the given seed.
+     * Stepped with the same sequence of time steps, two simulations with the same seed stay identical.
+     */
+    public Simulation(long seed) {
+        this(new RandomXS128(seed));
+    }
+
+    private Simulation(RandomXS128 random) {
+        this.random = random;
+
+        // Start Box2D physics
+        world = new World(new Vector2(0, 0), true);
+        world.setContactListener(new BoidContactListener());
+        flock = new Flock();
+        boidPool = new BoidPool(this);
+
+        // Removing a child moves the last one into its place, mirroring how the flock removes boids
+        boidGroup.getChildren().ordered = false;
+        root.addActor(boidGroup);
+    }
+
+    /**
+     * Create the default scene: the map edges (unless using the periodic boundary), boids at random points with
+     * random rotations, and the central obstacle.
+     * @param boidCount The number of boids to spawn.
+     */
+    public void populate(int boidCount) {
+        updateConfig();
+        updateBoundary();
+
+        // Spawn boids at random points with random rotations
+        for (int i = 0; i < boidCount; i++) {
+            float x, y, rotation;
+            x = random.nextFloat() * config.worldWidth;
+            y = random.nextFloat() * config.worldHeight;
+            rotation = random.nextFloat() * 360;
+
+            spawnBoid(x, y, rotation);
+        }
+
+        // Create obstacles
+        addObstacle(new RectangleObstacle(this, config.worldWidth / 2, config.worldHeight / 2, 2, 2));
+    }
+
+    /**
+     * Create a scene from a scene file (see {@link SceneLoader}): its obstacles, the map edges (unless using the
+     * periodic boundary), and boids at random points outside the obstacles with random rotations.
+     * @param boidCount The number of boids to spawn.
+     * @param scene The scene file to load.
+     * @throws IOException If the scene file can not be read or is not valid.
+     */
+    public void populate(int boidCount, File scene) throws IOException {
+        updateConfig();
+        SceneLoader.load(this, scene);
+        updateBoundary();
+        rebuildObstacleStructures();
+
+        for (int i = 0; i < boidCount; i++) {
+            float x, y, rotation;
+            // Retry a few times for a point which is not inside an obstacle, then accept it anyway
+            int attempts = 0;
+            do {
+                x = random.nextFloat() * config.worldWidth;
+                y = random.nextFloat() * config.worldHeight;
+            } while (obstacleField.distance(x, y) < Constants.BOID_SIZE.y && ++attempts < SPAWN_ATTEMPTS);
+            rotation = random.nextFloat() * 360;
+
+            spawnBoid(x, y, rotation);
+        }
+    }
+
+    /**
+     * Add or remove the map edges to match the periodic boundary setting of the config.
+     */
+    private void updateBoundary() {
+        if (config.periodicBoundary && edges != null) {
+            for (MapEdge edge : edges) {
+                removeObstacle(edge);
+            }
+            edges = null;
+        } else if (!config.periodicBoundary && edges == null) {
+            // Spawn the 4 walls of our map and place them correctly.
+            edges = new MapEdge[4];
+            ObjectFloatMap<Body> coolDowns = new ObjectFloatMap<>();
+            for (int i = 0; i < edges.length; i++) {
+                edges[i] = new MapEdge(this, i, coolDowns);
+            }
+            for (int i = 0; i < edges.length; i++) {
+                edges[i].setPaired(edges[(i + 2) % edges.length]);
+                addObstacle(edges[i]);
+            }
+        }
+    }
+
+    /**
+     * Add a boid to the simulation, giving it the next free id.
+     * @param boid The boid to add.
+     */
+    public void addBoid(Boid boid) {
+        flock.add(boid);
+        boidGroup.addActor(boid);
+    }
+
+    /**
+     * Spawn a boid, reusing a despawned one if there are any.
+     * @param x X coordinate of the center.
+     * @param y Y coordinate of the center.
+     * @param rotation Rotation (in degrees), the boid moves in the direction it faces.
+     * @return The spawned boid.
+     */
+    public Boid spawnBoid(float x, float y, float rotation) {
+        Boid boid = boidPool.obtain(x, y, rotation);
+        addBoid(boid);
+        return boid;
+    }
+
+    /**
+     * Spawn boids at random points in a rectangle with random rotations.
+     * @param count Number of boids to spawn.
+     * @param x X coordinate of the bottom left corner.
+     * @param y Y coordinate of the bottom left corner.
+     */
+    public void spawnBoids(int count, float x, float y, float width, float height) {
+        for (int i = 0; i < count; i++) {
+            float bx = x + random.nextFloat() * width;
+            float by = y + random.nextFloat() * height;
+            spawnBoid(bx, by, random.nextFloat() * 360);
+        }
+    }
+
+    /**
+     * Spawn boids at random points in a circle with random rotations, for example around the cursor.
+     * @param count Number of boids to spawn.
+     * @param x X coordinate of the center.
+     * @param y Y coordinate of the center.
+     */
+    public void spawnBoidsAround(int count, float x, float y, float radius) {
+        for (int i = 0; i < count; i++) {
+            // Square root of the distance spreads the boids evenly over the area
+            float distance = radius * (float) Math.sqrt(random.nextFloat());
+            float angle = random.nextFloat() * 360;
+            spawnBoid(x + distance * MathUtils.cosDeg(angle), y + distance * MathUtils.sinDeg(angle),
+                    random.nextFloat() * 360);
+        }
+    }
+
+    /**
+     * Remove a boid from the simulation and keep it for reuse by later spawns, in constant time.
+     * The last boid takes over the removed boid's id. Must not be called during a step.
+     * @param boid The boid to remove.
+     */
+    public void despawnBoid(Boid boid) {
+        int id = boid.getId();
+        flock.remove(boid);
+        boidGroup.removeActorAt(id, false);
+        boidPool.free(boid);
+    }
+
+    /**
+     * Despawn the given number of boids, starting from the most recently added.
+     * @return The number of boids despawned, less than count if there were not enough boids.
+     */
+    public int despawnBoids(int count) {
+        count = Math.min(count, flock.size());
+        for (int i = 0; i < count; i++) {
+            despawnBoid(flock.getBoids().peek());
+        }
+        return count;
+    }
+
+    /**
+     * Despawn every boid within a circle, for example around the cursor.
+     * Finding the boids checks every boid, the despawns themselves are constant time each.
+     * @return The number of boids despawned.
+     */
+    public int despawnBoidsAround(float x, float y, float radius) {
+        Array<Boid> boids = flock.getBoids();
+        int despawned = 0;
+        // Backwards, as despawning moves the last boid into the freed id
+        for (int i = boids.size - 1; i >= 0; i--) {
+            Vector2 pos = boids.get(i).getBody().getPosition();
+            if (Vector2.dst2(pos.x, pos.y, x, y) <= radius * radius) {
+                despawnBoid(boids.get(i));
+                despawned++;
+            }
+        }
+        return despawned;
+    }
+
+    /**
+     * Pool of despawned boids, also used to create the body of every new boid.
+     */
+    public BoidPool getBoidPool() {
+        return boidPool;
+    }
+
+    /**
+     * Add an obstacle to the simulation, the obstacle distance field is rebuilt before the next step.
+     * Static obstacles are not added to the actor tree, as they do nothing when acting and are drawn together
+     * from {@link #getObstacles()}.
+     * @param obstacle The obstacle to add.
+     */
+    public void addObstacle(Obstacle obstacle) {
+        obstacles.add(obstacle);
+        markObstaclesChanged();
+        if (!(obstacle instanceof StaticObstacle)) {
+            root.addActor(obstacle);
+        }
+    }
+
+    /**
+     * Remove an obstacle from the simulation and destroy its body.
+     * @param obstacle The obstacle to remove.
+     */
+    public void removeObstacle(Obstacle obstacle) {
+        obstacles.removeValue(obstacle, true);
+        markObstaclesChanged();
+        obstacle.remove();
+        obstacle.dispose();
+    }
+
+    /**
+     * Flag the obstacle acceleration structures to be rebuilt before the next step.
+     * Should be called after moving an obstacle.
+     */
+    public void markObstaclesChanged() {
+        obstacleField.markDirty();
+        obstacleBVH.markDirty();
+    }
+
+    public Array<Obstacle> getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     * Static body at the world origin which static obstacles add their fixtures to.
+     */
+    public Body getStaticBody() {
+        if (staticBody == null) {
+            BodyDef bodyDef = new BodyDef();
+            bodyDef.type = BodyDef.BodyType.StaticBody;
+            staticBody = world.createBody(bodyDef);
+        }
+        return staticBody;
+    }
+
+    /**
+     * Distance field of the obstacles, rebuilt at the start of a step whenever the obstacles have changed.
+     */
+    public ObstacleField getObstacleField() {
+        return obstacleField;
+    }
+
+    /**
+     * Bounding volume hierarchy of the obstacles, rebuilt at the start of a step whenever the obstacles have changed.
+     */
+    public ObstacleBVH getObstacleBVH() {
+        return obstacleBVH;
+    }
+
+    public void addActor(Actor actor) {
+        root.addActor(actor);
+    }
+
+    /**
+     * Group containing every actor in the simulation.
+     */
+    public Group getRoot() {
+        return root;
+    }
+
+    /**
+     * Number of world steps run so far.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    void setTick(long tick) {
+        this.tick = tick;
+    }
+
+    /**
+     * Record the flock state of every following tick, or stop recording if null.
+     * The recorder is not disposed with the simulation.
+     */
+    public void setRecorder(TrajectoryRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Settings the simulation steers with during the current tick.
+     */
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Steer with the given parameters from now on, rather than following the values in Constants.
+     * Pass null to follow Constants again, keeping the current world size.
+     */
+    public void setConfig(SimulationConfig config) {
+        float width = this.config.worldWidth, height = this.config.worldHeight;
+        followConstants = config == null;
+        this.config = followConstants ? SimulationConfig.fromConstants().withWorldSize(width, height) : config;
+        obstacleField.markDirty();
+        if (this.config.worldWidth != width || this.config.worldHeight != height) {
+            worldSizeChanged();
+        }
+    }
+
+    public float getWorldWidth() {
+        return config.worldWidth;
+    }
+
+    public float getWorldHeight() {
+        return config.worldHeight;
+    }
+
+    /**
+     * Resize the world, keeping the other settings. New simulations start with Constants.WORLD_SIZE.
+     * The map edges are recreated to fit, boids and obstacles are left where they are.
+     */
+    public void setWorldSize(float width, float height) {
+        if (width == config.worldWidth && height == config.worldHeight) return;
+        config = config.withWorldSize(width, height);
+        worldSizeChanged();
+    }
+
+    private void worldSizeChanged() {
+        obstacleField.markDirty();
+        if (edges != null) {
+            for (MapEdge edge : edges) {
+                removeObstacle(edge);
+            }
+            edges = null;
+            updateBoundary();
+        }
+    }
+
+    /**
+     * Take a new snapshot of the settings in Constants if following them and they changed since the last one.
+     * Called once at the start of a tick, so the whole tick runs with the same settings.
+     */
+    private void updateConfig() {
+        if (!followConstants || config.matchesConstants()) return;
+        if (config.senseRadius != Constants.SENSE_RADIUS) {
+            obstacleField.markDirty();
+        }
+        config = SimulationConfig.fromConstants().withWorldSize(config.worldWidth, config.worldHeight);
+    }
+
+    /**
+     * Rebuild the obstacle distance field and BVH if the obstacles changed since they were last built.
+     */
+    private void rebuildObstacleStructures() {
+        if (obstacleField.isDirty()) {
+            obstacleField.rebuild(obstacles, config.worldWidth, config.worldHeight,
+                    Constants.OBSTACLE_FIELD_CELL_SIZE, 2 * config.senseRadius);
+        }
+        if (obstacleBVH.isDirty()) {
+            obstacleBVH.rebuild(obstacles);
+        }
+    }
+
+    /**
+     * Run the steering phase and let every actor act, without stepping the physics world.
+     * @param delta Time step (in seconds).
+     */
+    public void act(float delta) {
+        updateConfig();
+        updateBoundary();
+        rebuildObstacleStructures();
+        flock.update(delta, obstacleField, config);
+        counters.neighboursExamined += flock.getNeighboursExamined();
+        if (Constants.SHOW_FLOCK_ANALYTICS || analytics.isWritingCsv()) {
+            analytics.update(tick, flock);
+        }
+        if (recorder != null) {
+            recorder.record(tick, delta, flock.getState());
+        }
+        if (!config.useObstacleField && config.useObstacleBVH) {
+            flock.probeObstacles(obstacleBVH);
+            counters.raysCast += 2 * flock.size();
+        }
+        root.act(delta);
+    }
+
+    /**
+     * Step the physics world, moving every body according to its velocity.
+     * @param delta Time step (in seconds).
+     */
+    public void stepWorld(float delta) {
+        world.step(delta, Constants.VELOCITY_ITERATIONS, Constants.POSITION_ITERATIONS);
+        counters.contactsProcessed += world.getContactCount();
+        tick++;
+        if (config.periodicBoundary) {
+            flock.wrapPositions();
+        }
+    }
+
+    /**
+     * Advance the whole simulation by one tick.
+     * @param delta Time step (in seconds).
+     */
+    public void step(float delta) {
+        act(delta);
+        stepWorld(delta);
+    }
+
+    @Override
+    public void dispose() {
+        flock.dispose();
+        boidPool.dispose();
+        world.dispose();
+    }
+}
@@ -0,0 +1,216 @@
+package com.randomman552.boids;
+
+/**
+ * Immutable snapshot of the settings a simulation steers its boids with.
+ * The options menu (and the frame governor) change the mutable settings in {@link Constants} at any time, so a
+ * simulation following them takes a new snapshot at the start of a tick whenever they differ from its current one,
+ * and every read during the tick (including by steering worker threads) goes through that snapshot.
+ * Every boid and worker thread therefore sees the same settings for the whole tick, and the hot loops can hold them
+ * in locals rather than re-reading mutable statics.
+ * A simulation can also be given a config of its own, so simulations with different settings can run side by side.
+ */
+public final class SimulationConfig {
+    /**
+     * Mutable set of values to create a config from, starting from the current values in {@link Constants}.
+     */
+    public static class Builder {
+        public float worldWidth = Constants.WORLD_SIZE.x;
+        public float worldHeight = Constants.WORLD_SIZE.y;
+        public boolean periodicBoundary = Constants.PERIODIC_BOUNDARY;
+        public float senseRadius = Constants.SENSE_RADIUS;
+        public boolean useSpatialGrid = Constants.USE_SPATIAL_GRID;
+        public boolean topologicalNeighbours = Constants.TOPOLOGICAL_NEIGHBOURS;
+        public int topologicalNeighbourCount = Constants.TOPOLOGICAL_NEIGHBOUR_COUNT;
+        public float steeringUpdateFraction = Constants.STEERING_UPDATE_FRACTION;
+        public boolean barnesHutCentering = Constants.BARNES_HUT_CENTERING;
+        public float barnesHutNearRadius = Constants.BARNES_HUT_NEAR_RADIUS;
+        public float barnesHutTheta = Constants.BARNES_HUT_THETA;
+        public boolean parallelSteering = Constants.PARALLEL_STEERING;
+        public boolean vectorSteering = Constants.VECTOR_STEERING;
+        public int escapeSteps = Constants.ESCAPE_STEPS;
+        public boolean useObstacleField = Constants.USE_OBSTACLE_FIELD;
+        public boolean useObstacleBVH = Constants.USE_OBSTACLE_BVH;
+        public float initialEscapeAngle = Constants.INITIAL_ESCAPE_ANGLE;
+        public float turnRate = Constants.TURN_RATE;
+        public float minSeparationDist = Constants.MIN_SEPARATION_DIST;
+        public float separationForceAtMinDist = Constants.SEPARATION_FORCE_AT_MIN_DIST;
+        public float separationForceScalar = Constants.SEPARATION_FORCE_SCALAR;
+        public float velocityMatchForceScalar = Constants.VELOCITY_MATCH_FORCE_SCALAR;
+        public float flockCenterForceScalar = Constants.FLOCK_CENTER_FORCE_SCALAR;
+        public boolean drawSeparationForce = Constants.DRAW_SEPARATION_FORCE;
+        public boolean drawVelocityMatchForce = Constants.DRAW_VELOCITY_MATCH_FORCE;
+        public boolean drawFlockCenteringForce = Constants.DRAW_FLOCK_CENTERING_FORCE;
+        public boolean drawObstacleAvoidance = Constants.DRAW_OBSTACLE_AVOIDANCE;
+
+        public Builder() {
+        }
+
+        /**
+         * Start from the values of an existing config rather than Constants.
+         */
+        public Builder(SimulationConfig config) {
+            worldWidth = config.worldWidth;
+            worldHeight = config.worldHeight;
+            periodicBoundary = config.periodicBoundary;
+            senseRadius = config.senseRadius;
+            useSpatialGrid = config.useSpatialGrid;
+            topologicalNeighbours = config.topologicalNeighbours;
+            topologicalNeighbourCount = config.topologicalNeighbourCount;
+            steeringUpdateFraction = config.steeringUpdateFraction;
+            barnesHutCentering = config.barnesHutCentering;
+            barnesHutNearRadius = config.barnesHutNearRadius;
+            barnesHutTheta = config.barnesHutTheta;
+            parallelSteering = config.parallelSteering;
+            vectorSteering = config.vectorSteering;
+            escapeSteps = config.escapeSteps;
+            useObstacleField = config.useObstacleField;
+            useObstacleBVH = config.useObstacleBVH;
+            initialEscapeAngle = config.initialEscapeAngle;
+            turnRate = config.turnRate;
+            minSeparationDist = config.minSeparationDist;
+            separationForceAtMinDist = config.separationForceAtMinDist;
+            separationForceScalar = config.separationForceScalar;
+            velocityMatchForceScalar = config.velocityMatchForceScalar;
+            flockCenterForceScalar = config.flockCenterForceScalar;
+            drawSeparationForce = config.drawSeparationForce;
+            drawVelocityMatchForce = config.drawVelocityMatchForce;
+            drawFlockCenteringForce = config.drawFlockCenteringForce;
+            drawObstacleAvoidance = config.drawObstacleAvoidance;
+        }
+
+        public SimulationConfig build() {
+            return new SimulationConfig(this);
+        }
+    }
+
+    /**
+     * Size of the world the simulation runs in. Set by its scene or snapshot, so unlike the other settings it is not
+     * compared with (or taken again from) Constants, whose WORLD_SIZE is only the default for new simulations.
+     */
+    public final float worldWidth, worldHeight;
+    // See the matching settings in Constants
+    public final boolean periodicBoundary;
+    public final float senseRadius;
+    public final boolean useSpatialGrid;
+    public final boolean topologicalNeighbours;
+    public final int topologicalNeighbourCount;
+    public final float steeringUpdateFraction;
+    public final boolean barnesHutCentering;
+    public final float barnesHutNearRadius;
+    public final float barnesHutTheta;
+    public final boolean parallelSteering;
+    public final boolean vectorSteering;
+    public final int escapeSteps;
+    public final boolean useObstacleField;
+    public final boolean useObstacleBVH;
+    public final float initialEscapeAngle;
+    /**
+     * Maximum turn rate of a boid (in degrees per second).
+     */
+    public final float turnRate;
+    public final float minSeparationDist;
+    public final float separationForceAtMinDist;
+    public final float separationForceScalar;
+    public final float velocityMatchForceScalar;
+    public final float flockCenterForceScalar;
+    public final boolean drawSeparationForce;
+    public final boolean drawVelocityMatchForce;
+    public final boolean drawFlockCenteringForce;
+    public final boolean drawObstacleAvoidance;
+
+    private SimulationConfig(Builder builder) {
+        worldWidth = builder.worldWidth;
+        worldHeight = builder.worldHeight;
+        periodicBoundary = builder.periodicBoundary;
+        senseRadius = builder.senseRadius;
+        useSpatialGrid = builder.useSpatialGrid;
+        topologicalNeighbours = builder.topologicalNeighbours;
+        topologicalNeighbourCount = builder.topologicalNeighbourCount;
+        steeringUpdateFraction = builder.steeringUpdateFraction;
+        barnesHutCentering = builder.barnesHutCentering;
+        barnesHutNearRadius = builder.barnesHutNearRadius;
+        barnesHutTheta = builder.barnesHutTheta;
+        parallelSteering = builder.parallelSteering;
+        vectorSteering = builder.vectorSteering;
+        escapeSteps = builder.escapeSteps;
+        useObstacleField = builder.useObstacleField;
+        useObstacleBVH = builder.useObstacleBVH;
+        initialEscapeAngle = builder.initialEscapeAngle;
+        turnRate = builder.turnRate;
+        minSeparationDist = builder.minSeparationDist;
+        separationForceAtMinDist = builder.separationForceAtMinDist;
+        separationForceScalar = builder.separationForceScalar;
+        velocityMatchForceScalar = builder.velocityMatchForceScalar;
+        flockCenterForceScalar = builder.flockCenterForceScalar;
+        drawSeparationForce = builder.drawSeparationForce;
+        drawVelocityMatchForce = builder.drawVelocityMatchForce;
+        drawFlockCenteringForce = builder.drawFlockCenteringForce;
+        drawObstacleAvoidance = builder.drawObstacleAvoidance;
+    }
+
+    /**
+     * Config holding the current values in {@link Constants}.
+     */
+    public static SimulationConfig fromConstants() {
+        return new Builder().build();
+    }
+
+    /**
+     * Copy of this config for a world of the given size.
+     */
+    public SimulationConfig withWorldSize(float width, float height) {
+        if (width == worldWidth && height == worldHeight) return this;
+        Builder builder = new Builder(this);
+        builder.worldWidth = width;
+        builder.worldHeight = height;
+        return builder.build();
+    }
+
+    /**
+     * Whether this config holds the current values in {@link Constants}, other than the world size.
+     */
+    public boolean matchesConstants() {
+        return periodicBoundary == Constants.PERIODIC_BOUNDARY
+                && senseRadius == Constants.SENSE_RADIUS
+                && useSpatialGrid == Constants.USE_SPATIAL_GRID
+                && topologicalNeighbours == Constants.TOPOLOGICAL_NEIGHBOURS
+                && topologicalNeighbourCount == Constants.TOPOLOGICAL_NEIGHBOUR_COUNT
+                && steeringUpdateFraction == Constants.STEERING_UPDATE_FRACTION
+                && barnesHutCentering == Constants.BARNES_HUT_CENTERING
+                && barnesHutNearRadius == Constants.BARNES_HUT_NEAR_RADIUS
+                && barnesHutTheta == Constants.BARNES_HUT_THETA
+                && parallelSteering == Constants.PARALLEL_STEERING
+                && vectorSteering == Constants.VECTOR_STEERING
+                && escapeSteps == Constants.ESCAPE_STEPS
+                && useObstacleField == Constants.USE_OBSTACLE_FIELD
+                && useObstacleBVH == Constants.USE_OBSTACLE_BVH
+                && initialEscapeAngle == Constants.INITIAL_ESCAPE_ANGLE
+                && turnRate == Constants.TURN_RATE
+                && minSeparationDist == Constants.MIN_SEPARATION_DIST
+                && separationForceAtMinDist == Constants.SEPARATION_FORCE_AT_MIN_DIST
+                && separationForceScalar == Constants.SEPARATION_FORCE_SCALAR
+                && velocityMatchForceScalar == Constants.VELOCITY_MATCH_FORCE_SCALAR
+                && flockCenterForceScalar == Constants.FLOCK_CENTER_FORCE_SCALAR
+                && drawSeparationForce == Constants.DRAW_SEPARATION_FORCE
+                && drawVelocityMatchForce == Constants.DRAW_VELOCITY_MATCH_FORCE
+                && drawFlockCenteringForce == Constants.DRAW_FLOCK_CENTERING_FORCE
+                && drawObstacleAvoidance == Constants.DRAW_OBSTACLE_AVOIDANCE;
+    }
+
+    /**
+     * Whether any of the force drawing flags are set.
+     */
+    public boolean drawsForces() {
+        return drawSeparationForce || drawVelocityMatchForce || drawFlockCenteringForce;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationConfig{senseRadius=" + senseRadius + ", turnRate=" + turnRate
+                + ", separationForceScalar=" + separationForceScalar
+                + ", velocityMatchForceScalar=" + velocityMatchForceScalar
+                + ", flockCenterForceScalar=" + flockCenterForceScalar
+                + ", escapeSteps=" + escapeSteps + ", topologicalNeighbours=" + topologicalNeighbours
+                + ", steeringUpdateFraction=" + steeringUpdateFraction + "}";
+    }
+}
@@ -0,0 +1,25 @@
+package com.randomman552.boids;
+
+/**
+ * Counts of the work done by a simulation, accumulated over every tick until reset by whoever reads them.
+ */
+public class SimulationCounters {
+    /**
+     * Neighbours taken into account by steering, summed over every boid.
+     */
+    public long neighboursExamined;
+    /**
+     * Obstacle avoidance rays cast, whichever structure they were cast through.
+     */
+    public long raysCast;
+    /**
+     * Box2D contacts in the world during each world step.
+     */
+    public long contactsProcessed;
+
+    public void reset() {
+        neighboursExamined = 0;
+        raysCast = 0;
+        contactsProcessed = 0;
+    }
+}
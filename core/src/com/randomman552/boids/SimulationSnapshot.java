@@ -0,0 +1,287 @@
+package com.randomman552.boids;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.utils.Array;
+import com.randomman552.boids.boid.Boid;
+import com.randomman552.boids.obstacles.ChainObstacle;
+import com.randomman552.boids.obstacles.CircleObstacle;
+import com.randomman552.boids.obstacles.MapEdge;
+import com.randomman552.boids.obstacles.Obstacle;
+import com.randomman552.boids.obstacles.PolygonObstacle;
+import com.randomman552.boids.obstacles.RectangleObstacle;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Compact binary snapshot of a simulation: the boids, obstacles, random number generator state and world settings.
+ * Boid data is stored as one column of floats per property so it can be written and read with bulk buffer copies,
+ * which lets a large settled flock be restored far quicker than simulating it back to a steady state.
+ * Map edges are not stored, they are recreated from the saved boundary mode.
+ * Since version 3 the boids are followed by the size and contents of the flock's steering schedule, so a restored
+ * simulation recalculates the same boids' steering as the saved one would with a STEERING_UPDATE_FRACTION below 1.
+ * Obstacles follow, preceded by the size of their section in bytes (since version 2, which added circle,
+ * polygon and chain obstacles of varying size). Version 1 and 2 snapshots can still be read, restored simulations
+ * then recalculate every boid's steering on their first tick.
+ */
+public final class SimulationSnapshot {
+    private static final int MAGIC = 0x424F4944; // "BOID"
+    private static final int VERSION = 3;
+
+    /**
+     * magic, version, tick, 2 random states, world width and height, flags, boid count and obstacle count.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 1 + 4 + 4;
+    private static final int BOID_SIZE = 5 * 4;
+    /**
+     * Size of an obstacle in version 1 snapshots, which only held rectangles.
+     */
+    private static final int RECTANGLE_SIZE = 1 + 5 * 4;
+
+    private static final byte FLAG_PERIODIC = 1;
+    private static final byte OBSTACLE_RECTANGLE = 1;
+    private static final byte OBSTACLE_CIRCLE = 2;
+    private static final byte OBSTACLE_POLYGON = 3;
+    private static final byte OBSTACLE_CHAIN = 4;
+
+    private SimulationSnapshot() {
+    }
+
+    /**
+     * Write a snapshot of the simulation to a file.
+     * @param simulation Simulation to save, should be between steps.
+     * @param file File to write, replaced if it exists.
+     */
+    public static void save(Simulation simulation, File file) throws IOException {
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            write(simulation, channel);
+        }
+    }
+
+    /**
+     * Create a simulation from a snapshot file.
+     * @see #read(ReadableByteChannel)
+     */
+    public static Simulation load(File file) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Write a snapshot of the simulation.
+     * @param simulation Simulation to save, should be between steps.
+     * @param channel Channel to write to, not closed.
+     */
+    public static void write(Simulation simulation, WritableByteChannel channel) throws IOException {
+        Array<Boid> boids = simulation.flock.getBoids();
+        Array<Obstacle> obstacles = new Array<>();
+        int obstacleBytes = 0;
+        for (Obstacle obstacle : simulation.getObstacles()) {
+            if (obstacle instanceof MapEdge) continue;
+            obstacleBytes += sizeOf(obstacle);
+            obstacles.add(obstacle);
+        }
+
+        int count = boids.size;
+        int scheduleBytes = simulation.flock.getScheduleSize();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * BOID_SIZE + 4 + scheduleBytes + 4 + obstacleBytes);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(simulation.getTick());
+        buffer.putLong(simulation.random.getState(0));
+        buffer.putLong(simulation.random.getState(1));
+        buffer.putFloat(simulation.getWorldWidth());
+        buffer.putFloat(simulation.getWorldHeight());
+        buffer.put(simulation.getConfig().periodicBoundary ? FLAG_PERIODIC : 0);
+        buffer.putInt(count);
+        buffer.putInt(obstacles.size);
+
+        // One column per property, filled through a float view of the buffer
+        float[] column = new float[count];
+        FloatBuffer floats = buffer.asFloatBuffer();
+        for (int property = 0; property < 5; property++) {
+            for (int i = 0; i < count; i++) {
+                Boid boid = boids.get(i);
+                Body body = boid.getBody();
+                switch (property) {
+                    case 0: column[i] = body.getPosition().x; break;
+                    case 1: column[i] = body.getPosition().y; break;
+                    case 2: column[i] = body.getLinearVelocity().x; break;
+                    case 3: column[i] = body.getLinearVelocity().y; break;
+                    default: column[i] = boid.getRotation(); break;
+                }
+            }
+            floats.put(column, 0, count);
+        }
+        buffer.position(buffer.position() + count * BOID_SIZE);
+        buffer.putInt(scheduleBytes);
+        simulation.flock.writeSchedule(buffer);
+
+        buffer.putInt(obstacleBytes);
+        for (Obstacle obstacle : obstacles) {
+            writeObstacle(obstacle, buffer);
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Create a simulation from a snapshot.
+     * The saved world size and boundary mode are applied through the returned simulation's config (other settings
+     * are taken from Constants), so its boundary no longer follows changes to Constants until
+     * {@link Simulation#setConfig(SimulationConfig)} is given null.
+     * The returned simulation continues from the saved tick with the saved random state, so it steps exactly like
+     * the saved one would have.
+     * @param channel Channel to read from, not closed.
+     * @return The restored simulation.
+     */
+    public static Simulation read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a simulation snapshot");
+        }
+        int version = header.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        long tick = header.getLong();
+        long seed0 = header.getLong(), seed1 = header.getLong();
+        SimulationConfig.Builder config = new SimulationConfig.Builder();
+        config.worldWidth = header.getFloat();
+        config.worldHeight = header.getFloat();
+        config.periodicBoundary = (header.get() & FLAG_PERIODIC) != 0;
+        int count = header.getInt();
+        int obstacleCount = header.getInt();
+
+        ByteBuffer buffer = readFully(channel, count * BOID_SIZE);
+        FloatBuffer floats = buffer.asFloatBuffer();
+        float[] posX = new float[count], posY = new float[count];
+        float[] velX = new float[count], velY = new float[count];
+        float[] rotation = new float[count];
+        floats.get(posX).get(posY).get(velX).get(velY).get(rotation);
+
+        Simulation simulation = new Simulation(0);
+        simulation.setConfig(config.build());
+        simulation.random.setState(seed0, seed1);
+        simulation.setTick(tick);
+
+        for (int i = 0; i < count; i++) {
+            Boid boid = simulation.spawnBoid(posX[i], posY[i], rotation[i]);
+            // Set on the body directly, Boid.setVelocity would also turn the boid to face along it
+            boid.getBody().setLinearVelocity(velX[i], velY[i]);
+        }
+        if (version >= 3) {
+            int scheduleBytes = readFully(channel, 4).getInt();
+            simulation.flock.readSchedule(readFully(channel, scheduleBytes));
+        }
+
+        int obstacleBytes = version == 1 ? obstacleCount * RECTANGLE_SIZE : readFully(channel, 4).getInt();
+        buffer = readFully(channel, obstacleBytes);
+        for (int i = 0; i < obstacleCount; i++) {
+            simulation.addObstacle(readObstacle(simulation, buffer));
+        }
+        return simulation;
+    }
+
+    /**
+     * Number of bytes the given obstacle takes up in a snapshot.
+     * @throws IllegalArgumentException If the obstacle can not be saved.
+     */
+    private static int sizeOf(Obstacle obstacle) {
+        if (obstacle instanceof RectangleObstacle) {
+            return RECTANGLE_SIZE;
+        } else if (obstacle instanceof CircleObstacle) {
+            return 1 + 3 * 4;
+        } else if (obstacle instanceof PolygonObstacle) {
+            return 1 + 4 + ((PolygonObstacle) obstacle).getVertices().length * 4;
+        } else if (obstacle instanceof ChainObstacle) {
+            return 1 + 1 + 4 + ((ChainObstacle) obstacle).getVertices().length * 4;
+        }
+        throw new IllegalArgumentException("Cannot save obstacle of type " + obstacle.getClass().getSimpleName());
+    }
+
+    private static void writeObstacle(Obstacle obstacle, ByteBuffer buffer) {
+        if (obstacle instanceof RectangleObstacle) {
+            Vector2 pos = obstacle.getBody().getPosition();
+            buffer.put(OBSTACLE_RECTANGLE);
+            buffer.putFloat(pos.x);
+            buffer.putFloat(pos.y);
+            buffer.putFloat(obstacle.getWidth());
+            buffer.putFloat(obstacle.getHeight());
+            buffer.putFloat(obstacle.getRotation());
+        } else if (obstacle instanceof CircleObstacle) {
+            CircleObstacle circle = (CircleObstacle) obstacle;
+            buffer.put(OBSTACLE_CIRCLE);
+            buffer.putFloat(circle.getCenterX());
+            buffer.putFloat(circle.getCenterY());
+            buffer.putFloat(circle.getRadius());
+        } else if (obstacle instanceof PolygonObstacle) {
+            buffer.put(OBSTACLE_POLYGON);
+            writeVertices(((PolygonObstacle) obstacle).getVertices(), buffer);
+        } else {
+            ChainObstacle chain = (ChainObstacle) obstacle;
+            buffer.put(OBSTACLE_CHAIN);
+            buffer.put(chain.isLooped() ? (byte) 1 : 0);
+            writeVertices(chain.getVertices(), buffer);
+        }
+    }
+
+    private static Obstacle readObstacle(Simulation simulation, ByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+        switch (type) {
+            case OBSTACLE_RECTANGLE: {
+                float x = buffer.getFloat(), y = buffer.getFloat();
+                float width = buffer.getFloat(), height = buffer.getFloat();
+                float angle = buffer.getFloat();
+                RectangleObstacle obstacle = new RectangleObstacle(simulation, x, y, width, height);
+                obstacle.setRotation(angle);
+                return obstacle;
+            }
+            case OBSTACLE_CIRCLE:
+                return new CircleObstacle(simulation, buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+            case OBSTACLE_POLYGON:
+                return new PolygonObstacle(simulation, readVertices(buffer));
+            case OBSTACLE_CHAIN: {
+                boolean looped = buffer.get() != 0;
+                return new ChainObstacle(simulation, readVertices(buffer), looped);
+            }
+            default:
+                throw new IOException("Unknown obstacle type " + type);
+        }
+    }
+
+    private static void writeVertices(float[] vertices, ByteBuffer buffer) {
+        buffer.putInt(vertices.length);
+        for (float vertex : vertices) {
+            buffer.putFloat(vertex);
+        }
+    }
+
+    private static float[] readVertices(ByteBuffer buffer) {
+        float[] vertices = new float[buffer.getInt()];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = buffer.getFloat();
+        }
+        return vertices;
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Snapshot ended early");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
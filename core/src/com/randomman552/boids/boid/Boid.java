@@ -6,16 +6,20 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.*;
 import com.badlogic.gdx.utils.Align;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Pool;
 import com.randomman552.boids.Boids;
 import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
+import com.randomman552.boids.SimulationConfig;
 import com.randomman552.boids.util.BodyLinkedActor;
 
 import java.util.ArrayList;
 
-public class Boid extends BodyLinkedActor {
+public class Boid extends BodyLinkedActor implements Pool.Poolable {
     private static class BoidRayCastCallback implements RayCastCallback {
         private final Boid boid;
-        private final ArrayList<Fixture> fixtures = new ArrayList<>();
+        private boolean hit;
 
         public BoidRayCastCallback(Boid boid) {
             this.boid = boid;
@@ -28,87 +32,126 @@ public class Boid extends BodyLinkedActor {
                 return -1;
 
             // Ignore any fixtures with same group as boid sense radius
-            if (fixture.getFilterData().groupIndex < 0) {
-                if (fixture.getFilterData().groupIndex == Constants.BOID_SENSE_GROUP) {
-                    return -1;
-                }
+            if (fixture.getFilterData().groupIndex == Constants.BOID_SENSE_GROUP) {
+                return -1;
             }
 
-            fixtures.add(fixture);
+            hit = true;
             return 0;
         }
 
         public boolean hit() {
-            boolean hit = fixtures.size() > 0;
-            fixtures.clear();
-            return hit;
+            boolean retVal = hit;
+            hit = false;
+            return retVal;
         }
     }
 
+    private int id;
+    /**
+     * Sensor fixture of radius SENSE_RADIUS, null while the flock finds neighbours through the spatial grid.
+     */
+    private Fixture senseFixture;
+
+    /**
+     * Bodies perceived through sensor contacts, only maintained when the spatial grid is disabled.
+     */
     private final ArrayList<Body> boids = new ArrayList<>(100);
+    /**
+     * Ids of the boids perceived this frame, refilled every frame.
+     */
+    private final IntArray neighbourIds = new IntArray(false, 100);
 
     private final BoidRayCastCallback rayCastCallback = new BoidRayCastCallback(this);
 
     // Multi use vectors (prevent re-creation of objects)
     private final Vector2 sensePoint = new Vector2();
     private final Vector2 centerPoint = new Vector2();
+    private final Vector2 escapeVector = new Vector2();
+    private final FlockSteering debugSteering = new FlockSteering();
 
-    public Boid() {
-        this(0, 0);
+    public Boid(Simulation simulation) {
+        this(simulation, 0, 0);
     }
 
-    public Boid(float x, float y) {
-        this(x, y, 0);
+    public Boid(Simulation simulation, float x, float y) {
+        this(simulation, x, y, 0);
     }
 
-    public Boid(float x, float y, float rotation) {
+    public Boid(Simulation simulation, float x, float y, float rotation) {
+        super(simulation);
         setSize(Constants.BOID_SIZE.x, Constants.BOID_SIZE.y);
         setOrigin(Align.center);
         setColor(Constants.FOREGROUND_COLOR);
 
-        // Define body
-        BodyDef bodyDef = new BodyDef();
-        bodyDef.type = BodyDef.BodyType.DynamicBody;
-
-        body = Boids.getInstance().world.createBody(bodyDef);
-        body.setUserData(this);
+        body = simulation.getBoidPool().createBody(this);
+        setSensing(simulation.flock.isSensing());
+        place(x, y, rotation);
+        body.setActive(true);
+    }
 
+    /**
+     * Move the body to the given point, facing and moving in the direction of the given rotation.
+     */
+    private void place(float x, float y, float rotation) {
         // Set initial velocity based on rotation
         Vector2 vel = body.getLinearVelocity();
         vel.set(Constants.VELOCITY, 0);
         vel.rotateDeg(rotation);
-        setVelocity(vel);
+        body.setLinearVelocity(vel);
 
-        // region Create fixtures
+        setTransform(x, y, rotation);
+    }
 
-        CircleShape circleShape = new CircleShape();
-        PolygonShape polygonShape = new PolygonShape();
+    /**
+     * Bring a boid taken from the {@link BoidPool} back to life at the given point.
+     * The sense fixture is added or removed to match the flock, and resized if the sense radius changed while the
+     * boid was pooled.
+     */
+    void respawn(float x, float y, float rotation) {
+        setSensing(simulation.flock.isSensing());
+        float senseRadius = simulation.getConfig().senseRadius;
+        if (senseFixture != null && senseFixture.getShape().getRadius() != senseRadius) {
+            senseFixture.getShape().setRadius(senseRadius);
+        }
+        // Placed while inactive, so the fixtures enter the broad phase once, at their final position
+        place(x, y, rotation);
+        body.setActive(true);
+    }
 
-        // Primary sense circle
-        FixtureDef senseFixture = new FixtureDef();
-        circleShape.setRadius(Constants.SENSE_RADIUS);
-        senseFixture.shape = circleShape;
-        senseFixture.isSensor = true;
-        senseFixture.filter.groupIndex = Constants.BOID_SENSE_GROUP;
-        body.createFixture(senseFixture);
+    /**
+     * Called when the boid is returned to the {@link BoidPool}.
+     * The body is deactivated rather than destroyed, which removes it from the physics world until respawned.
+     */
+    @Override
+    public void reset() {
+        body.setActive(false);
+        clearPerceived();
+        neighbourIds.clear();
+    }
 
-        // Central collision body
-        FixtureDef collisionFixture = new FixtureDef();
-        polygonShape.setAsBox(getWidth()/2, getHeight()/2);
-        collisionFixture.shape = polygonShape;
-        collisionFixture.isSensor = true;
-        collisionFixture.filter.groupIndex = Constants.BOID_COLLISION_GROUP;
-        body.createFixture(collisionFixture);
 
-        // endregion
+    /**
+     * Add or remove the sense fixture, whose contacts are only needed to find neighbours without the spatial grid.
+     * Without it Box2D does not have to track a contact for every pair of boids within the sense radius.
+     */
+    void setSensing(boolean sensing) {
+        if (sensing == (senseFixture != null)) return;
+        if (sensing) {
+            senseFixture = simulation.getBoidPool().createSenseFixture(body);
+        } else {
+            body.destroyFixture(senseFixture);
+            senseFixture = null;
+            clearPerceived();
+        }
+    }
 
-        // Set position and rotation AFTER body creation to prevent null pointer
-        setPosition(x - getOriginX(), y - getOriginY());
-        setRotation(rotation);
+    public int getId() {
+        return id;
+    }
 
-        // Dispose shapes
-        circleShape.dispose();
-        polygonShape.dispose();
+    public void setId(int id) {
+        this.id = id;
     }
 
 
@@ -132,16 +175,56 @@ public class Boid extends BodyLinkedActor {
         }
     }
 
+    /**
+     * Remove all bodies perceived through sensor contacts.
+     */
+    public void clearPerceived() {
+        boids.clear();
+    }
+
+    /**
+     * Append the ids of the boids perceived through sensor contacts.
+     * @param out Array to append the ids to.
+     */
+    public void getPerceivedIds(IntArray out) {
+        // Indexed loop as an iterator would be allocated every frame
+        for (int i = 0; i < boids.size(); i++) {
+            out.add(((Boid) boids.get(i).getUserData()).getId());
+        }
+    }
+
+    /**
+     * Ids of the boids perceived during the current frame, filled by the flock before boids act.
+     * NOTE: Always returns the same array, not a new one.
+     */
+    public IntArray getNeighbourIds() {
+        return neighbourIds;
+    }
+
 
     /**
      * Performs a ray cast from the center of this boid to the given point.
+     * Goes through the obstacle distance field when the config's useObstacleField is set, the obstacle BVH when
+     * its useObstacleBVH is set, or Box2D otherwise.
      * @param toPoint The point to ray cast to.
      * @return True if something is hit, false otherwise.
      */
     private boolean rayCast(Vector2 toPoint) {
-        Boids.getInstance().world.rayCast(rayCastCallback, getCenterPoint(), toPoint);
-        boolean retVal = rayCastCallback.hit();
-        drawRay(getCenterPoint(), toPoint, retVal);
+        boolean retVal;
+        Vector2 centerPoint = getCenterPoint();
+        SimulationConfig config = simulation.getConfig();
+        if (config.useObstacleField) {
+            float dx = toPoint.x - centerPoint.x, dy = toPoint.y - centerPoint.y;
+            float length = Vector2.len(dx, dy);
+            retVal = length != 0 && simulation.getObstacleField().march(centerPoint.x, centerPoint.y, dx / length, dy / length, length) >= 0;
+        } else if (config.useObstacleBVH) {
+            retVal = simulation.getObstacleBVH().rayCast(centerPoint.x, centerPoint.y, toPoint.x, toPoint.y);
+        } else {
+            simulation.world.rayCast(rayCastCallback, centerPoint, toPoint);
+            retVal = rayCastCallback.hit();
+        }
+        simulation.counters.raysCast++;
+        drawRay(centerPoint, toPoint, retVal);
         return retVal;
     }
 
@@ -152,7 +235,7 @@ public class Boid extends BodyLinkedActor {
      * @param hit Whether the ray hit a fixture or not.
      */
     private void drawRay(Vector2 fromPoint, Vector2 toPoint, boolean hit) {
-        if (!Constants.DRAW_OBSTACLE_AVOIDANCE) return;
+        if (!simulation.getConfig().drawObstacleAvoidance) return;
         Boids.getInstance().shapeRenderer.setColor(Constants.COLOR_OBSTACLE_AVOIDANCE_MISS);
         if (hit) {
             Boids.getInstance().shapeRenderer.setColor(Constants.COLOR_OBSTACLE_AVOIDANCE_HIT);
@@ -165,7 +248,18 @@ public class Boid extends BodyLinkedActor {
      * @return Whether there is an obstacle that requires avoidance.
      */
     private boolean obstaclesToAvoid() {
-        return rayCast(getSensePoint(Constants.INITIAL_ESCAPE_ANGLE)) || rayCast(getSensePoint(-Constants.INITIAL_ESCAPE_ANGLE));
+        SimulationConfig config = simulation.getConfig();
+        if (!config.useObstacleField && config.useObstacleBVH) {
+            // Already cast in a batch by the flock
+            Flock flock = simulation.flock;
+            boolean left = flock.probeHit(id, true);
+            drawRay(getCenterPoint(), getSensePoint(config.initialEscapeAngle), left);
+            if (left) return true;
+            boolean right = flock.probeHit(id, false);
+            drawRay(getCenterPoint(), getSensePoint(-config.initialEscapeAngle), right);
+            return right;
+        }
+        return rayCast(getSensePoint(config.initialEscapeAngle)) || rayCast(getSensePoint(-config.initialEscapeAngle));
     }
 
 
@@ -195,7 +289,7 @@ public class Boid extends BodyLinkedActor {
      * @return coordinates of point at the specified angle in front of the boid.
      */
     private Vector2 getSensePoint(float degrees) {
-        sensePoint.set(0, Constants.SENSE_RADIUS);
+        sensePoint.set(0, simulation.getConfig().senseRadius);
         sensePoint.rotateDeg(getRotation());
         sensePoint.rotateDeg(degrees);
         sensePoint.add(getCenterPoint());
@@ -225,7 +319,7 @@ public class Boid extends BodyLinkedActor {
             setVelocity(getVelocity());
             return;
         }
-        vec = clampAngle(vec, getVelocity(), delta * Constants.TURN_RATE);
+        vec = clampAngle(vec, getVelocity(), delta * simulation.getConfig().turnRate);
         vec.nor().scl(Constants.VELOCITY);
         setVelocity(vec);
     }
@@ -239,30 +333,71 @@ public class Boid extends BodyLinkedActor {
     /**
      * Obstacle avoidance behavior method.
      * Should be called from the act method.
+     * @param delta Time since the last frame (in seconds).
+     * @return Whether an obstacle was in the way, in which case flocking should be skipped this frame.
      */
-    private void avoidObstacles() {
+    public boolean avoidObstacles(float delta) {
+        if (!obstaclesToAvoid()) return false;
+
+        SimulationConfig config = simulation.getConfig();
+        if (config.useObstacleField) {
+            escapeAlongField(delta);
+            return true;
+        }
+
         Vector2 centerPoint = getCenterPoint();
         Vector2 sensePoint = getSensePoint();
-        float initialAngle = Constants.INITIAL_ESCAPE_ANGLE;
-        float angleStep = (180 - initialAngle) / Constants.ESCAPE_STEPS;
+        float initialAngle = config.initialEscapeAngle;
+        float angleStep = (180 - initialAngle) / config.escapeSteps;
 
-        for (int i = 1; i < Constants.ESCAPE_STEPS; i++) {
+        for (int i = 1; i < config.escapeSteps; i++) {
             float angle = initialAngle + angleStep * i;
 
             // Left side ray cast
             sensePoint = getSensePoint(angle);
             if (!rayCast(sensePoint)) {
-                turnTowards(sensePoint.sub(centerPoint));
+                turnTowards(delta, sensePoint.sub(centerPoint));
                 break;
             }
 
             // Right side ray cast
             sensePoint = getSensePoint(-angle);
             if (!rayCast(sensePoint)) {
-                turnTowards(sensePoint.sub(centerPoint));
+                turnTowards(delta, sensePoint.sub(centerPoint));
                 break;
             }
         }
+        return true;
+    }
+
+
+    /**
+     * Turn away from the nearest obstacle using the gradient of the obstacle distance field.
+     * The boid steers along the obstacle's surface, away from it, keeping as much of its current heading as possible.
+     * @param delta Time since the last frame (in seconds).
+     */
+    private void escapeAlongField(float delta) {
+        Vector2 centerPoint = getCenterPoint();
+        Vector2 normal = simulation.getObstacleField().gradient(centerPoint.x, centerPoint.y, escapeVector);
+        if (normal.isZero()) return;
+        normal.nor();
+        float nx = normal.x, ny = normal.y;
+
+        // Remove the part of the velocity heading into the obstacle
+        Vector2 vel = getVelocity();
+        float along = vel.x * nx + vel.y * ny;
+        float tx = vel.x - along * nx, ty = vel.y - along * ny;
+        float tangentLen = Vector2.len(tx, ty);
+        if (tangentLen == 0) {
+            // Heading straight at the obstacle, pick a side
+            tx = -ny;
+            ty = nx;
+        } else {
+            tx /= tangentLen;
+            ty /= tangentLen;
+        }
+
+        turnTowards(delta, escapeVector.set(tx + nx, ty + ny));
     }
 
 
@@ -277,79 +412,55 @@ public class Boid extends BodyLinkedActor {
         setColor(Constants.FOREGROUND_COLOR);
 
         // region Obstacle Avoidance
-        if (obstaclesToAvoid()) {
-            avoidObstacles();
+        if (avoidObstacles(delta)) {
             return;
         }
         // endregion
 
-        // Based on: https://www.cs.toronto.edu/~dt/siggraph97-course/cwr87/
-        // region Calculate separation force
-        Vector2 sepForce = new Vector2();
-        Vector2 toBoid = new Vector2();
-        float sepForceAtMin = Constants.SEPARATION_FORCE_AT_MIN_DIST;
-        float minSepDist = Constants.MIN_SEPARATION_DIST;
-
-        for (Body boid: boids) {
-            toBoid.set(boid.getPosition()).sub(this.body.getPosition());
-            if (toBoid.len() != 0) {
-                float forceScalar = (toBoid.len() < 0.5f) ? sepForceAtMin : sepForceAtMin / (toBoid.len() / minSepDist);
-                if (Constants.DRAW_SEPARATION_FORCE) {
-                    Color lineColor = Constants.COLOR_SEPARATION_FORCE;
-                    lineColor.a = (forceScalar / sepForceAtMin) * Constants.SEPARATION_FORCE_SCALAR;
-                    Boids.getInstance().shapeRenderer.setColor(lineColor);
-                    Boids.getInstance().shapeRenderer.line(this.body.getPosition(), boid.getPosition());
-                }
-                toBoid.scl(forceScalar);
-                sepForce.add(toBoid);
-            }
-        }
-        sepForce.scl(-Constants.SEPARATION_FORCE_SCALAR);
-        // endregion
+        Flock flock = simulation.flock;
+        drawForces(flock.getState());
 
-        // region Calculate velocity match force
-        Vector2 velocityMatchForce = new Vector2(this.body.getLinearVelocity());
+        // Apply the velocity calculated during the flock's steering phase
+        FlockState next = flock.getNext();
+        setVelocity(next.velX[id], next.velY[id]);
+    }
 
-        for (Body body: boids) {
-            velocityMatchForce.add(body.getLinearVelocity());
+    /**
+     * Draw the forces acting on this boid, if enabled.
+     * The forces are recalculated here as the steering phase only keeps the resulting velocity.
+     * @param state State of the flock at the start of this frame.
+     */
+    private void drawForces(FlockState state) {
+        SimulationConfig config = simulation.getConfig();
+        if (!config.drawsForces()) {
+            return;
         }
-
-        velocityMatchForce.scl(1f/(boids.size() + 1));
-        velocityMatchForce.nor().scl(Constants.VELOCITY_MATCH_FORCE_SCALAR);
-
-        if (Constants.DRAW_VELOCITY_MATCH_FORCE) {
-            Vector2 temp = new Vector2(velocityMatchForce);
-            Boids.getInstance().shapeRenderer.setColor(Constants.COLOR_VELOCITY_MATCH_FORCE);
-            Boids.getInstance().shapeRenderer.line(this.body.getPosition(), temp.add(this.body.getPosition()));
+        IntArray perceived = neighbourIds;
+        debugSteering.setConfig(config);
+        debugSteering.steer(state, id, perceived);
+        FlockSteering steering = debugSteering;
+
+        float x = state.posX[id], y = state.posY[id];
+        if (config.drawSeparationForce) {
+            float sepForceAtMin = config.separationForceAtMinDist;
+            for (int i = 0; i < perceived.size; i++) {
+                int other = perceived.get(i);
+                float dist = Vector2.len(state.posX[other] - x, state.posY[other] - y);
+                if (dist == 0) continue;
+                float forceScalar = (dist < 0.5f) ? sepForceAtMin : sepForceAtMin / (dist / config.minSeparationDist);
+                Color lineColor = Constants.COLOR_SEPARATION_FORCE;
+                lineColor.a = (forceScalar / sepForceAtMin) * config.separationForceScalar;
+                Boids.getInstance().shapeRenderer.setColor(lineColor);
+                Boids.getInstance().shapeRenderer.line(x, y, state.posX[other], state.posY[other]);
+            }
         }
-        // endregion
-
-        // region Calculate flock centering forces
-        Vector2 flockCenter = new Vector2(this.body.getPosition());
-
-        for (Body body: boids) {
-            flockCenter.add(body.getPosition());
+        if (config.drawVelocityMatchForce) {
+            Boids.getInstance().shapeRenderer.setColor(Constants.COLOR_VELOCITY_MATCH_FORCE);
+            Boids.getInstance().shapeRenderer.line(x, y, x + steering.velocityMatchX, y + steering.velocityMatchY);
         }
-
-        flockCenter.scl(1f/(boids.size() + 1));
-
-        // Calculate flock centering force (vector from current position to flock center)
-        Vector2 centerForce = flockCenter.sub(this.body.getPosition());
-        centerForce.nor().scl(Constants.FLOCK_CENTER_FORCE_SCALAR);
-
-        // Draw the force if required
-        if (Constants.DRAW_FLOCK_CENTERING_FORCE) {
-            Vector2 temp = new Vector2(centerForce);
+        if (config.drawFlockCenteringForce) {
             Boids.getInstance().shapeRenderer.setColor(Constants.COLOR_FLOCK_CENTERING_FORCE);
-            Boids.getInstance().shapeRenderer.line(this.body.getPosition(), temp.add(this.body.getPosition()));
+            Boids.getInstance().shapeRenderer.line(x, y, x + steering.centeringX, y + steering.centeringY);
         }
-        // endregion
-
-        // Calculate desired velocity
-        Vector2 vel = new Vector2();
-        vel.set(sepForce).add(velocityMatchForce).add(centerForce);
-        vel.nor().scl(Constants.VELOCITY);
-
-        turnTowards(delta, vel);
     }
 }
@@ -9,7 +9,7 @@ public class BoidContactListener implements ContactListener {
         Body body1 = contact.getFixtureA().getBody();
         Body body2 = contact.getFixtureB().getBody();
 
-        // Add perceived data to Boid instances
+        // Add perceived data to Boid instances (boids only have sense fixtures when not using the spatial grid)
         if (body1.getUserData() instanceof Boid) {
             ((Boid) body1.getUserData()).addPerceived(body2);
         }
@@ -29,7 +29,7 @@ public class BoidContactListener implements ContactListener {
         Body body1 = contact.getFixtureA().getBody();
         Body body2 = contact.getFixtureB().getBody();
 
-        // Add perceived data to Boid instances
+        // Remove perceived data from Boid instances
         if (body1.getUserData() instanceof Boid) {
             ((Boid) body1.getUserData()).removePerceived(body2);
         }
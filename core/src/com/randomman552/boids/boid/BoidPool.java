@@ -0,0 +1,90 @@
+package com.randomman552.boids.boid;
+
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.CircleShape;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.Pool;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
+
+/**
+ * Keeps despawned boids, with their bodies deactivated rather than destroyed, so they can be spawned again without
+ * creating a new body and fixtures over JNI or producing garbage.
+ * Also holds the body and fixture definitions shared by every new boid body.
+ */
+public class BoidPool extends Pool<Boid> implements Disposable {
+    private final Simulation simulation;
+
+    // Definitions reused for every body created
+    private final BodyDef bodyDef = new BodyDef();
+    private final FixtureDef senseFixture = new FixtureDef();
+    private final FixtureDef collisionFixture = new FixtureDef();
+    private final CircleShape senseShape = new CircleShape();
+    private final PolygonShape collisionShape = new PolygonShape();
+
+    public BoidPool(Simulation simulation) {
+        this.simulation = simulation;
+        bodyDef.type = BodyDef.BodyType.DynamicBody;
+        // Activated once placed, so the fixtures enter the broad phase at their final position
+        bodyDef.active = false;
+
+        // Primary sense circle
+        senseFixture.shape = senseShape;
+        senseFixture.isSensor = true;
+        senseFixture.filter.groupIndex = Constants.BOID_SENSE_GROUP;
+
+        // Central collision body
+        collisionFixture.shape = collisionShape;
+        collisionFixture.isSensor = true;
+        collisionFixture.filter.groupIndex = Constants.BOID_COLLISION_GROUP;
+    }
+
+    @Override
+    protected Boid newObject() {
+        return new Boid(simulation);
+    }
+
+    /**
+     * Take a boid from the pool, or create one if the pool is empty, and place it at the given point.
+     * The boid is not added to the simulation.
+     * @param rotation Rotation (in degrees), the boid moves in the direction it faces.
+     */
+    public Boid obtain(float x, float y, float rotation) {
+        if (getFree() == 0) {
+            return new Boid(simulation, x, y, rotation);
+        }
+        Boid boid = obtain();
+        boid.respawn(x, y, rotation);
+        return boid;
+    }
+
+    /**
+     * Create the inactive body of a new boid at the origin, with its collision fixture.
+     */
+    Body createBody(Boid boid) {
+        Body body = simulation.world.createBody(bodyDef);
+        body.setUserData(boid);
+
+        collisionShape.setAsBox(boid.getWidth() / 2, boid.getHeight() / 2);
+        body.createFixture(collisionFixture);
+        return body;
+    }
+
+    /**
+     * Add a sense fixture of the current sense radius to a boid's body.
+     */
+    Fixture createSenseFixture(Body body) {
+        senseShape.setRadius(simulation.getConfig().senseRadius);
+        return body.createFixture(senseFixture);
+    }
+
+    @Override
+    public void dispose() {
+        senseShape.dispose();
+        collisionShape.dispose();
+    }
+}
@@ -0,0 +1,597 @@
+package com.randomman552.boids.boid;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.SimulationConfig;
+import com.randomman552.boids.obstacles.ObstacleBVH;
+import com.randomman552.boids.obstacles.ObstacleField;
+import com.randomman552.boids.util.FlockQuadtree;
+import com.randomman552.boids.util.NeighbourHeap;
+import com.randomman552.boids.util.SpatialGrid;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Owns every boid in the simulation and runs the steering phase of each frame.
+ * Steering reads from a frozen copy of the flock taken at the start of the frame ({@link #getState()})
+ * and writes new velocities into a separate buffer ({@link #getNext()}), so the result does not depend on the
+ * order boids are updated in and the work can be split across threads.
+ */
+public class Flock implements Disposable {
+    /**
+     * Steers a range of boids, kept between frames to avoid re-creating tasks.
+     */
+    private class SteeringChunk extends RecursiveAction {
+        private FlockSteering steering = new FlockSteering();
+        private final NeighbourHeap nearest = new NeighbourHeap();
+        private final FlockQuadtree.Query sums = new FlockQuadtree.Query();
+        private int from, to;
+        private float delta;
+        private int examined;
+
+        @Override
+        protected void compute() {
+            steering = selectKernel(steering);
+            steering.setConfig(config);
+            examined = steerRange(steering, nearest, sums, from, to, delta);
+        }
+    }
+
+    /**
+     * Forks all steering chunks and waits for them to complete.
+     */
+    private class SteeringRoot extends RecursiveAction {
+        @Override
+        protected void compute() {
+            invokeAll(chunks);
+        }
+    }
+
+    private final Array<Boid> boids = new Array<>();
+    private FlockState state = new FlockState();
+    private FlockState next = new FlockState();
+    private final SpatialGrid spatialGrid = new SpatialGrid();
+    private FlockSteering steering = new FlockSteering();
+    private final NeighbourHeap nearest = new NeighbourHeap();
+    private final FlockQuadtree quadtree = new FlockQuadtree();
+    private final FlockQuadtree.Query sums = new FlockQuadtree.Query();
+    private boolean usingSpatialGrid = Constants.USE_SPATIAL_GRID;
+    /**
+     * Whether the boids have sense fixtures, which are only created while not using the spatial grid.
+     */
+    private boolean sensing = !Constants.USE_SPATIAL_GRID;
+    private int neighboursExamined;
+
+    // Steering schedule, the last steering target and neighbour set signature of every boid
+    private float[] targetX = new float[0], targetY = new float[0];
+    private int[] signatures = new int[0];
+    private int scheduledCount;
+    private int scheduleStart, scheduleLength;
+    private ObstacleField obstacleField;
+    private SimulationConfig config = SimulationConfig.fromConstants();
+
+    // Forward obstacle probes, two per boid (left then right)
+    private float[] probeFromX = new float[0], probeFromY = new float[0];
+    private float[] probeToX = new float[0], probeToY = new float[0];
+    private boolean[] probeHits = new boolean[0];
+
+    /**
+     * Pool every flock steers in parallel with, shared so simulations run side by side (such as parameter sweep runs)
+     * do not each start a thread per core. Created when first needed, its worker threads are daemons.
+     */
+    private static ForkJoinPool sharedPool;
+
+    private ForkJoinPool pool;
+    private SteeringChunk[] chunks;
+    private SteeringRoot root;
+
+    /**
+     * Add a boid to the flock, giving it the next free id.
+     * @param boid The boid to add.
+     */
+    public void add(Boid boid) {
+        boid.setId(boids.size);
+        boids.add(boid);
+    }
+
+    /**
+     * Remove a boid from the flock in constant time. The last boid takes over its id, along with its state and
+     * steering target, so ids stay contiguous.
+     * Must not be called during the steering phase.
+     * @param boid The boid to remove.
+     * @return The boid which took over the removed boid's id, or null if it was the last one.
+     */
+    public Boid remove(Boid boid) {
+        int id = boid.getId(), last = boids.size - 1;
+        if (boids.get(id) != boid) {
+            throw new IllegalArgumentException("Boid " + id + " is not part of this flock");
+        }
+        Boid moved = boids.pop();
+        if (id != last) {
+            boids.set(id, moved);
+            moved.setId(id);
+            if (id < state.size) {
+                if (last < state.size) {
+                    state.set(id, state.posX[last], state.posY[last], state.velX[last], state.velY[last], state.heading[last]);
+                } else {
+                    // Added since the last sync, so take its state straight from its body
+                    Vector2 pos = moved.getBody().getPosition();
+                    Vector2 vel = moved.getBody().getLinearVelocity();
+                    state.set(id, pos.x, pos.y, vel.x, vel.y, moved.getRotation());
+                }
+            }
+            if (last < scheduledCount) {
+                targetX[id] = targetX[last];
+                targetY[id] = targetY[last];
+                signatures[id] = signatures[last];
+            } else {
+                // The moved boid has no steering target yet
+                scheduledCount = Math.min(scheduledCount, id);
+            }
+        }
+        state.size = Math.min(state.size, last);
+        next.size = Math.min(next.size, last);
+        scheduledCount = Math.min(scheduledCount, last);
+        return id != last ? moved : null;
+    }
+
+    /**
+     * Whether boids should have sense fixtures, as the flock finds neighbours through their contacts rather than
+     * the spatial grid.
+     */
+    public boolean isSensing() {
+        return sensing;
+    }
+
+    public Array<Boid> getBoids() {
+        return boids;
+    }
+
+    public int size() {
+        return boids.size;
+    }
+
+    /**
+     * State of the flock at the start of the current frame, must not be modified during steering.
+     */
+    public FlockState getState() {
+        return state;
+    }
+
+    /**
+     * Velocities and headings produced by the last steering phase.
+     */
+    public FlockState getNext() {
+        return next;
+    }
+
+    public SpatialGrid getSpatialGrid() {
+        return spatialGrid;
+    }
+
+    /**
+     * Run the steering phase for this frame.
+     * Must be called before the boids act, they apply the results stored in {@link #getNext()}.
+     * @param delta Time since the last frame (in seconds).
+     * @param obstacleField Up to date obstacle distance field, used to find boids close to obstacles.
+     * @param config Settings to steer with, the same for the whole phase.
+     */
+    public void update(float delta, ObstacleField obstacleField, SimulationConfig config) {
+        this.obstacleField = obstacleField;
+        this.config = config;
+        syncState();
+        updatePerception();
+
+        int count = boids.size;
+        next.ensureCapacity(count);
+        next.size = count;
+        updateSchedule(count);
+
+        if (config.parallelSteering && count > 0) {
+            steerParallel(delta);
+        } else {
+            steering = selectKernel(steering);
+            steering.setConfig(config);
+            neighboursExamined = steerRange(steering, nearest, sums, 0, count, delta);
+        }
+        scheduledCount = count;
+    }
+
+    /**
+     * The steering kernel the current config asks for, replacing the given one only if it is a different kind.
+     */
+    private FlockSteering selectKernel(FlockSteering current) {
+        boolean vector = config.vectorSteering && FlockSteering.isVectorAvailable();
+        return current.isVectorised() == vector ? current : FlockSteering.create(vector);
+    }
+
+    /**
+     * Settings the last steering phase ran with.
+     */
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Total number of neighbours the last steering phase took into account, over all boids.
+     */
+    public int getNeighboursExamined() {
+        return neighboursExamined;
+    }
+
+    /**
+     * Copy the position, velocity and rotation of every boid into the flock state.
+     * This is the only point per frame at which the steering code reads from Box2D.
+     */
+    private void syncState() {
+        int count = boids.size;
+        state.ensureCapacity(count);
+        state.size = count;
+        for (int i = 0; i < count; i++) {
+            Boid boid = boids.get(i);
+            Body body = boid.getBody();
+            Vector2 pos = body.getPosition();
+            Vector2 vel = body.getLinearVelocity();
+            state.set(i, pos.x, pos.y, vel.x, vel.y, boid.getRotation());
+        }
+    }
+
+    /**
+     * Prepare whichever neighbour perception method is enabled for this frame.
+     * Rebuilds the spatial grid, adding or removing the boids' sense fixtures when switching between the grid and
+     * sensor contacts.
+     */
+    private void updatePerception() {
+        if (config.barnesHutCentering) {
+            quadtree.setPeriodic(config.periodicBoundary);
+            quadtree.rebuild(state.posX, state.posY, state.velX, state.velY, state.size,
+                    config.worldWidth, config.worldHeight);
+        }
+
+        // Contacts of new sense fixtures only appear once the world is stepped, so the grid is kept for one more tick
+        usingSpatialGrid = config.useSpatialGrid || !sensing;
+        if (sensing == config.useSpatialGrid) {
+            sensing = !config.useSpatialGrid;
+            for (int i = 0; i < boids.size; i++) {
+                boids.get(i).setSensing(sensing);
+            }
+        }
+        if (!usingSpatialGrid) return;
+
+        spatialGrid.setPeriodic(config.periodicBoundary);
+        spatialGrid.rebuild(state.posX, state.posY, state.size,
+                perceptionRadius(), config.worldWidth, config.worldHeight);
+    }
+
+    /**
+     * Radius within which neighbours are gathered individually.
+     */
+    private float perceptionRadius() {
+        if (config.barnesHutCentering) {
+            return Math.min(config.senseRadius, config.barnesHutNearRadius);
+        }
+        return config.senseRadius;
+    }
+
+    /**
+     * Fill the neighbour ids of a boid from the spatial grid or its sensor contacts.
+     * With topological neighbours enabled only the nearest Constants.TOPOLOGICAL_NEIGHBOUR_COUNT are kept.
+     * Only touches the given boid, so may be called for different boids concurrently (with different heaps).
+     * @param boid The boid to gather neighbours for.
+     * @param nearest Heap used to select the nearest neighbours.
+     * @return The boid's neighbour ids.
+     */
+    private IntArray gatherPerceived(Boid boid, NeighbourHeap nearest) {
+        IntArray ids = boid.getNeighbourIds();
+        ids.clear();
+        int id = boid.getId();
+        if (usingSpatialGrid) {
+            spatialGrid.query(state.posX[id], state.posY[id], perceptionRadius(), id, ids);
+        } else {
+            boid.getPerceivedIds(ids);
+        }
+        if (config.topologicalNeighbours && ids.size > config.topologicalNeighbourCount) {
+            keepNearest(id, ids, nearest);
+        }
+        return ids;
+    }
+
+    /**
+     * Reduce a boid's neighbour ids to the nearest Constants.TOPOLOGICAL_NEIGHBOUR_COUNT of them.
+     */
+    private void keepNearest(int id, IntArray ids, NeighbourHeap nearest) {
+        float[] posX = state.posX, posY = state.posY;
+        float x = posX[id], y = posY[id];
+        boolean periodic = config.periodicBoundary;
+        float width = config.worldWidth, height = config.worldHeight;
+
+        nearest.reset(config.topologicalNeighbourCount);
+        int[] items = ids.items;
+        for (int n = 0; n < ids.size; n++) {
+            int other = items[n];
+            float dx = posX[other] - x, dy = posY[other] - y;
+            if (periodic) {
+                dx = SpatialGrid.wrapDelta(dx, width);
+                dy = SpatialGrid.wrapDelta(dy, height);
+            }
+            nearest.offer(other, dx * dx + dy * dy);
+        }
+        ids.clear();
+        nearest.drainTo(ids);
+    }
+
+    /**
+     * Choose which boids are due a steering update this tick.
+     * Each tick the next Constants.STEERING_UPDATE_FRACTION of the flock is due, wrapping around to the start,
+     * so every boid is recalculated at least once every 1 / fraction ticks.
+     */
+    private void updateSchedule(int count) {
+        if (targetX.length < count) {
+            int capacity = Math.max(count, targetX.length * 3 / 2);
+            targetX = Arrays.copyOf(targetX, capacity);
+            targetY = Arrays.copyOf(targetY, capacity);
+            signatures = Arrays.copyOf(signatures, capacity);
+        }
+        if (count == 0) return;
+
+        float fraction = Math.min(Math.max(config.steeringUpdateFraction, 0), 1);
+        scheduleStart = (scheduleStart + scheduleLength) % count;
+        scheduleLength = Math.max(1, (int) Math.ceil(count * fraction));
+    }
+
+    /**
+     * Number of bytes {@link #writeSchedule(ByteBuffer)} writes.
+     */
+    public int getScheduleSize() {
+        return 3 * 4 + scheduledCount * 3 * 4;
+    }
+
+    /**
+     * Write the steering schedule and the last steering target and neighbour set signature of every scheduled boid,
+     * so a restored flock steers the same boids on its next tick as this one would.
+     * @param buffer Buffer to write to, must have {@link #getScheduleSize()} bytes remaining.
+     */
+    public void writeSchedule(ByteBuffer buffer) {
+        buffer.putInt(scheduleStart);
+        buffer.putInt(scheduleLength);
+        buffer.putInt(scheduledCount);
+        for (int i = 0; i < scheduledCount; i++) {
+            buffer.putFloat(targetX[i]);
+            buffer.putFloat(targetY[i]);
+            buffer.putInt(signatures[i]);
+        }
+    }
+
+    /**
+     * Read a steering schedule written by {@link #writeSchedule(ByteBuffer)}.
+     * Must be called after the boids it was written with have been added, before the next steering phase.
+     * @param buffer Buffer to read from.
+     */
+    public void readSchedule(ByteBuffer buffer) {
+        scheduleStart = buffer.getInt();
+        scheduleLength = buffer.getInt();
+        scheduledCount = buffer.getInt();
+        if (targetX.length < scheduledCount) {
+            targetX = new float[scheduledCount];
+            targetY = new float[scheduledCount];
+            signatures = new int[scheduledCount];
+        }
+        for (int i = 0; i < scheduledCount; i++) {
+            targetX[i] = buffer.getFloat();
+            targetY[i] = buffer.getFloat();
+            signatures[i] = buffer.getInt();
+        }
+    }
+
+    /**
+     * Whether a boid's flocking forces must be recalculated this tick, rather than reusing its last target.
+     * @param id Id of the boid.
+     * @param signature Signature of its current neighbour set.
+     */
+    private boolean needsSteering(int id, int signature) {
+        // Boids added since the last tick have no target yet
+        if (id >= scheduledCount) return true;
+        if (signature != signatures[id]) return true;
+
+        int offset = id - scheduleStart;
+        if (offset < 0) offset += state.size;
+        if (offset < scheduleLength) return true;
+
+        // Obstacle avoidance casts rays SENSE_RADIUS ahead, so anything within that (plus a margin) may trip it soon
+        return obstacleField != null
+                && obstacleField.distance(state.posX[id], state.posY[id]) < config.senseRadius * 1.5f;
+    }
+
+    /**
+     * Order independent hash of a set of neighbour ids, which changes when the set does (barring collisions).
+     */
+    private static int signature(IntArray neighbours) {
+        int hash = neighbours.size;
+        int[] items = neighbours.items;
+        for (int n = 0; n < neighbours.size; n++) {
+            int h = items[n] * 0x9E3779B9;
+            hash += h ^ (h >>> 16);
+        }
+        return hash;
+    }
+
+    /**
+     * Steer the boids with ids in [from, to), writing their new velocities into the next state.
+     * Boids not due a steering update turn towards their last steering target instead.
+     * @return Number of neighbours examined.
+     */
+    private int steerRange(FlockSteering steering, NeighbourHeap nearest, FlockQuadtree.Query sums,
+                           int from, int to, float delta) {
+        float maxTurn = delta * config.turnRate;
+        boolean barnesHut = config.barnesHutCentering;
+        float radius = config.senseRadius, theta = config.barnesHutTheta;
+        int examined = 0;
+        for (int i = from; i < to; i++) {
+            IntArray neighbours = gatherPerceived(boids.get(i), nearest);
+            int signature = signature(neighbours);
+            if (needsSteering(i, signature)) {
+                examined += neighbours.size;
+                if (barnesHut) {
+                    quadtree.aggregate(state.posX[i], state.posY[i], radius, theta, sums);
+                    examined += sums.visited;
+                    steering.steer(state, i, neighbours.items, neighbours.size, sums);
+                } else {
+                    steering.steer(state, i, neighbours);
+                }
+                targetX[i] = steering.desiredX;
+                targetY[i] = steering.desiredY;
+                signatures[i] = signature;
+            } else {
+                steering.desiredX = targetX[i];
+                steering.desiredY = targetY[i];
+            }
+            steering.turn(state, i, maxTurn);
+            next.set(i, state.posX[i], state.posY[i], steering.velocityX, steering.velocityY, steering.heading);
+        }
+        return examined;
+    }
+
+    /**
+     * Pool every flock steers in parallel with, also used by other parallel flock implementations so the process
+     * keeps one set of steering threads.
+     */
+    public static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool();
+        }
+        return sharedPool;
+    }
+
+    private void steerParallel(float delta) {
+        if (pool == null) {
+            pool = getSharedPool();
+            // Several chunks per worker so uneven neighbour counts still balance out
+            chunks = new SteeringChunk[pool.getParallelism() * 4];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new SteeringChunk();
+            }
+            root = new SteeringRoot();
+        }
+
+        int count = boids.size;
+        int chunkSize = (count + chunks.length - 1) / chunks.length;
+        for (int i = 0; i < chunks.length; i++) {
+            SteeringChunk chunk = chunks[i];
+            chunk.reinitialize();
+            chunk.from = Math.min(i * chunkSize, count);
+            chunk.to = Math.min(chunk.from + chunkSize, count);
+            chunk.delta = delta;
+        }
+        root.reinitialize();
+        pool.invoke(root);
+
+        neighboursExamined = 0;
+        for (SteeringChunk chunk : chunks) {
+            neighboursExamined += chunk.examined;
+        }
+    }
+
+    /**
+     * Wrap every boid that has left the world back onto the opposite side, for the periodic boundary.
+     * Must be called after the world is stepped.
+     */
+    public void wrapPositions() {
+        float width = config.worldWidth, height = config.worldHeight;
+        for (int i = 0; i < boids.size; i++) {
+            Body body = boids.get(i).getBody();
+            Vector2 pos = body.getPosition();
+            float x = pos.x, y = pos.y;
+            if (x < 0) x += width;
+            else if (x >= width) x -= width;
+            if (y < 0) y += height;
+            else if (y >= height) y -= height;
+            if (x != pos.x || y != pos.y) {
+                body.setTransform(x, y, body.getAngle());
+            }
+        }
+    }
+
+    /**
+     * Cast the two forward obstacle probes of every boid through the obstacle BVH in one batch.
+     * The probes match the rays of Boid.obstaclesToAvoid(), results are read back with {@link #probeHit(int, boolean)}.
+     * @param bvh Obstacle BVH to cast against.
+     */
+    public void probeObstacles(ObstacleBVH bvh) {
+        int count = state.size;
+        int probes = count * 2;
+        if (probeHits.length < probes) {
+            probeFromX = new float[probes];
+            probeFromY = new float[probes];
+            probeToX = new float[probes];
+            probeToY = new float[probes];
+            probeHits = new boolean[probes];
+        }
+
+        float radius = config.senseRadius;
+        float angle = config.initialEscapeAngle;
+        for (int i = 0; i < count; i++) {
+            // A heading of 0 faces up, so the forward direction is at heading + 90 degrees
+            float forward = state.heading[i] + 90;
+            float x = state.posX[i], y = state.posY[i];
+            int left = i * 2, right = left + 1;
+            probeFromX[left] = probeFromX[right] = x;
+            probeFromY[left] = probeFromY[right] = y;
+            probeToX[left] = x + radius * MathUtils.cosDeg(forward + angle);
+            probeToY[left] = y + radius * MathUtils.sinDeg(forward + angle);
+            probeToX[right] = x + radius * MathUtils.cosDeg(forward - angle);
+            probeToY[right] = y + radius * MathUtils.sinDeg(forward - angle);
+        }
+        bvh.rayCast(probeFromX, probeFromY, probeToX, probeToY, probes, probeHits);
+    }
+
+    /**
+     * Result of the last {@link #probeObstacles(ObstacleBVH)} call for one of a boid's probes.
+     * @param id Id of the boid.
+     * @param left Whether to get the left (positive angle) or right probe.
+     */
+    public boolean probeHit(int id, boolean left) {
+        return probeHits[left ? id * 2 : id * 2 + 1];
+    }
+
+    /**
+     * Draw every boid between its position at the start of the last step and its current position.
+     * Boids which wrapped around the map during the last step are drawn at their current position.
+     * @param alpha Fraction of a step to interpolate by, 0 being the start of the last step.
+     */
+    public void interpolate(float alpha) {
+        float maxJumpX = config.worldWidth / 2, maxJumpY = config.worldHeight / 2;
+        for (int i = 0; i < state.size; i++) {
+            Boid boid = boids.get(i);
+            Vector2 pos = boid.getBody().getPosition();
+            float dx = pos.x - state.posX[i], dy = pos.y - state.posY[i];
+            if (Math.abs(dx) > maxJumpX || Math.abs(dy) > maxJumpY) {
+                boid.setInterpolatedTransform(pos.x, pos.y, boid.getRotation());
+                continue;
+            }
+
+            // Turn along the shortest direction
+            float turn = ((boid.getRotation() - state.heading[i]) % 360 + 540) % 360 - 180;
+            boid.setInterpolatedTransform(
+                    state.posX[i] + dx * alpha,
+                    state.posY[i] + dy * alpha,
+                    state.heading[i] + turn * alpha
+            );
+        }
+    }
+
+    @Override
+    public void dispose() {
+        // The steering pool is shared by every flock, so is left running
+        pool = null;
+        chunks = null;
+        root = null;
+    }
+}
@@ -0,0 +1,172 @@
+package com.randomman552.boids.boid;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.randomman552.boids.util.DisjointSets;
+import com.randomman552.boids.util.SpatialGrid;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Measures the emergent behaviour of the flock each tick: its polarisation, the number of separate flocks,
+ * the size of the largest and the mean distance from each boid to its nearest neighbour.
+ * Everything is taken from the neighbour ids the steering phase already gathered, so no extra neighbour searches
+ * are run. Flocks are the connected groups of the neighbour graph, found with a union-find.
+ * Results of every tick can be streamed to a CSV file, buffers are reused so an update allocates nothing.
+ */
+public class FlockAnalytics {
+    private final DisjointSets clusters = new DisjointSets();
+    private long tick = -1;
+    private int boidCount;
+    private float polarisation;
+    private int clusterCount;
+    private int largestCluster;
+    private float meanNearestDistance;
+
+    private Writer csv;
+    private final StringBuilder line = new StringBuilder();
+    private char[] lineChars = new char[128];
+
+    /**
+     * Measure the flock after its steering phase.
+     * @param tick Tick the flock was steered on.
+     * @param flock The flock, whose boids hold the neighbour ids gathered during the last steering phase.
+     */
+    public void update(long tick, Flock flock) {
+        FlockState state = flock.getState();
+        Array<Boid> boids = flock.getBoids();
+        int count = state.size;
+        float[] posX = state.posX, posY = state.posY;
+        float[] velX = state.velX, velY = state.velY;
+        boolean periodic = flock.getConfig().periodicBoundary;
+        float width = flock.getConfig().worldWidth, height = flock.getConfig().worldHeight;
+
+        clusters.reset(count);
+        float headingX = 0, headingY = 0;
+        double nearestSum = 0;
+        int withNeighbours = 0;
+        for (int i = 0; i < count; i++) {
+            float vx = velX[i], vy = velY[i];
+            float speed = (float) Math.sqrt(vx * vx + vy * vy);
+            if (speed != 0) {
+                headingX += vx / speed;
+                headingY += vy / speed;
+            }
+
+            IntArray neighbours = boids.get(i).getNeighbourIds();
+            int[] items = neighbours.items;
+            float x = posX[i], y = posY[i];
+            float nearest2 = Float.MAX_VALUE;
+            for (int n = 0; n < neighbours.size; n++) {
+                int other = items[n];
+                float dx = posX[other] - x, dy = posY[other] - y;
+                if (periodic) {
+                    dx = SpatialGrid.wrapDelta(dx, width);
+                    dy = SpatialGrid.wrapDelta(dy, height);
+                }
+                nearest2 = Math.min(nearest2, dx * dx + dy * dy);
+                clusters.union(i, other);
+            }
+            if (neighbours.size > 0) {
+                nearestSum += Math.sqrt(nearest2);
+                withNeighbours++;
+            }
+        }
+
+        this.tick = tick;
+        boidCount = count;
+        polarisation = count > 0 ? (float) Math.sqrt(headingX * headingX + headingY * headingY) / count : 0;
+        clusterCount = clusters.getSetCount();
+        largestCluster = clusters.getLargestSize();
+        meanNearestDistance = withNeighbours > 0 ? (float) (nearestSum / withNeighbours) : 0;
+
+        if (csv != null) {
+            writeLine();
+        }
+    }
+
+    /**
+     * Tick of the last update, -1 before the first.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    public int getBoidCount() {
+        return boidCount;
+    }
+
+    /**
+     * Length of the mean heading of the boids, 1 when every boid heads the same way and near 0 when disordered.
+     */
+    public float getPolarisation() {
+        return polarisation;
+    }
+
+    /**
+     * Number of separate flocks, boids with no neighbours each count as a flock of their own.
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * Number of boids in the largest flock.
+     */
+    public int getLargestCluster() {
+        return largestCluster;
+    }
+
+    /**
+     * Mean distance from each boid to its nearest neighbour, over the boids which perceive at least one other.
+     */
+    public float getMeanNearestDistance() {
+        return meanNearestDistance;
+    }
+
+    /**
+     * Start writing every update to a CSV file, replacing it if it exists.
+     */
+    public void startCsv(File file) throws IOException {
+        stopCsv();
+        csv = new BufferedWriter(new FileWriter(file));
+        csv.write("tick,boids,polarisation,clusters,largest_cluster,mean_nearest_distance\n");
+    }
+
+    public boolean isWritingCsv() {
+        return csv != null;
+    }
+
+    /**
+     * Stop writing to the CSV file and close it.
+     */
+    public void stopCsv() throws IOException {
+        if (csv == null) return;
+        csv.close();
+        csv = null;
+    }
+
+    private void writeLine() {
+        line.setLength(0);
+        line.append(tick)
+                .append(',').append(boidCount)
+                .append(',').append(polarisation)
+                .append(',').append(clusterCount)
+                .append(',').append(largestCluster)
+                .append(',').append(meanNearestDistance)
+                .append('\n');
+
+        // Copy out through a reused array rather than toString, as FrameProfiler does
+        if (lineChars.length < line.length()) lineChars = new char[line.length() * 2];
+        line.getChars(0, line.length(), lineChars, 0);
+        try {
+            csv.write(lineChars, 0, line.length());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write flock analytics", e);
+        }
+    }
+}
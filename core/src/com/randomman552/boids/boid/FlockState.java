@@ -0,0 +1,63 @@
+package com.randomman552.boids.boid;
+
+/**
+ * Structure of arrays holding the state of every boid in the flock, indexed by boid id.
+ * Keeping the state in contiguous primitive arrays lets the steering code run over it without touching Box2D or
+ * the scene graph.
+ */
+public class FlockState {
+    public float[] posX, posY;
+    public float[] velX, velY;
+    /**
+     * Rotation of each boid in degrees, matching the rotation of its actor.
+     */
+    public float[] heading;
+    public int size;
+
+    public FlockState() {
+        this(100);
+    }
+
+    public FlockState(int capacity) {
+        posX = new float[capacity];
+        posY = new float[capacity];
+        velX = new float[capacity];
+        velY = new float[capacity];
+        heading = new float[capacity];
+    }
+
+    /**
+     * Make sure the arrays can hold at least the given number of boids, keeping existing values.
+     * @param capacity The required capacity.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= posX.length) return;
+        int newCapacity = Math.max(capacity, posX.length + (posX.length >> 1));
+        posX = grow(posX, newCapacity);
+        posY = grow(posY, newCapacity);
+        velX = grow(velX, newCapacity);
+        velY = grow(velY, newCapacity);
+        heading = grow(heading, newCapacity);
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Set the state of a single boid.
+     */
+    public void set(int id, float x, float y, float vx, float vy, float heading) {
+        posX[id] = x;
+        posY[id] = y;
+        velX[id] = vx;
+        velY[id] = vy;
+        this.heading[id] = heading;
+    }
+
+    public int getCapacity() {
+        return posX.length;
+    }
+}
@@ -0,0 +1,246 @@
+package com.randomman552.boids.boid;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.IntArray;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.SimulationConfig;
+import com.randomman552.boids.util.FlockQuadtree;
+import com.randomman552.boids.util.SpatialGrid;
+
+/**
+ * Flocking kernel calculating the separation, velocity matching and flock centering forces of a boid.
+ * Works purely on a {@link FlockState}, the individual forces of the last calculation are kept in public fields
+ * so they can be drawn for debugging.
+ * Based on: https://www.cs.toronto.edu/~dt/siggraph97-course/cwr87/
+ */
+public class FlockSteering {
+    public float separationX, separationY;
+    public float velocityMatchX, velocityMatchY;
+    public float centeringX, centeringY;
+    /**
+     * Desired velocity, the normalised sum of the three forces scaled to Constants.VELOCITY.
+     */
+    public float desiredX, desiredY;
+    /**
+     * Velocity after turning towards the desired velocity, and the matching heading in degrees.
+     */
+    public float velocityX, velocityY, heading;
+    SimulationConfig config = SimulationConfig.fromConstants();
+
+    /**
+     * Vector API kernel, built by the vector module (it needs JDK 16+) and loaded by name so this module does not
+     * depend on it.
+     */
+    private static final String VECTOR_KERNEL = "com.randomman552.boids.boid.VectorFlockSteering";
+    private static Class<? extends FlockSteering> vectorKernel;
+    private static boolean vectorKernelLoaded;
+
+    /**
+     * Create a steering kernel.
+     * @param vector Whether to use the Vector API kernel, falls back to this scalar kernel when it is not available.
+     */
+    public static FlockSteering create(boolean vector) {
+        Class<? extends FlockSteering> kernel = vector ? getVectorKernel() : null;
+        if (kernel != null) {
+            try {
+                return kernel.getConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                // Fall back to the scalar kernel
+            }
+        }
+        return new FlockSteering();
+    }
+
+    /**
+     * Whether the Vector API kernel can be used, that is the vector module is on the class path and the JVM was run
+     * with --add-modules jdk.incubator.vector.
+     */
+    public static boolean isVectorAvailable() {
+        return getVectorKernel() != null;
+    }
+
+    private static synchronized Class<? extends FlockSteering> getVectorKernel() {
+        if (!vectorKernelLoaded) {
+            vectorKernelLoaded = true;
+            try {
+                vectorKernel = Class.forName(VECTOR_KERNEL).asSubclass(FlockSteering.class);
+            } catch (ClassNotFoundException | LinkageError e) {
+                // Not built, or the incubator module is missing from the JVM
+                vectorKernel = null;
+            }
+        }
+        return vectorKernel;
+    }
+
+    /**
+     * Whether this kernel uses the Vector API.
+     */
+    public boolean isVectorised() {
+        return false;
+    }
+
+    /**
+     * Set the config the following calculations read their settings from.
+     */
+    public void setConfig(SimulationConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Calculate the desired velocity of a boid.
+     * @param state State of the flock.
+     * @param id Id of the boid to steer.
+     * @param neighbours Ids of the boids it perceives (must not contain id).
+     */
+    public void steer(FlockState state, int id, IntArray neighbours) {
+        steer(state, id, neighbours.items, neighbours.size);
+    }
+
+    /**
+     * Calculate the desired velocity of a boid.
+     * @param state State of the flock.
+     * @param id Id of the boid to steer.
+     * @param neighbours Array holding the ids of the boids it perceives (must not contain id).
+     * @param count Number of ids in neighbours.
+     */
+    public void steer(FlockState state, int id, int[] neighbours, int count) {
+        float[] posX = state.posX, posY = state.posY;
+        float[] velX = state.velX, velY = state.velY;
+        float x = posX[id], y = posY[id];
+        float sepForceAtMin = config.separationForceAtMinDist;
+        float minSepDist = config.minSeparationDist;
+        boolean periodic = config.periodicBoundary;
+        float width = config.worldWidth, height = config.worldHeight;
+
+        float sepX = 0, sepY = 0;
+        float sumVelX = velX[id], sumVelY = velY[id];
+        float sumPosX = x, sumPosY = y;
+
+        for (int n = 0; n < count; n++) {
+            int other = neighbours[n];
+            float dx = posX[other] - x, dy = posY[other] - y;
+            if (periodic) {
+                // Use the nearest image of the neighbour, which may be across the edge of the world
+                dx = SpatialGrid.wrapDelta(dx, width);
+                dy = SpatialGrid.wrapDelta(dy, height);
+            }
+            float dist = (float) Math.sqrt(dx * dx + dy * dy);
+
+            // Separation
+            if (dist != 0) {
+                float forceScalar = (dist < 0.5f) ? sepForceAtMin : sepForceAtMin / (dist / minSepDist);
+                sepX += dx * forceScalar;
+                sepY += dy * forceScalar;
+            }
+
+            // Velocity matching and flock centering sums
+            sumVelX += velX[other];
+            sumVelY += velY[other];
+            sumPosX += x + dx;
+            sumPosY += y + dy;
+        }
+
+        float inv = 1f / (count + 1);
+        combine(sepX, sepY, sumVelX, sumVelY, sumPosX * inv - x, sumPosY * inv - y);
+    }
+
+    /**
+     * Calculate the desired velocity of a boid, taking the velocity matching and flock centering sums from a
+     * quadtree query over the whole sense radius rather than from its neighbours.
+     * @param state State of the flock.
+     * @param id Id of the boid to steer.
+     * @param neighbours Array holding the ids of the nearby boids used for separation (must not contain id).
+     * @param count Number of ids in neighbours.
+     * @param sums Result of a quadtree query around the boid, including the boid itself.
+     */
+    public void steer(FlockState state, int id, int[] neighbours, int count, FlockQuadtree.Query sums) {
+        float[] posX = state.posX, posY = state.posY;
+        float x = posX[id], y = posY[id];
+        float sepForceAtMin = config.separationForceAtMinDist;
+        float minSepDist = config.minSeparationDist;
+        boolean periodic = config.periodicBoundary;
+        float width = config.worldWidth, height = config.worldHeight;
+
+        float sepX = 0, sepY = 0;
+        for (int n = 0; n < count; n++) {
+            int other = neighbours[n];
+            float dx = posX[other] - x, dy = posY[other] - y;
+            if (periodic) {
+                dx = SpatialGrid.wrapDelta(dx, width);
+                dy = SpatialGrid.wrapDelta(dy, height);
+            }
+            float dist = (float) Math.sqrt(dx * dx + dy * dy);
+            if (dist != 0) {
+                float forceScalar = (dist < 0.5f) ? sepForceAtMin : sepForceAtMin / (dist / minSepDist);
+                sepX += dx * forceScalar;
+                sepY += dy * forceScalar;
+            }
+        }
+
+        float inv = sums.count > 0 ? 1f / sums.count : 0;
+        combine(sepX, sepY, sums.velocityX, sums.velocityY, sums.offsetX * inv, sums.offsetY * inv);
+    }
+
+    /**
+     * Scale the three forces and add them up into the desired velocity.
+     * @param sepX Separation sum.
+     * @param sepY Separation sum.
+     * @param sumVelX Sum of the velocities of the boid and its neighbours.
+     * @param sumVelY Sum of the velocities of the boid and its neighbours.
+     * @param toCenterX Offset from the boid to the centre of its neighbours.
+     * @param toCenterY Offset from the boid to the centre of its neighbours.
+     */
+    void combine(float sepX, float sepY, float sumVelX, float sumVelY, float toCenterX, float toCenterY) {
+        separationX = -sepX * config.separationForceScalar;
+        separationY = -sepY * config.separationForceScalar;
+
+        // Averaging before normalising would not change the direction, so only normalise
+        float len = (float) Math.sqrt(sumVelX * sumVelX + sumVelY * sumVelY);
+        float scale = (len != 0) ? config.velocityMatchForceScalar / len : 0;
+        velocityMatchX = sumVelX * scale;
+        velocityMatchY = sumVelY * scale;
+
+        len = (float) Math.sqrt(toCenterX * toCenterX + toCenterY * toCenterY);
+        scale = (len != 0) ? config.flockCenterForceScalar / len : 0;
+        centeringX = toCenterX * scale;
+        centeringY = toCenterY * scale;
+
+        float sumX = separationX + velocityMatchX + centeringX;
+        float sumY = separationY + velocityMatchY + centeringY;
+        len = (float) Math.sqrt(sumX * sumX + sumY * sumY);
+        scale = (len != 0) ? Constants.VELOCITY / len : 0;
+        desiredX = sumX * scale;
+        desiredY = sumY * scale;
+    }
+
+    /**
+     * Turn the current velocity of a boid towards the last calculated desired velocity.
+     * The turn is limited to the given angle, and the resulting speed is always Constants.VELOCITY.
+     * @param state State of the flock.
+     * @param id Id of the boid to turn.
+     * @param maxTurn Maximum angle the boid may turn by (in degrees).
+     */
+    public void turn(FlockState state, int id, float maxTurn) {
+        float vx = state.velX[id], vy = state.velY[id];
+        if (desiredX == 0 && desiredY == 0) {
+            velocityX = vx;
+            velocityY = vy;
+            heading = state.heading[id];
+            return;
+        }
+
+        // Signed angle from the current to the desired velocity, clamped to the turn rate
+        float angle = MathUtils.atan2(vx * desiredY - vy * desiredX, vx * desiredX + vy * desiredY) * MathUtils.radDeg;
+        if (Math.abs(angle) > maxTurn) {
+            angle = Math.copySign(maxTurn, angle);
+        }
+
+        float cos = MathUtils.cosDeg(angle), sin = MathUtils.sinDeg(angle);
+        float tx = vx * cos - vy * sin, ty = vx * sin + vy * cos;
+        float len = (float) Math.sqrt(tx * tx + ty * ty);
+        float scale = (len != 0) ? Constants.VELOCITY / len : 0;
+        velocityX = tx * scale;
+        velocityY = ty * scale;
+        heading = MathUtils.atan2(velocityY, velocityX) * MathUtils.radDeg - 90;
+    }
+}
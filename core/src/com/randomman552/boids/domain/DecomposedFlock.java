@@ -0,0 +1,259 @@
+package com.randomman552.boids.domain;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.utils.Disposable;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.SimulationConfig;
+import com.randomman552.boids.boid.Flock;
+import com.randomman552.boids.boid.FlockState;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Flock in a large periodic world split into a grid of tiles, each owning the boids inside it with its own state and
+ * neighbour grid, so tiles can be stepped in parallel and each tile's working set stays small.
+ * Boids within the sense radius of a tile's border are copied to the neighbouring tiles as ghosts every tick,
+ * and boids crossing a border migrate to the tile they moved into. Tiles only exchange boids as messages through a
+ * {@link TileChannel}, so the tiles could be spread across processes with a different channel.
+ * Only flocking is simulated (no obstacles or physics collisions): boids move at their steered velocity each tick.
+ * A tick runs in three phases with every tile finishing a phase before any starts the next:
+ * sending ghosts, steering and moving (sending migrants), then receiving migrants.
+ */
+public class DecomposedFlock implements Disposable {
+    private static final int SEND_GHOSTS = 0, STEP = 1, RECEIVE_MIGRANTS = 2;
+
+    /**
+     * Runs one phase of the tick for one tile, kept between ticks to avoid re-creating tasks.
+     */
+    private class PhaseTask extends RecursiveAction {
+        private final Tile tile;
+
+        PhaseTask(Tile tile) {
+            this.tile = tile;
+        }
+
+        @Override
+        protected void compute() {
+            switch (phase) {
+                case SEND_GHOSTS: tile.sendGhosts(config.senseRadius); break;
+                case STEP: tile.step(delta, config); break;
+                case RECEIVE_MIGRANTS: tile.receiveMigrants(); break;
+            }
+        }
+    }
+
+    /**
+     * Forks the phase task of every tile and waits for them to complete.
+     */
+    private class PhaseRoot extends RecursiveAction {
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    private final float width, height;
+    private final int columns, rows;
+    private final float tileWidth, tileHeight;
+    private final TileChannel channel;
+    private final Tile[] tiles;
+    private int nextId;
+
+    private final ForkJoinPool pool;
+    private final PhaseTask[] tasks;
+    private final PhaseRoot root = new PhaseRoot();
+    private int phase;
+    private float delta;
+    private SimulationConfig config;
+
+    /**
+     * Create an empty flock whose tiles exchange messages in process.
+     * @param width Width of the world.
+     * @param height Height of the world.
+     * @param columns Number of tiles across the world.
+     * @param rows Number of tiles up the world.
+     */
+    public DecomposedFlock(float width, float height, int columns, int rows) {
+        this(width, height, columns, rows, new LocalTileChannel(columns * rows));
+    }
+
+    /**
+     * Create an empty flock whose tiles exchange messages through the given channel, stepped in the shared steering
+     * pool (see {@link Flock#getSharedPool()}).
+     */
+    public DecomposedFlock(float width, float height, int columns, int rows, TileChannel channel) {
+        this(width, height, columns, rows, channel, Flock.getSharedPool());
+    }
+
+    /**
+     * Create an empty flock whose tiles exchange messages through the given channel.
+     * @param pool Pool the tiles are stepped in, left running when the flock is disposed.
+     */
+    public DecomposedFlock(float width, float height, int columns, int rows, TileChannel channel,
+                           ForkJoinPool pool) {
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException("At least one tile is needed, not " + columns + "x" + rows);
+        }
+        this.width = width;
+        this.height = height;
+        this.columns = columns;
+        this.rows = rows;
+        config = SimulationConfig.fromConstants().withWorldSize(width, height);
+        tileWidth = width / columns;
+        tileHeight = height / rows;
+        this.channel = channel;
+
+        tiles = new Tile[columns * rows];
+        tasks = new PhaseTask[tiles.length];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                Tile tile = new Tile(this, c, r);
+                tiles[tile.index] = tile;
+                tasks[tile.index] = new PhaseTask(tile);
+            }
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Add a boid, giving it the next free global id.
+     * @return The boid's global id.
+     */
+    public int add(float x, float y, float vx, float vy, float heading) {
+        int id = nextId++;
+        tiles[tileAt(x, y)].add(id, x, y, vx, vy, heading);
+        return id;
+    }
+
+    /**
+     * Add boids at random positions, heading in random directions at Constants.VELOCITY.
+     */
+    public void populate(int count, RandomXS128 random) {
+        for (int i = 0; i < count; i++) {
+            float angle = random.nextFloat() * MathUtils.PI2;
+            float vx = MathUtils.cos(angle) * Constants.VELOCITY, vy = MathUtils.sin(angle) * Constants.VELOCITY;
+            add(random.nextFloat() * width, random.nextFloat() * height, vx, vy, angle * MathUtils.radDeg - 90);
+        }
+    }
+
+    /**
+     * Steer with the given parameters from the next tick on, in this flock's world whatever the config's size.
+     */
+    public void setConfig(SimulationConfig config) {
+        this.config = config.withWorldSize(width, height);
+    }
+
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Advance every boid by one tick.
+     * @param delta Time step (in seconds).
+     */
+    public void step(float delta) {
+        float radius = config.senseRadius;
+        if (radius > tileWidth || radius > tileHeight) {
+            // Ghosts are only exchanged with adjacent tiles
+            throw new IllegalStateException("Tiles of " + tileWidth + "x" + tileHeight
+                    + " are smaller than the sense radius " + radius);
+        }
+        this.delta = delta;
+        runPhase(SEND_GHOSTS);
+        runPhase(STEP);
+        runPhase(RECEIVE_MIGRANTS);
+    }
+
+    private void runPhase(int phase) {
+        this.phase = phase;
+        for (PhaseTask task : tasks) {
+            task.reinitialize();
+        }
+        root.reinitialize();
+        pool.invoke(root);
+    }
+
+    /**
+     * Index of the tile containing the given point.
+     */
+    int tileAt(float x, float y) {
+        int c = Math.min(Math.max((int) (x / tileWidth), 0), columns - 1);
+        int r = Math.min(Math.max((int) (y / tileHeight), 0), rows - 1);
+        return r * columns + c;
+    }
+
+    /**
+     * Copy the state of every boid into the given state, indexed by global id.
+     */
+    public void getState(FlockState out) {
+        out.ensureCapacity(nextId);
+        out.size = nextId;
+        for (Tile tile : tiles) {
+            FlockState state = tile.state;
+            for (int i = 0; i < tile.owned; i++) {
+                out.set(tile.ids[i], state.posX[i], state.posY[i], state.velX[i], state.velY[i], state.heading[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return nextId;
+    }
+
+    /**
+     * Number of ghost copies exchanged during the last tick, over all tiles.
+     */
+    public int getGhostCount() {
+        int ghosts = 0;
+        for (Tile tile : tiles) {
+            ghosts += tile.ghosts;
+        }
+        return ghosts;
+    }
+
+    /**
+     * Number of boids owned by a tile.
+     */
+    public int getOwnedCount(int tile) {
+        return tiles[tile].owned;
+    }
+
+    public int getTileCount() {
+        return tiles.length;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public float getTileWidth() {
+        return tileWidth;
+    }
+
+    public float getTileHeight() {
+        return tileHeight;
+    }
+
+    TileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void dispose() {
+        // The pool is shared or belongs to the caller, so is left running
+    }
+}
@@ -0,0 +1,39 @@
+package com.randomman552.boids.domain;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Channel between tiles in the same process, passing messages by reference.
+ */
+public class LocalTileChannel implements TileChannel {
+    private final Array<TileMessage>[][] inboxes;
+
+    public LocalTileChannel(int tiles) {
+        // Generic arrays cannot be created directly, every element is filled with an Array<TileMessage> below
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Array<TileMessage>[][] created = new Array[tiles][TileMessage.KINDS];
+        inboxes = created;
+        for (int t = 0; t < tiles; t++) {
+            for (int k = 0; k < TileMessage.KINDS; k++) {
+                inboxes[t][k] = new Array<>(false, 8);
+            }
+        }
+    }
+
+    @Override
+    public void send(int tile, TileMessage message) {
+        Array<TileMessage> inbox = inboxes[tile][message.kind];
+        synchronized (inbox) {
+            inbox.add(message);
+        }
+    }
+
+    @Override
+    public void receive(int tile, int kind, Array<TileMessage> out) {
+        Array<TileMessage> inbox = inboxes[tile][kind];
+        synchronized (inbox) {
+            out.addAll(inbox);
+            inbox.clear();
+        }
+    }
+}
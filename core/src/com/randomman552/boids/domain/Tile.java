@@ -0,0 +1,199 @@
+package com.randomman552.boids.domain;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntMap;
+import com.randomman552.boids.SimulationConfig;
+import com.randomman552.boids.boid.FlockState;
+import com.randomman552.boids.boid.FlockSteering;
+import com.randomman552.boids.util.SpatialGrid;
+
+/**
+ * One rectangle of a {@link DecomposedFlock}'s world, owning the boids inside it.
+ * The owned boids come first in the tile's state, followed by the ghost copies received from neighbouring tiles
+ * for the current tick. The tile only talks to other tiles through the channel.
+ */
+class Tile {
+    /**
+     * Column and row offsets of the eight neighbouring tiles.
+     */
+    private static final int[] DIRECTION_X = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] DIRECTION_Y = {-1, -1, -1, 0, 0, 1, 1, 1};
+
+    final int index;
+    final float minX, minY, maxX, maxY;
+    private final DecomposedFlock flock;
+
+    final FlockState state = new FlockState();
+    int owned;
+    /**
+     * Global id of each owned boid.
+     */
+    int[] ids = new int[16];
+    int ghosts;
+
+    private final FlockState next = new FlockState();
+    private final SpatialGrid grid = new SpatialGrid();
+    private final FlockSteering steering = new FlockSteering();
+    private final IntArray neighbours = new IntArray();
+    private final Array<TileMessage> inbox = new Array<>(false, 8);
+
+    // Ghost messages to each neighbouring tile, and the shift moving positions into that tile's coordinates
+    private final TileMessage[] ghostMessages = new TileMessage[DIRECTION_X.length];
+    private final int[] ghostTargets = new int[DIRECTION_X.length];
+    private final float[] ghostShiftX = new float[DIRECTION_X.length], ghostShiftY = new float[DIRECTION_X.length];
+    private final IntMap<TileMessage> migrantMessages = new IntMap<>();
+
+    Tile(DecomposedFlock flock, int column, int row) {
+        this.flock = flock;
+        index = row * flock.getColumns() + column;
+        minX = column * flock.getTileWidth();
+        minY = row * flock.getTileHeight();
+        maxX = minX + flock.getTileWidth();
+        maxY = minY + flock.getTileHeight();
+
+        for (int d = 0; d < DIRECTION_X.length; d++) {
+            int c = column + DIRECTION_X[d], r = row + DIRECTION_Y[d];
+            // Boids crossing the edge of the world appear on the opposite side
+            float shiftX = 0, shiftY = 0;
+            if (c < 0) {
+                c += flock.getColumns();
+                shiftX = flock.getWidth();
+            } else if (c >= flock.getColumns()) {
+                c -= flock.getColumns();
+                shiftX = -flock.getWidth();
+            }
+            if (r < 0) {
+                r += flock.getRows();
+                shiftY = flock.getHeight();
+            } else if (r >= flock.getRows()) {
+                r -= flock.getRows();
+                shiftY = -flock.getHeight();
+            }
+            ghostMessages[d] = new TileMessage(TileMessage.GHOSTS);
+            ghostTargets[d] = r * flock.getColumns() + c;
+            ghostShiftX[d] = shiftX;
+            ghostShiftY[d] = shiftY;
+        }
+    }
+
+    /**
+     * Take ownership of a boid. Must not be called while the tile holds ghosts.
+     */
+    void add(int id, float x, float y, float vx, float vy, float heading) {
+        state.ensureCapacity(owned + 1);
+        if (ids.length == owned) {
+            int[] grown = new int[owned * 2];
+            System.arraycopy(ids, 0, grown, 0, owned);
+            ids = grown;
+        }
+        state.set(owned, x, y, vx, vy, heading);
+        ids[owned] = id;
+        owned++;
+        state.size = owned;
+    }
+
+    /**
+     * First phase of a tick: send copies of the boids within the given radius of each border to the tile across it.
+     */
+    void sendGhosts(float radius) {
+        state.size = owned;
+        for (int d = 0; d < DIRECTION_X.length; d++) {
+            TileMessage message = ghostMessages[d];
+            message.clear();
+            int dx = DIRECTION_X[d], dy = DIRECTION_Y[d];
+            float shiftX = ghostShiftX[d], shiftY = ghostShiftY[d];
+            for (int i = 0; i < owned; i++) {
+                float x = state.posX[i], y = state.posY[i];
+                if (dx < 0 ? x >= minX + radius : dx > 0 && x < maxX - radius) continue;
+                if (dy < 0 ? y >= minY + radius : dy > 0 && y < maxY - radius) continue;
+                message.add(ids[i], x + shiftX, y + shiftY, state.velX[i], state.velY[i], state.heading[i]);
+            }
+            if (message.count > 0) {
+                flock.getChannel().send(ghostTargets[d], message);
+            }
+        }
+    }
+
+    /**
+     * Second phase of a tick: take in the ghosts sent to this tile, steer and move every owned boid,
+     * then send the boids which left the tile to their new owners.
+     */
+    void step(float delta, SimulationConfig config) {
+        float radius = config.senseRadius;
+        inbox.clear();
+        flock.getChannel().receive(index, TileMessage.GHOSTS, inbox);
+        int count = owned;
+        for (TileMessage message : inbox) {
+            state.ensureCapacity(count + message.count);
+            for (int i = 0; i < message.count; i++) {
+                state.set(count++, message.posX[i], message.posY[i], message.velX[i], message.velY[i], message.heading[i]);
+            }
+        }
+        state.size = count;
+        ghosts = count - owned;
+
+        // Ghosts lie up to the radius outside the tile, so the grid covers that margin too
+        grid.rebuild(state.posX, state.posY, count, radius,
+                minX - radius, minY - radius, maxX - minX + 2 * radius, maxY - minY + 2 * radius);
+        float maxTurn = delta * config.turnRate;
+        steering.setConfig(config);
+        next.ensureCapacity(owned);
+        for (int i = 0; i < owned; i++) {
+            neighbours.clear();
+            grid.query(state.posX[i], state.posY[i], radius, i, neighbours);
+            steering.steer(state, i, neighbours);
+            steering.turn(state, i, maxTurn);
+            next.set(i, state.posX[i] + steering.velocityX * delta, state.posY[i] + steering.velocityY * delta,
+                    steering.velocityX, steering.velocityY, steering.heading);
+        }
+
+        for (TileMessage message : migrantMessages.values()) {
+            message.clear();
+        }
+        float width = flock.getWidth(), height = flock.getHeight();
+        int kept = 0;
+        for (int i = 0; i < owned; i++) {
+            float x = next.posX[i], y = next.posY[i];
+            if (x < 0) x += width;
+            else if (x >= width) x -= width;
+            if (y < 0) y += height;
+            else if (y >= height) y -= height;
+
+            int owner = flock.tileAt(x, y);
+            if (owner == index) {
+                state.set(kept, x, y, next.velX[i], next.velY[i], next.heading[i]);
+                ids[kept] = ids[i];
+                kept++;
+            } else {
+                TileMessage message = migrantMessages.get(owner);
+                if (message == null) {
+                    message = new TileMessage(TileMessage.MIGRANTS);
+                    migrantMessages.put(owner, message);
+                }
+                message.add(ids[i], x, y, next.velX[i], next.velY[i], next.heading[i]);
+            }
+        }
+        owned = kept;
+        state.size = owned;
+
+        for (IntMap.Entry<TileMessage> entry : migrantMessages.entries()) {
+            if (entry.value.count > 0) {
+                flock.getChannel().send(entry.key, entry.value);
+            }
+        }
+    }
+
+    /**
+     * Last phase of a tick: take ownership of the boids which moved into this tile.
+     */
+    void receiveMigrants() {
+        inbox.clear();
+        flock.getChannel().receive(index, TileMessage.MIGRANTS, inbox);
+        for (TileMessage message : inbox) {
+            for (int i = 0; i < message.count; i++) {
+                add(message.ids[i], message.posX[i], message.posY[i], message.velX[i], message.velY[i], message.heading[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.randomman552.boids.domain;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Message passing between tiles. Tiles only exchange boids through a channel, never by touching each other's state,
+ * so an implementation could carry the messages between processes or machines.
+ * Sending may happen from several tiles at once, each tile only receives from its own inbox.
+ */
+public interface TileChannel {
+    /**
+     * Deliver a message to a tile's inbox.
+     * @param tile Index of the receiving tile.
+     * @param message Message to deliver, which must not be modified until the receiver has taken it.
+     */
+    void send(int tile, TileMessage message);
+
+    /**
+     * Take every message of the given kind in a tile's inbox.
+     * @param tile Index of the receiving tile.
+     * @param kind {@link TileMessage#GHOSTS} or {@link TileMessage#MIGRANTS}.
+     * @param out Array to add the messages to.
+     */
+    void receive(int tile, int kind, Array<TileMessage> out);
+}
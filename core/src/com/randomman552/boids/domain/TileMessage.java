@@ -0,0 +1,96 @@
+package com.randomman552.boids.domain;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A batch of boids sent from one tile to another: either ghost copies of boids near the border of the sender,
+ * or boids migrating into the receiver because they crossed into it.
+ * Positions are already in the receiver's coordinates (shifted by the world size where the world wraps).
+ * Messages are reused by their sender every tick, so a receiver must be done with a message before the sender's
+ * next phase of the same kind, which the phases of {@link DecomposedFlock} guarantee.
+ */
+public class TileMessage {
+    public static final int GHOSTS = 0;
+    public static final int MIGRANTS = 1;
+    public static final int KINDS = 2;
+
+    public final int kind;
+    public int count;
+    public float[] posX = new float[16], posY = new float[16];
+    public float[] velX = new float[16], velY = new float[16];
+    public float[] heading = new float[16];
+    /**
+     * Global id of each boid, which stays the same as it moves between tiles.
+     */
+    public int[] ids = new int[16];
+
+    public TileMessage(int kind) {
+        this.kind = kind;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public void add(int id, float x, float y, float vx, float vy, float heading) {
+        if (count == ids.length) {
+            int capacity = count * 2;
+            posX = grow(posX, capacity);
+            posY = grow(posY, capacity);
+            velX = grow(velX, capacity);
+            velY = grow(velY, capacity);
+            this.heading = grow(this.heading, capacity);
+            int[] grown = new int[capacity];
+            System.arraycopy(ids, 0, grown, 0, count);
+            ids = grown;
+        }
+        ids[count] = id;
+        posX[count] = x;
+        posY[count] = y;
+        velX[count] = vx;
+        velY[count] = vy;
+        this.heading[count] = heading;
+        count++;
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Number of bytes {@link #write(ByteBuffer)} takes.
+     */
+    public int getSerializedSize() {
+        return 4 + 4 + count * (4 + 5 * 4);
+    }
+
+    /**
+     * Write the message to a buffer, for channels which cross process boundaries.
+     */
+    public void write(ByteBuffer out) {
+        out.putInt(kind);
+        out.putInt(count);
+        for (int i = 0; i < count; i++) {
+            out.putInt(ids[i]);
+            out.putFloat(posX[i]);
+            out.putFloat(posY[i]);
+            out.putFloat(velX[i]);
+            out.putFloat(velY[i]);
+            out.putFloat(heading[i]);
+        }
+    }
+
+    /**
+     * Read a message written by {@link #write(ByteBuffer)}.
+     */
+    public static TileMessage read(ByteBuffer in) {
+        TileMessage message = new TileMessage(in.getInt());
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            message.add(in.getInt(), in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat());
+        }
+        return message;
+    }
+}
@@ -0,0 +1,81 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.physics.box2d.ChainShape;
+import com.randomman552.boids.Simulation;
+
+/**
+ * Obstacle made of a line of connected segments, for example a wall, or the outline of a concave shape when looped.
+ * Only the segments block boids, the inside of a loop is hollow.
+ */
+public class ChainObstacle extends StaticObstacle {
+    /**
+     * Width the segments are drawn with.
+     */
+    private static final float LINE_WIDTH = 0.05f;
+    /**
+     * Consecutive vertices closer than this are merged, as Box2D rejects them.
+     */
+    private static final float MIN_SEGMENT_LENGTH = 0.01f;
+
+    private final float[] vertices;
+    private final boolean looped;
+
+    /**
+     * @param vertices Vertices in world coordinates, as x, y pairs.
+     * @param length Number of coordinates to use from vertices.
+     * @param looped Whether the last vertex is joined back to the first.
+     */
+    public ChainObstacle(Simulation simulation, float[] vertices, int length, boolean looped) {
+        super(simulation);
+        this.vertices = mergeClose(copyVertices(vertices, length, looped ? 3 : 2), looped ? 3 : 2);
+        this.looped = looped;
+
+        ChainShape shape = new ChainShape();
+        if (looped) {
+            shape.createLoop(this.vertices);
+        } else {
+            shape.createChain(this.vertices);
+        }
+        createFixture(shape);
+    }
+
+    public ChainObstacle(Simulation simulation, float[] vertices, boolean looped) {
+        this(simulation, vertices, vertices.length, looped);
+    }
+
+    /**
+     * Drop every vertex within MIN_SEGMENT_LENGTH of the one before it.
+     */
+    private static float[] mergeClose(float[] vertices, int minVertices) {
+        int kept = 2;
+        for (int i = 2; i < vertices.length; i += 2) {
+            float dx = vertices[i] - vertices[kept - 2], dy = vertices[i + 1] - vertices[kept - 1];
+            if (dx * dx + dy * dy < MIN_SEGMENT_LENGTH * MIN_SEGMENT_LENGTH) continue;
+            vertices[kept++] = vertices[i];
+            vertices[kept++] = vertices[i + 1];
+        }
+        return copyVertices(vertices, kept, minVertices);
+    }
+
+    /**
+     * Vertices of the chain as x, y pairs.
+     * NOTE: Returns the internal array, which must not be modified.
+     */
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public boolean isLooped() {
+        return looped;
+    }
+
+    @Override
+    public void drawShape(ShapeRenderer renderer) {
+        int segments = looped ? vertices.length / 2 : vertices.length / 2 - 1;
+        for (int s = 0; s < segments; s++) {
+            int i = s * 2, next = (i + 2) % vertices.length;
+            renderer.rectLine(vertices[i], vertices[i + 1], vertices[next], vertices[next + 1], LINE_WIDTH);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.CircleShape;
+import com.randomman552.boids.Simulation;
+
+/**
+ * Circular obstacle, for example a pillar.
+ */
+public class CircleObstacle extends StaticObstacle {
+    private final float x, y, radius;
+
+    public CircleObstacle(Simulation simulation, float x, float y, float radius) {
+        super(simulation);
+        if (radius <= 0) {
+            throw new IllegalArgumentException("Radius must be positive, got " + radius);
+        }
+        this.x = x;
+        this.y = y;
+        this.radius = radius;
+
+        CircleShape shape = new CircleShape();
+        shape.setPosition(new Vector2(x, y));
+        shape.setRadius(radius);
+        createFixture(shape);
+    }
+
+    public float getCenterX() {
+        return x;
+    }
+
+    public float getCenterY() {
+        return y;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    @Override
+    public void drawShape(ShapeRenderer renderer) {
+        renderer.circle(x, y, radius, 16);
+    }
+}
@@ -3,13 +3,11 @@ package com.randomman552.boids.obstacles;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.*;
 import com.badlogic.gdx.utils.Align;
-import com.randomman552.boids.Boids;
+import com.badlogic.gdx.utils.ObjectFloatMap;
 import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
 /**
  * Object to represent the edge of the map.
@@ -20,20 +18,26 @@ public class MapEdge extends Obstacle {
     private MapEdge paired;
     private final boolean isHorizontal;
     private final ArrayList<Body> toTeleport = new ArrayList<>();
-    private static final Map<Body, Float> coolDowns = new HashMap<>();
-
-    public MapEdge(int index) {
+    private final ObjectFloatMap<Body> coolDowns;
+
+    /**
+     * @param coolDowns Teleport cool downs, shared by the edges of one simulation so a boid is not teleported
+     *                  straight back by the paired edge.
+     */
+    public MapEdge(Simulation simulation, int index, ObjectFloatMap<Body> coolDowns) {
+        super(simulation);
+        this.coolDowns = coolDowns;
         body = createBody(index);
         isHorizontal = index % 2 == 0;
 
         switch (index) {
             case 0:
                 setOrigin(Align.topRight);
-                setPosition(0, Constants.WORLD_SIZE.y);
+                setPosition(0, simulation.getWorldHeight());
                 break;
             case 1:
                 setOrigin(Align.topRight);
-                setPosition(Constants.WORLD_SIZE.x, 0);
+                setPosition(simulation.getWorldWidth(), 0);
                 break;
             case 2:
                 setOrigin(Align.bottomLeft);
@@ -57,14 +61,14 @@ public class MapEdge extends Obstacle {
 
         // Create correct size based on wall index (even is top, odd is side).
         if (index % 2 == 0) {
-            polyShape.setAsBox(Constants.WORLD_SIZE.x, 1);
-            setSize(Constants.WORLD_SIZE.x, 1);
+            polyShape.setAsBox(simulation.getWorldWidth(), 1);
+            setSize(simulation.getWorldWidth(), 1);
         } else {
-            polyShape.setAsBox(1, Constants.WORLD_SIZE.y);
-            setSize(1, Constants.WORLD_SIZE.y);
+            polyShape.setAsBox(1, simulation.getWorldHeight());
+            setSize(1, simulation.getWorldHeight());
         }
 
-        Body body = Boids.getInstance().world.createBody(bodyDef);
+        Body body = simulation.world.createBody(bodyDef);
         body.createFixture(fixtureDef);
         body.setUserData(this);
         return body;
@@ -91,26 +95,29 @@ public class MapEdge extends Obstacle {
         super.act(delta);
 
         // Teleport boids to other side of map
-        for (Body boid: toTeleport) {
+        for (int i = 0; i < toTeleport.size(); i++) {
+            Body boid = toTeleport.get(i);
             Vector2 boidPos = boid.getPosition();
 
             // Calculate opposing position to teleport to
             if (isHorizontal) {
-                boidPos.y = Constants.WORLD_SIZE.y - boidPos.y;
+                boidPos.y = simulation.getWorldHeight() - boidPos.y;
             } else {
-                boidPos.x = Constants.WORLD_SIZE.x - boidPos.x;
+                boidPos.x = simulation.getWorldWidth() - boidPos.x;
             }
             boid.setTransform(boidPos.x, boidPos.y, body.getAngle());
         }
         toTeleport.clear();
 
-        // Process cool downs
-        Iterator<Map.Entry<Body, Float>> cdIter = coolDowns.entrySet().iterator();
-        while (cdIter.hasNext()) {
-            Map.Entry<Body, Float> entry = cdIter.next();
-            entry.setValue(entry.getValue() - delta);
-            if (entry.getValue() <= 0) {
+        // Process cool downs (a primitive map so teleporting does not box a Float per boid)
+        ObjectFloatMap.Keys<Body> cdIter = coolDowns.keys();
+        while (cdIter.hasNext) {
+            Body cooling = cdIter.next();
+            float remaining = coolDowns.get(cooling, 0) - delta;
+            if (remaining <= 0) {
                 cdIter.remove();
+            } else {
+                coolDowns.put(cooling, remaining);
             }
         }
     }
@@ -2,11 +2,19 @@ package com.randomman552.boids.obstacles;
 
 import com.badlogic.gdx.graphics.g2d.Batch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.utils.Array;
 import com.randomman552.boids.Boids;
 import com.randomman552.boids.Constants;
+import com.randomman552.boids.Simulation;
 import com.randomman552.boids.util.BodyLinkedActor;
 
 public abstract class Obstacle extends BodyLinkedActor {
+    public Obstacle(Simulation simulation) {
+        super(simulation);
+    }
+
     @Override
     protected TextureRegion getFrame() {
         return Boids.getInstance().obstacleTexture;
@@ -17,4 +25,18 @@ public abstract class Obstacle extends BodyLinkedActor {
         setColor(Constants.FOREGROUND_COLOR);
         super.draw(batch, parentAlpha);
     }
+
+    /**
+     * Fixtures making up this obstacle, which obstacle avoidance structures are built from.
+     */
+    public Array<Fixture> getFixtures() {
+        return body.getFixtureList();
+    }
+
+    /**
+     * Draw the geometry of this obstacle with filled shapes, for obstacles not drawn with a texture.
+     * Called between begin and end of the renderer, with its color already set.
+     */
+    public void drawShape(ShapeRenderer renderer) {
+    }
 }
@@ -0,0 +1,336 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.utils.Array;
+import com.randomman552.boids.Constants;
+
+/**
+ * Static bounding volume hierarchy holding only obstacle geometry, used to answer ray queries without going through
+ * the Box2D broadphase (which also contains every boid fixture).
+ * Obstacle fixtures are broken down into line segments and circles, so a ray leaving a polygon hits its outline,
+ * while like Box2D a ray starting inside a circle does not hit it.
+ * The tree is stored in flat arrays and only needs rebuilding when the obstacles change.
+ */
+public class ObstacleBVH {
+    private static final int LEAF_SIZE = 4;
+    private static final int STACK_SIZE = 64;
+
+    // Primitives, 4 floats each: segments are (x1, y1, x2, y2), circles are (x, y, radius, unused)
+    private float[] primitives = new float[64];
+    private boolean[] isCircle = new boolean[16];
+    private int primitiveCount;
+    /**
+     * Primitive indices, reordered during the build so each leaf covers a contiguous range.
+     */
+    private int[] order = new int[16];
+
+    // Nodes, bounds are (minX, minY, maxX, maxY)
+    private float[] nodeBounds = new float[64];
+    /**
+     * Leaves: first index into order, interior nodes: index of the left child (the right child follows it).
+     */
+    private int[] nodeStart = new int[16];
+    /**
+     * Number of primitives in a leaf, 0 for interior nodes.
+     */
+    private int[] nodeCount = new int[16];
+    private int nodeTotal;
+
+    private final int[] stack = new int[STACK_SIZE];
+    private final Vector2 vertex = new Vector2();
+    private final Vector2 previous = new Vector2();
+    private boolean dirty = true;
+
+    /**
+     * Flag the tree to be rebuilt, should be called whenever an obstacle is added, removed or moved.
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public int getPrimitiveCount() {
+        return primitiveCount;
+    }
+
+    /**
+     * Rebuild the tree from the fixtures of the given obstacles.
+     * Fixtures are skipped the same way obstacle avoidance ray casts skip them (sensors and the boid sense group).
+     * @param obstacles Obstacles to include.
+     */
+    public void rebuild(Array<Obstacle> obstacles) {
+        primitiveCount = 0;
+        for (Obstacle obstacle : obstacles) {
+            Body body = obstacle.getBody();
+            for (Fixture fixture : obstacle.getFixtures()) {
+                if (fixture.isSensor() || fixture.getFilterData().groupIndex == Constants.BOID_SENSE_GROUP) {
+                    continue;
+                }
+                addFixture(body, fixture.getShape());
+            }
+        }
+
+        if (order.length < primitiveCount) order = new int[primitiveCount];
+        for (int i = 0; i < primitiveCount; i++) {
+            order[i] = i;
+        }
+
+        // A binary tree with leaves of at least one primitive never has more than 2n - 1 nodes
+        int maxNodes = Math.max(1, 2 * primitiveCount);
+        if (nodeStart.length < maxNodes) {
+            nodeStart = new int[maxNodes];
+            nodeCount = new int[maxNodes];
+            nodeBounds = new float[maxNodes * 4];
+        }
+        nodeTotal = 1;
+        build(0, 0, primitiveCount);
+        dirty = false;
+    }
+
+    private void addFixture(Body body, Shape shape) {
+        switch (shape.getType()) {
+            case Circle: {
+                CircleShape circle = (CircleShape) shape;
+                Vector2 center = body.getWorldPoint(circle.getPosition());
+                addPrimitive(center.x, center.y, circle.getRadius(), 0, true);
+                break;
+            }
+            case Polygon: {
+                PolygonShape polygon = (PolygonShape) shape;
+                int count = polygon.getVertexCount();
+                for (int i = 0; i <= count; i++) {
+                    polygon.getVertex(i % count, vertex);
+                    addVertex(body, i);
+                }
+                break;
+            }
+            case Edge: {
+                EdgeShape edge = (EdgeShape) shape;
+                edge.getVertex1(vertex);
+                addVertex(body, 0);
+                edge.getVertex2(vertex);
+                addVertex(body, 1);
+                break;
+            }
+            case Chain: {
+                ChainShape chain = (ChainShape) shape;
+                int count = chain.getVertexCount();
+                int total = chain.isLooped() ? count + 1 : count;
+                for (int i = 0; i < total; i++) {
+                    chain.getVertex(i % count, vertex);
+                    addVertex(body, i);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Add the local vertex stored in vertex as the next point of a polyline, creating a segment from the last one.
+     */
+    private void addVertex(Body body, int index) {
+        Vector2 world = body.getWorldPoint(vertex);
+        if (index > 0) {
+            addPrimitive(previous.x, previous.y, world.x, world.y, false);
+        }
+        previous.set(world);
+    }
+
+    private void addPrimitive(float a, float b, float c, float d, boolean circle) {
+        if (isCircle.length <= primitiveCount) {
+            float[] grownPrimitives = new float[primitives.length * 2];
+            System.arraycopy(primitives, 0, grownPrimitives, 0, primitives.length);
+            primitives = grownPrimitives;
+            boolean[] grownIsCircle = new boolean[isCircle.length * 2];
+            System.arraycopy(isCircle, 0, grownIsCircle, 0, isCircle.length);
+            isCircle = grownIsCircle;
+        }
+        int p = primitiveCount * 4;
+        primitives[p] = a;
+        primitives[p + 1] = b;
+        primitives[p + 2] = c;
+        primitives[p + 3] = d;
+        isCircle[primitiveCount] = circle;
+        primitiveCount++;
+    }
+
+    private float primitiveMin(int primitive, int axis) {
+        int p = primitive * 4;
+        if (isCircle[primitive]) return primitives[p + axis] - primitives[p + 2];
+        return Math.min(primitives[p + axis], primitives[p + 2 + axis]);
+    }
+
+    private float primitiveMax(int primitive, int axis) {
+        int p = primitive * 4;
+        if (isCircle[primitive]) return primitives[p + axis] + primitives[p + 2];
+        return Math.max(primitives[p + axis], primitives[p + 2 + axis]);
+    }
+
+    /**
+     * Build the node at the given index over order[from, to), splitting at the median of the longest axis.
+     */
+    private void build(int node, int from, int to) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            int primitive = order[i];
+            minX = Math.min(minX, primitiveMin(primitive, 0));
+            minY = Math.min(minY, primitiveMin(primitive, 1));
+            maxX = Math.max(maxX, primitiveMax(primitive, 0));
+            maxY = Math.max(maxY, primitiveMax(primitive, 1));
+        }
+        int b = node * 4;
+        nodeBounds[b] = minX;
+        nodeBounds[b + 1] = minY;
+        nodeBounds[b + 2] = maxX;
+        nodeBounds[b + 3] = maxY;
+
+        if (to - from <= LEAF_SIZE) {
+            nodeStart[node] = from;
+            nodeCount[node] = to - from;
+            return;
+        }
+
+        int axis = (maxX - minX >= maxY - minY) ? 0 : 1;
+        int mid = (from + to) >>> 1;
+        selectMedian(from, to - 1, mid, axis);
+
+        int left = nodeTotal;
+        nodeTotal += 2;
+        nodeStart[node] = left;
+        nodeCount[node] = 0;
+        build(left, from, mid);
+        build(left + 1, mid, to);
+    }
+
+    private float centroid(int primitive, int axis) {
+        return (primitiveMin(primitive, axis) + primitiveMax(primitive, axis)) * 0.5f;
+    }
+
+    /**
+     * Partially sort order[low, high] so order[k] holds the primitive with the k-th smallest centroid on the axis.
+     */
+    private void selectMedian(int low, int high, int k, int axis) {
+        while (low < high) {
+            float pivot = centroid(order[(low + high) >>> 1], axis);
+            int i = low, j = high;
+            while (i <= j) {
+                while (centroid(order[i], axis) < pivot) i++;
+                while (centroid(order[j], axis) > pivot) j--;
+                if (i <= j) {
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) high = j;
+            else if (k >= i) low = i;
+            else return;
+        }
+    }
+
+    /**
+     * Check whether the segment between two points hits any obstacle, stopping at the first hit found.
+     * Uses an internal traversal stack, so must only be called from one thread at a time.
+     * @return True if something is hit, false otherwise.
+     */
+    public boolean rayCast(float x1, float y1, float x2, float y2) {
+        return rayCast(x1, y1, x2, y2, stack);
+    }
+
+    /**
+     * Check whether the segment between two points hits any obstacle, stopping at the first hit found.
+     * @param stack Traversal stack of at least 64 entries, pass a separate one per thread.
+     * @return True if something is hit, false otherwise.
+     */
+    public boolean rayCast(float x1, float y1, float x2, float y2, int[] stack) {
+        if (primitiveCount == 0) return false;
+        float dx = x2 - x1, dy = y2 - y1;
+        int size = 0;
+        stack[size++] = 0;
+
+        while (size > 0) {
+            int node = stack[--size];
+            if (!segmentHitsBounds(node, x1, y1, dx, dy)) continue;
+
+            int count = nodeCount[node];
+            if (count == 0) {
+                stack[size++] = nodeStart[node];
+                stack[size++] = nodeStart[node] + 1;
+                continue;
+            }
+            for (int i = nodeStart[node], end = i + count; i < end; i++) {
+                if (segmentHitsPrimitive(order[i], x1, y1, dx, dy)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ray cast a batch of segments, for example every boid's forward probe in a tick.
+     * @param fromX X coordinates of the segment starts.
+     * @param fromY Y coordinates of the segment starts.
+     * @param toX X coordinates of the segment ends.
+     * @param toY Y coordinates of the segment ends.
+     * @param count Number of segments.
+     * @param hits Set to whether each segment hit an obstacle.
+     */
+    public void rayCast(float[] fromX, float[] fromY, float[] toX, float[] toY, int count, boolean[] hits) {
+        for (int i = 0; i < count; i++) {
+            hits[i] = rayCast(fromX[i], fromY[i], toX[i], toY[i], stack);
+        }
+    }
+
+    /**
+     * Slab test of the segment (x, y) + t * (dx, dy), t in [0, 1] against the bounds of a node.
+     */
+    private boolean segmentHitsBounds(int node, float x, float y, float dx, float dy) {
+        int b = node * 4;
+        float tMin = 0, tMax = 1;
+
+        if (dx == 0) {
+            if (x < nodeBounds[b] || x > nodeBounds[b + 2]) return false;
+        } else {
+            float t1 = (nodeBounds[b] - x) / dx, t2 = (nodeBounds[b + 2] - x) / dx;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        if (dy == 0) {
+            if (y < nodeBounds[b + 1] || y > nodeBounds[b + 3]) return false;
+        } else {
+            float t1 = (nodeBounds[b + 1] - y) / dy, t2 = (nodeBounds[b + 3] - y) / dy;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        return tMin <= tMax;
+    }
+
+    private boolean segmentHitsPrimitive(int primitive, float x, float y, float dx, float dy) {
+        int p = primitive * 4;
+        if (isCircle[primitive]) {
+            float cx = primitives[p], cy = primitives[p + 1], radius = primitives[p + 2];
+            float ox = x - cx, oy = y - cy;
+            // Starting inside does not count as a hit
+            if (ox * ox + oy * oy <= radius * radius) return false;
+            float len2 = dx * dx + dy * dy;
+            float t = (len2 == 0) ? 0 : -(ox * dx + oy * dy) / len2;
+            t = Math.min(Math.max(t, 0), 1);
+            float px = ox + dx * t, py = oy + dy * t;
+            return px * px + py * py <= radius * radius;
+        }
+
+        float ax = primitives[p], ay = primitives[p + 1];
+        float ex = primitives[p + 2] - ax, ey = primitives[p + 3] - ay;
+        float denominator = dx * ey - dy * ex;
+        if (denominator == 0) return false;
+        float wx = ax - x, wy = ay - y;
+        float t = (wx * ey - wy * ex) / denominator;
+        float u = (wx * dy - wy * dx) / denominator;
+        return t >= 0 && t <= 1 && u >= 0 && u <= 1;
+    }
+}
@@ -0,0 +1,283 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.utils.Array;
+import com.randomman552.boids.Constants;
+
+/**
+ * Signed distance field of the obstacles in the world, sampled on a regular grid.
+ * Distances are negative inside obstacles and clamped to a maximum distance away from them, so each obstacle only
+ * has to be written into the cells near it.
+ * The field is baked from the obstacle fixtures and only needs rebuilding when the obstacles change,
+ * after which distance and gradient lookups are O(1).
+ * The field does not wrap around with the periodic boundary: points outside the world are clamped onto its edge,
+ * so, like Box2D and BVH ray casts, an obstacle is not seen across the edge it wraps over.
+ */
+public class ObstacleField {
+    private float cellSize = 0.1f;
+    private float maxDistance;
+    private int columns, rows;
+    /**
+     * Distance at each grid node, node (i, j) is at (i * cellSize, j * cellSize).
+     */
+    private float[] distances = new float[0];
+    private boolean dirty = true;
+
+    // Scratch storage used while baking
+    private float[] vertices = new float[16];
+    private float[] normals = new float[16];
+    private final Vector2 vertex = new Vector2();
+
+    /**
+     * Flag the field to be rebuilt, should be called whenever an obstacle is added, removed or moved.
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Bake the field from the fixtures of the given obstacles.
+     * Fixtures are skipped the same way obstacle avoidance ray casts skip them (sensors and the boid sense group),
+     * so map edges are not included.
+     * @param obstacles Obstacles to include.
+     * @param width Width of the area covered.
+     * @param height Height of the area covered.
+     * @param cellSize Distance between grid nodes.
+     * @param maxDistance Distance values are clamped to this.
+     */
+    public void rebuild(Array<Obstacle> obstacles, float width, float height, float cellSize, float maxDistance) {
+        this.cellSize = cellSize;
+        this.maxDistance = maxDistance;
+        columns = (int) Math.ceil(width / cellSize) + 1;
+        rows = (int) Math.ceil(height / cellSize) + 1;
+        if (distances.length < columns * rows) {
+            distances = new float[columns * rows];
+        }
+        for (int i = 0; i < columns * rows; i++) {
+            distances[i] = maxDistance;
+        }
+
+        for (Obstacle obstacle : obstacles) {
+            Body body = obstacle.getBody();
+            for (Fixture fixture : obstacle.getFixtures()) {
+                if (fixture.isSensor() || fixture.getFilterData().groupIndex == Constants.BOID_SENSE_GROUP) {
+                    continue;
+                }
+                bakeFixture(body, fixture.getShape());
+            }
+        }
+        dirty = false;
+    }
+
+    private void bakeFixture(Body body, Shape shape) {
+        switch (shape.getType()) {
+            case Circle: {
+                CircleShape circle = (CircleShape) shape;
+                Vector2 center = body.getWorldPoint(circle.getPosition());
+                vertices[0] = center.x;
+                vertices[1] = center.y;
+                bakeShape(shape.getType(), 1, circle.getRadius(), false);
+                break;
+            }
+            case Polygon: {
+                PolygonShape polygon = (PolygonShape) shape;
+                int count = polygon.getVertexCount();
+                ensureVertices(count);
+                for (int i = 0; i < count; i++) {
+                    polygon.getVertex(i, vertex);
+                    storeVertex(body, i);
+                }
+                bakeShape(shape.getType(), count, 0, true);
+                break;
+            }
+            case Edge: {
+                EdgeShape edge = (EdgeShape) shape;
+                edge.getVertex1(vertex);
+                storeVertex(body, 0);
+                edge.getVertex2(vertex);
+                storeVertex(body, 1);
+                bakeShape(shape.getType(), 2, 0, false);
+                break;
+            }
+            case Chain: {
+                ChainShape chain = (ChainShape) shape;
+                int count = chain.getVertexCount();
+                ensureVertices(count);
+                for (int i = 0; i < count; i++) {
+                    chain.getVertex(i, vertex);
+                    storeVertex(body, i);
+                }
+                bakeShape(shape.getType(), count, 0, chain.isLooped());
+                break;
+            }
+        }
+    }
+
+    private void ensureVertices(int count) {
+        if (vertices.length < count * 2) {
+            vertices = new float[count * 2];
+            normals = new float[count * 2];
+        }
+    }
+
+    private void storeVertex(Body body, int index) {
+        Vector2 world = body.getWorldPoint(vertex);
+        vertices[index * 2] = world.x;
+        vertices[index * 2 + 1] = world.y;
+    }
+
+    /**
+     * Write the distance to the shape stored in vertices into every node within maxDistance of it.
+     */
+    private void bakeShape(Shape.Type type, int count, float radius, boolean closed) {
+        // Bounds of the shape, expanded by the max distance
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, vertices[i * 2]);
+            maxX = Math.max(maxX, vertices[i * 2]);
+            minY = Math.min(minY, vertices[i * 2 + 1]);
+            maxY = Math.max(maxY, vertices[i * 2 + 1]);
+        }
+        float margin = radius + maxDistance;
+        int fromX = Math.max(0, (int) Math.floor((minX - margin) / cellSize));
+        int toX = Math.min(columns - 1, (int) Math.ceil((maxX + margin) / cellSize));
+        int fromY = Math.max(0, (int) Math.floor((minY - margin) / cellSize));
+        int toY = Math.min(rows - 1, (int) Math.ceil((maxY + margin) / cellSize));
+        if (type == Shape.Type.Polygon) {
+            storeNormals(count);
+        }
+
+        // Nodes already closer to another obstacle than to the bounding circle of this one can be skipped,
+        // which saves most of the work in scenes with many obstacles close together
+        float centerX = (minX + maxX) / 2, centerY = (minY + maxY) / 2;
+        float boundRadius = Vector2.len(maxX - centerX, maxY - centerY) + radius;
+
+        for (int j = fromY; j <= toY; j++) {
+            for (int i = fromX; i <= toX; i++) {
+                float x = i * cellSize, y = j * cellSize;
+                int node = j * columns + i;
+                if (Vector2.len(x - centerX, y - centerY) - boundRadius >= distances[node]) continue;
+                float d;
+                if (type == Shape.Type.Circle) {
+                    d = Vector2.len(x - vertices[0], y - vertices[1]) - radius;
+                } else if (type == Shape.Type.Polygon) {
+                    d = polygonDistance(x, y, count);
+                } else {
+                    d = polylineDistance(x, y, count, closed);
+                }
+                if (d < distances[node]) distances[node] = d;
+            }
+        }
+    }
+
+    /**
+     * Store the outward unit normal of each edge of the polygon in vertices, once per polygon rather than per node.
+     */
+    private void storeNormals(int count) {
+        for (int i = 0; i < count; i++) {
+            int next = (i + 1) % count;
+            float ex = vertices[next * 2] - vertices[i * 2], ey = vertices[next * 2 + 1] - vertices[i * 2 + 1];
+            float len = Vector2.len(ex, ey);
+            // Outward normal of a counter-clockwise edge
+            normals[i * 2] = ey / len;
+            normals[i * 2 + 1] = -ex / len;
+        }
+    }
+
+    /**
+     * Signed distance from a point to the convex polygon stored in vertices (counter-clockwise, as Box2D keeps them).
+     */
+    private float polygonDistance(float x, float y, int count) {
+        float maxPlane = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            float plane = normals[i * 2] * (x - vertices[i * 2]) + normals[i * 2 + 1] * (y - vertices[i * 2 + 1]);
+            maxPlane = Math.max(maxPlane, plane);
+        }
+        if (maxPlane <= 0) return maxPlane;
+        // Outside, the nearest point lies on one of the edges facing the point
+        float min = Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int next = (i + 1) % count;
+            float ax = vertices[i * 2], ay = vertices[i * 2 + 1];
+            if (normals[i * 2] * (x - ax) + normals[i * 2 + 1] * (y - ay) < 0) continue;
+            min = Math.min(min, segmentDistance(x, y, ax, ay, vertices[next * 2], vertices[next * 2 + 1]));
+        }
+        return min;
+    }
+
+    /**
+     * Unsigned distance from a point to the polyline stored in vertices.
+     */
+    private float polylineDistance(float x, float y, int count, boolean closed) {
+        float min = Float.MAX_VALUE;
+        int segments = closed ? count : count - 1;
+        for (int i = 0; i < segments; i++) {
+            int next = (i + 1) % count;
+            min = Math.min(min, segmentDistance(x, y,
+                    vertices[i * 2], vertices[i * 2 + 1], vertices[next * 2], vertices[next * 2 + 1]));
+        }
+        return min;
+    }
+
+    private static float segmentDistance(float x, float y, float ax, float ay, float bx, float by) {
+        float ex = bx - ax, ey = by - ay;
+        float len2 = ex * ex + ey * ey;
+        float t = (len2 == 0) ? 0 : ((x - ax) * ex + (y - ay) * ey) / len2;
+        t = Math.min(Math.max(t, 0), 1);
+        return Vector2.len(x - (ax + ex * t), y - (ay + ey * t));
+    }
+
+    /**
+     * Distance from the given point to the nearest obstacle (negative inside), bilinearly interpolated.
+     * Points outside the field are clamped to its edge.
+     */
+    public float distance(float x, float y) {
+        float fx = Math.min(Math.max(x / cellSize, 0), columns - 1.001f);
+        float fy = Math.min(Math.max(y / cellSize, 0), rows - 1.001f);
+        int i = (int) fx, j = (int) fy;
+        float tx = fx - i, ty = fy - j;
+        int node = j * columns + i;
+        float bottom = distances[node] + (distances[node + 1] - distances[node]) * tx;
+        float top = distances[node + columns] + (distances[node + columns + 1] - distances[node + columns]) * tx;
+        return bottom + (top - bottom) * ty;
+    }
+
+    /**
+     * Gradient of the field at the given point, pointing away from the nearest obstacle.
+     * @param out Vector to store the (not normalised) gradient in.
+     * @return out
+     */
+    public Vector2 gradient(float x, float y, Vector2 out) {
+        float h = cellSize;
+        return out.set(
+                distance(x + h, y) - distance(x - h, y),
+                distance(x, y + h) - distance(x, y - h)
+        );
+    }
+
+    /**
+     * March along a ray through the field until it reaches an obstacle.
+     * Each step advances by at least half a cell, so the march always reaches the hit or the end of the ray.
+     * @param x X coordinate of the ray start.
+     * @param y Y coordinate of the ray start.
+     * @param dirX X component of the normalised ray direction.
+     * @param dirY Y component of the normalised ray direction.
+     * @param length Maximum length of the ray.
+     * @return Distance along the ray of the hit, or -1 if nothing is within length.
+     */
+    public float march(float x, float y, float dirX, float dirY, float length) {
+        float hitDistance = cellSize * 0.5f;
+        float t = 0;
+        while (t <= length) {
+            float d = distance(x + dirX * t, y + dirY * t);
+            if (d < hitDistance) return t;
+            t += d;
+        }
+        return -1;
+    }
+}
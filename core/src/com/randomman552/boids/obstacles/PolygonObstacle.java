@@ -0,0 +1,101 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.randomman552.boids.Simulation;
+
+/**
+ * Solid convex polygon obstacle, for example a building footprint, of up to MAX_VERTICES vertices.
+ * Box2D takes the convex hull of the given vertices, so concave outlines should be split up or given as a
+ * looped {@link ChainObstacle} instead.
+ */
+public class PolygonObstacle extends StaticObstacle {
+    /**
+     * Most vertices Box2D allows in a polygon.
+     */
+    public static final int MAX_VERTICES = 8;
+
+    /**
+     * Vertices of the convex hull as x, y pairs, counter-clockwise.
+     */
+    private final float[] vertices;
+
+    /**
+     * @param vertices Vertices in world coordinates, as x, y pairs.
+     * @param length Number of coordinates to use from vertices.
+     */
+    public PolygonObstacle(Simulation simulation, float[] vertices, int length) {
+        super(simulation);
+        float[] given = copyVertices(vertices, length, 3);
+        if (length / 2 > MAX_VERTICES) {
+            throw new IllegalArgumentException("Polygons can have at most " + MAX_VERTICES + " vertices, got " + length / 2);
+        }
+        if (Math.abs(area(given)) < 1e-4f) {
+            throw new IllegalArgumentException("Polygon has no area");
+        }
+
+        PolygonShape shape = new PolygonShape();
+        shape.set(given);
+        // Keep the hull Box2D made, so drawing matches the collision shape
+        this.vertices = new float[shape.getVertexCount() * 2];
+        Vector2 vertex = new Vector2();
+        for (int i = 0; i < shape.getVertexCount(); i++) {
+            shape.getVertex(i, vertex);
+            this.vertices[i * 2] = vertex.x;
+            this.vertices[i * 2 + 1] = vertex.y;
+        }
+        createFixture(shape);
+    }
+
+    public PolygonObstacle(Simulation simulation, float[] vertices) {
+        this(simulation, vertices, vertices.length);
+    }
+
+    /**
+     * Create a rectangular obstacle.
+     * @param x X coordinate of the center.
+     * @param y Y coordinate of the center.
+     * @param angle Rotation about the center (in degrees).
+     */
+    public static PolygonObstacle rectangle(Simulation simulation, float x, float y, float width, float height, float angle) {
+        float cos = MathUtils.cosDeg(angle), sin = MathUtils.sinDeg(angle);
+        float halfWidth = width / 2, halfHeight = height / 2;
+        float[] corners = {-halfWidth, -halfHeight, halfWidth, -halfHeight, halfWidth, halfHeight, -halfWidth, halfHeight};
+        for (int i = 0; i < corners.length; i += 2) {
+            float cx = corners[i], cy = corners[i + 1];
+            corners[i] = x + cx * cos - cy * sin;
+            corners[i + 1] = y + cx * sin + cy * cos;
+        }
+        return new PolygonObstacle(simulation, corners);
+    }
+
+    /**
+     * Vertices of the polygon as x, y pairs, counter-clockwise.
+     * NOTE: Returns the internal array, which must not be modified.
+     */
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * Signed area of a polygon given as x, y pairs, positive when counter-clockwise.
+     */
+    private static float area(float[] vertices) {
+        float sum = 0;
+        for (int i = 0; i < vertices.length; i += 2) {
+            int next = (i + 2) % vertices.length;
+            sum += vertices[i] * vertices[next + 1] - vertices[next] * vertices[i + 1];
+        }
+        return sum / 2;
+    }
+
+    @Override
+    public void drawShape(ShapeRenderer renderer) {
+        // Fan of triangles from the first vertex, which covers any convex polygon
+        for (int i = 2; i + 3 < vertices.length; i += 2) {
+            renderer.triangle(vertices[0], vertices[1], vertices[i], vertices[i + 1], vertices[i + 2], vertices[i + 3]);
+        }
+    }
+}
@@ -5,19 +5,19 @@ import com.badlogic.gdx.physics.box2d.BodyDef;
 import com.badlogic.gdx.physics.box2d.FixtureDef;
 import com.badlogic.gdx.physics.box2d.PolygonShape;
 import com.badlogic.gdx.utils.Align;
-import com.randomman552.boids.Boids;
+import com.randomman552.boids.Simulation;
 
 public class RectangleObstacle extends Obstacle {
-    public RectangleObstacle() {
-        this(0, 0);
+    public RectangleObstacle(Simulation simulation) {
+        this(simulation, 0, 0);
     }
 
-    public RectangleObstacle(float x, float y) {
-        this(x, y, 1, 1);
+    public RectangleObstacle(Simulation simulation, float x, float y) {
+        this(simulation, x, y, 1, 1);
     }
 
-    public RectangleObstacle(float x, float y, float width, float height) {
-        super();
+    public RectangleObstacle(Simulation simulation, float x, float y, float width, float height) {
+        super(simulation);
         setSize(width, height);
         setOrigin(Align.center);
         body = createBody(width, height);
@@ -27,7 +27,7 @@ public class RectangleObstacle extends Obstacle {
     private Body createBody(float width, float height) {
         BodyDef bodyDef = new BodyDef();
         bodyDef.type = BodyDef.BodyType.KinematicBody;
-        Body body = Boids.getInstance().world.createBody(bodyDef);
+        Body body = simulation.world.createBody(bodyDef);
 
         FixtureDef fixtureDef = new FixtureDef();
         PolygonShape polygonShape = new PolygonShape();
@@ -0,0 +1,148 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.utils.FloatArray;
+import com.randomman552.boids.Simulation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+
+/**
+ * Adds the obstacles described by a scene file to a simulation.
+ * A scene file has one item per line, made of a keyword followed by numbers (in world coordinates), for example:
+ * <pre>
+ * # Comments start with #
+ * world 80 45
+ * circle x y radius
+ * rectangle x y width height [angle]
+ * polygon x1 y1 x2 y2 x3 y3 ...
+ * chain x1 y1 x2 y2 ...
+ * loop x1 y1 x2 y2 x3 y3 ...
+ * </pre>
+ * The optional world line sets the size of the simulation's world and must come before any obstacle.
+ * Polygons are convex with at most {@link PolygonObstacle#MAX_VERTICES} vertices, chains are open lines of segments
+ * and loops are closed ones.
+ * The file is read one token at a time, so only the item being read is held in memory.
+ */
+public class SceneLoader {
+    private final Simulation simulation;
+    private final String source;
+    private final StreamTokenizer tokenizer;
+    private final FloatArray numbers = new FloatArray();
+    private int obstacleCount;
+
+    private SceneLoader(Simulation simulation, Reader reader, String source) {
+        this.simulation = simulation;
+        this.source = source;
+        tokenizer = new StreamTokenizer(reader);
+        // Numbers are read as words and parsed by Float, which also accepts exponents
+        tokenizer.resetSyntax();
+        tokenizer.wordChars('!', 255);
+        tokenizer.whitespaceChars(0, ' ');
+        tokenizer.commentChar('#');
+        tokenizer.eolIsSignificant(true);
+    }
+
+    /**
+     * Add the obstacles of a scene file to the simulation.
+     * @return The number of obstacles added.
+     * @throws IOException If the file can not be read or is not a valid scene.
+     */
+    public static int load(Simulation simulation, File file) throws IOException {
+        Reader reader = new BufferedReader(new FileReader(file));
+        try {
+            return load(simulation, reader, file.toString());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Add the obstacles of a scene read from the given reader to the simulation, the reader is not closed.
+     * @param source Name of the scene, used in error messages.
+     * @see #load(Simulation, File)
+     */
+    public static int load(Simulation simulation, Reader reader, String source) throws IOException {
+        SceneLoader loader = new SceneLoader(simulation, reader, source);
+        loader.read();
+        return loader.obstacleCount;
+    }
+
+    private void read() throws IOException {
+        while (tokenizer.nextToken() != StreamTokenizer.TT_EOF) {
+            if (tokenizer.ttype == StreamTokenizer.TT_EOL) continue;
+            String keyword = tokenizer.sval;
+            int line = tokenizer.lineno();
+            readNumbers();
+            try {
+                addItem(keyword);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(source + ":" + line + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Read the numbers following a keyword up to the end of the line.
+     */
+    private void readNumbers() throws IOException {
+        numbers.clear();
+        while (tokenizer.nextToken() != StreamTokenizer.TT_EOL && tokenizer.ttype != StreamTokenizer.TT_EOF) {
+            try {
+                numbers.add(Float.parseFloat(tokenizer.sval));
+            } catch (NumberFormatException e) {
+                throw new IOException(source + ":" + tokenizer.lineno() + ": expected a number, got " + tokenizer.sval);
+            }
+        }
+    }
+
+    private void addItem(String keyword) {
+        float[] n = numbers.items;
+        switch (keyword) {
+            case "world":
+                expectCount(keyword, 2);
+                if (obstacleCount > 0) {
+                    throw new IllegalArgumentException("world must come before any obstacle");
+                }
+                if (n[0] <= 0 || n[1] <= 0) {
+                    throw new IllegalArgumentException("world size must be positive");
+                }
+                simulation.setWorldSize(n[0], n[1]);
+                return;
+            case "circle":
+                expectCount(keyword, 3);
+                add(new CircleObstacle(simulation, n[0], n[1], n[2]));
+                return;
+            case "rectangle":
+                if (numbers.size != 5) expectCount(keyword, 4);
+                if (n[2] <= 0 || n[3] <= 0) {
+                    throw new IllegalArgumentException("rectangle size must be positive");
+                }
+                add(PolygonObstacle.rectangle(simulation, n[0], n[1], n[2], n[3], numbers.size == 5 ? n[4] : 0));
+                return;
+            case "polygon":
+                add(new PolygonObstacle(simulation, n, numbers.size));
+                return;
+            case "chain":
+            case "loop":
+                add(new ChainObstacle(simulation, n, numbers.size, keyword.equals("loop")));
+                return;
+            default:
+                throw new IllegalArgumentException("unknown item " + keyword);
+        }
+    }
+
+    private void expectCount(String keyword, int count) {
+        if (numbers.size != count) {
+            throw new IllegalArgumentException(keyword + " takes " + count + " numbers, got " + numbers.size);
+        }
+    }
+
+    private void add(Obstacle obstacle) {
+        simulation.addObstacle(obstacle);
+        obstacleCount++;
+    }
+}
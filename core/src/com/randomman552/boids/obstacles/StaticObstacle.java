@@ -0,0 +1,78 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.Shape;
+import com.badlogic.gdx.utils.Array;
+import com.randomman552.boids.Simulation;
+
+/**
+ * Obstacle with fixed geometry given in world coordinates, held by a fixture on the simulation's shared static body
+ * (see {@link Simulation#getStaticBody()}), so the Box2D world gains a fixture rather than a body per obstacle.
+ * Static obstacles never move, so the simulation keeps them out of its actor tree (they would do nothing when acting)
+ * and they are drawn together from their geometry by {@link #drawShape(ShapeRenderer)} rather than with a texture.
+ * Scenes can hold thousands of them without adding to the cost of a tick.
+ */
+public abstract class StaticObstacle extends Obstacle {
+    private final Array<Fixture> fixtures = new Array<>(1);
+
+    public StaticObstacle(Simulation simulation) {
+        super(simulation);
+    }
+
+    /**
+     * Add this obstacle's fixture to the shared static body, the shape is disposed afterwards.
+     */
+    protected void createFixture(Shape shape) {
+        body = simulation.getStaticBody();
+        FixtureDef fixtureDef = new FixtureDef();
+        fixtureDef.shape = shape;
+        fixtures.add(body.createFixture(fixtureDef));
+        shape.dispose();
+    }
+
+    /**
+     * The fixture of this obstacle, the shared body also holds those of every other static obstacle.
+     */
+    @Override
+    public Array<Fixture> getFixtures() {
+        return fixtures;
+    }
+
+    @Override
+    public void act(float delta) {
+        // Nothing moves, so there is nothing to sync
+    }
+
+    @Override
+    public void draw(Batch batch, float parentAlpha) {
+        // Drawn by drawShape instead
+    }
+
+    /**
+     * Destroy this obstacle's fixture, leaving the shared body to the other static obstacles.
+     */
+    @Override
+    public void dispose() {
+        for (Fixture fixture : fixtures) {
+            body.destroyFixture(fixture);
+        }
+        fixtures.clear();
+    }
+
+    /**
+     * Copy the given vertices, as x, y pairs in a flat array.
+     * @throws IllegalArgumentException If there are fewer than the given number of vertices.
+     */
+    static float[] copyVertices(float[] vertices, int length, int minVertices) {
+        if (length % 2 != 0 || length / 2 < minVertices) {
+            throw new IllegalArgumentException("At least " + minVertices + " vertices (x, y pairs) are needed, got "
+                    + length + " coordinates");
+        }
+        float[] copy = new float[length];
+        System.arraycopy(vertices, 0, copy, 0, length);
+        return copy;
+    }
+}
@@ -0,0 +1,43 @@
+package com.randomman552.boids.replay;
+
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.scenes.scene2d.Actor;
+import com.badlogic.gdx.utils.Align;
+import com.randomman552.boids.Boids;
+import com.randomman552.boids.Constants;
+
+/**
+ * A boid drawn during playback of a recording.
+ * It is placed by the {@link TrajectoryPlayer} rather than simulated, so has no physics body.
+ */
+public class ReplayBoid extends Actor {
+    public ReplayBoid() {
+        setSize(Constants.BOID_SIZE.x, Constants.BOID_SIZE.y);
+        setOrigin(Align.center);
+        setColor(Constants.FOREGROUND_COLOR);
+    }
+
+    /**
+     * Place this boid centered at the given point with the given rotation.
+     * @param centerX X coordinate of the center point.
+     * @param centerY Y coordinate of the center point.
+     * @param rotation Rotation in degrees.
+     */
+    public void setTransform(float centerX, float centerY, float rotation) {
+        setPosition(centerX - getOriginX(), centerY - getOriginY());
+        setRotation(rotation);
+    }
+
+    @Override
+    public void draw(Batch batch, float parentAlpha) {
+        batch.setColor(getColor());
+        batch.draw(Boids.getInstance().boidTexture,
+                getX(), getY(),
+                getOriginX(), getOriginY(),
+                getWidth(), getHeight(),
+                getScaleX(), getScaleY(),
+                getRotation()
+        );
+        batch.setColor(1, 1, 1, 1);
+    }
+}
@@ -0,0 +1,190 @@
+package com.randomman552.boids.replay;
+
+import com.randomman552.boids.boid.FlockState;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes flock states into the compact frame payloads of a trajectory recording, and decodes them again.
+ * Every value is quantised to 16 bits: positions over the world bounds, velocities over [-velocityRange,
+ * velocityRange] and headings over a full turn.
+ * Keyframes store the quantised values as they are. Other frames store each value as a zig-zag varint of its
+ * difference from a prediction based on the previous frames, which is nearly always 1 or 2 bytes:
+ * positions are predicted to keep moving by the same amount as last frame, velocities and headings to stay the same.
+ * Differences are taken modulo 2^16, so positions wrapping around the world stay small.
+ * The encoder and decoder keep the same quantised history, so decoding is exact (up to quantisation) and a
+ * sequence of frames must be decoded in the order it was encoded, starting from a keyframe.
+ */
+public class TrajectoryCodec {
+    private static final int VALUES = 5;
+    private static final int MASK = 0xFFFF;
+    private static final float SCALE = MASK;
+
+    private final float width, height, velocityRange;
+
+    /**
+     * Quantised values of the last frame, one array per property.
+     */
+    private int[][] last = new int[VALUES][0];
+    /**
+     * Change of each quantised position over the last frame, used to predict the next one.
+     */
+    private int[] stepX = new int[0], stepY = new int[0];
+    private int lastCount;
+
+    public TrajectoryCodec(float width, float height, float velocityRange) {
+        this.width = width;
+        this.height = height;
+        this.velocityRange = velocityRange;
+    }
+
+    /**
+     * Largest payload a frame of the given number of boids can encode to.
+     */
+    public static int maxPayloadSize(int count) {
+        // A zig-zag encoded 16 bit difference takes at most 3 varint bytes
+        return count * VALUES * 3;
+    }
+
+    /**
+     * Encode a frame, writing its payload into the buffer.
+     * @param state State to encode.
+     * @param keyframe Whether to encode a keyframe, which can be decoded without any previous frames.
+     * @param out Buffer to write the payload to, must have at least {@link #maxPayloadSize(int)} bytes remaining.
+     */
+    public void encode(FlockState state, boolean keyframe, ByteBuffer out) {
+        int count = state.size;
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            int x = quantise(state.posX[i], 0, width);
+            int y = quantise(state.posY[i], 0, height);
+            int vx = quantise(state.velX[i], -velocityRange, velocityRange);
+            int vy = quantise(state.velY[i], -velocityRange, velocityRange);
+            int heading = quantiseAngle(state.heading[i]);
+
+            if (keyframe) {
+                out.putShort((short) x);
+                out.putShort((short) y);
+                out.putShort((short) vx);
+                out.putShort((short) vy);
+                out.putShort((short) heading);
+            } else {
+                putDifference(out, x - predictX(i));
+                putDifference(out, y - predictY(i));
+                putDifference(out, vx - predict(2, i));
+                putDifference(out, vy - predict(3, i));
+                putDifference(out, heading - predict(4, i));
+            }
+            store(i, x, y, vx, vy, heading, keyframe);
+        }
+        lastCount = count;
+    }
+
+    /**
+     * Decode a frame written by {@link #encode(FlockState, boolean, ByteBuffer)}.
+     * @param in Buffer positioned at the start of the payload, left positioned after it.
+     * @param count Number of boids in the frame.
+     * @param keyframe Whether the frame is a keyframe.
+     * @param out State to decode into.
+     */
+    public void decode(ByteBuffer in, int count, boolean keyframe, FlockState out) {
+        ensureCapacity(count);
+        out.ensureCapacity(count);
+        out.size = count;
+        for (int i = 0; i < count; i++) {
+            int x, y, vx, vy, heading;
+            if (keyframe) {
+                x = in.getShort() & MASK;
+                y = in.getShort() & MASK;
+                vx = in.getShort() & MASK;
+                vy = in.getShort() & MASK;
+                heading = in.getShort() & MASK;
+            } else {
+                x = (predictX(i) + getDifference(in)) & MASK;
+                y = (predictY(i) + getDifference(in)) & MASK;
+                vx = (predict(2, i) + getDifference(in)) & MASK;
+                vy = (predict(3, i) + getDifference(in)) & MASK;
+                heading = (predict(4, i) + getDifference(in)) & MASK;
+            }
+            store(i, x, y, vx, vy, heading, keyframe);
+
+            out.posX[i] = x / SCALE * width;
+            out.posY[i] = y / SCALE * height;
+            out.velX[i] = vx / SCALE * 2 * velocityRange - velocityRange;
+            out.velY[i] = vy / SCALE * 2 * velocityRange - velocityRange;
+            out.heading[i] = heading / (MASK + 1f) * 360;
+        }
+        lastCount = count;
+    }
+
+    private void ensureCapacity(int count) {
+        if (stepX.length >= count) return;
+        int capacity = Math.max(count, stepX.length * 3 / 2);
+        for (int v = 0; v < VALUES; v++) {
+            last[v] = grow(last[v], capacity);
+        }
+        stepX = grow(stepX, capacity);
+        stepY = grow(stepY, capacity);
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private void store(int i, int x, int y, int vx, int vy, int heading, boolean keyframe) {
+        boolean known = !keyframe && i < lastCount;
+        stepX[i] = known ? (short) (x - last[0][i]) : 0;
+        stepY[i] = known ? (short) (y - last[1][i]) : 0;
+        last[0][i] = x;
+        last[1][i] = y;
+        last[2][i] = vx;
+        last[3][i] = vy;
+        last[4][i] = heading;
+    }
+
+    private int predictX(int i) {
+        return i < lastCount ? last[0][i] + stepX[i] : 0;
+    }
+
+    private int predictY(int i) {
+        return i < lastCount ? last[1][i] + stepY[i] : 0;
+    }
+
+    private int predict(int value, int i) {
+        return i < lastCount ? last[value][i] : 0;
+    }
+
+    private static int quantise(float value, float min, float max) {
+        int q = Math.round((value - min) / (max - min) * SCALE);
+        return Math.min(Math.max(q, 0), MASK);
+    }
+
+    private static int quantiseAngle(float degrees) {
+        return Math.round(degrees / 360 * (MASK + 1)) & MASK;
+    }
+
+    private static void putDifference(ByteBuffer out, int difference) {
+        // Wrap into [-2^15, 2^15) then zig-zag so small negative numbers are small too
+        int wrapped = (short) difference;
+        int zigZag = (wrapped << 1) ^ (wrapped >> 31);
+        while ((zigZag & ~0x7F) != 0) {
+            out.put((byte) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.put((byte) zigZag);
+    }
+
+    private static int getDifference(ByteBuffer in) {
+        int zigZag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            zigZag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+}
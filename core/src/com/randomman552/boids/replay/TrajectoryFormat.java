@@ -0,0 +1,44 @@
+package com.randomman552.boids.replay;
+
+/**
+ * Layout of trajectory recordings.
+ * A file starts with a header (magic, version, world width and height, velocity range and keyframe interval),
+ * then the path of the scene file the recording was made in (its length in bytes, 0 for the default scene, and the
+ * UTF-8 path, since version 3), followed by one frame per tick. Each frame is a frame header (magic, tick, time
+ * step, boid count, keyframe flag and payload size) followed by its payload, encoded by {@link TrajectoryCodec}.
+ * Every keyframe interval'th frame, starting with the first, is a keyframe.
+ * When a recording is closed the file ends with the index: the offset, frame index and tick of every keyframe (only
+ * the offset before version 4), then the trailer (frame count, keyframe count, largest boid count, offset of the
+ * index and the index magic).
+ * A recording which was not closed has no index and may end in zero padding left over from memory mapping,
+ * which is not a valid frame magic.
+ */
+final class TrajectoryFormat {
+    static final int MAGIC = 0x42545241; // "BTRA"
+    static final int VERSION = 4;
+    /**
+     * Size of the header before the scene path.
+     */
+    static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 4;
+
+    static final int FRAME_MAGIC = 0x46524D45; // "FRME"
+    static final int FRAME_HEADER_SIZE = 4 + 8 + 4 + 4 + 1 + 4;
+    /**
+     * Offset of the payload size within a frame header.
+     */
+    static final int FRAME_PAYLOAD_SIZE_OFFSET = FRAME_HEADER_SIZE - 4;
+
+    static final int INDEX_MAGIC = 0x494E4458; // "INDX"
+    static final int INDEX_ENTRY_SIZE = 8 + 4 + 8;
+    static final int TRAILER_SIZE = 4 + 4 + 4 + 8 + 4;
+
+    private TrajectoryFormat() {
+    }
+
+    /**
+     * Largest size of a frame holding the given number of boids, including its header.
+     */
+    static int maxFrameSize(int count) {
+        return FRAME_HEADER_SIZE + TrajectoryCodec.maxPayloadSize(count);
+    }
+}
@@ -0,0 +1,461 @@
+package com.randomman552.boids.replay;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.randomman552.boids.boid.FlockState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Plays back a trajectory recording made by {@link TrajectoryRecorder}.
+ * Frames are read through a memory mapped window of the file and decoded one after another as playback advances
+ * in real time (looping at the end). The boid actors are placed by interpolating between the two frames either side
+ * of the current time, without running the simulation.
+ * Seeking (to a frame or a tick) finds the nearest keyframe before the target by a binary search of the keyframe
+ * index and decodes on from there, so takes at most one keyframe interval of decoding regardless of the length of
+ * the recording.
+ */
+public class TrajectoryPlayer implements Disposable {
+    private static final long MAP_SIZE = 64L << 20;
+
+    private static class Frame {
+        final FlockState state = new FlockState();
+        long tick;
+        float delta;
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final float worldWidth, worldHeight;
+    private final int keyframeInterval;
+    private final File scene;
+    private final TrajectoryCodec codec;
+    /**
+     * Offset of the first frame, following the header.
+     */
+    private final long firstFrame;
+
+    /**
+     * Offset, frame index and tick of every keyframe, in recording order.
+     */
+    private final LongArray keyframes = new LongArray();
+    private final IntArray keyframeFrames = new IntArray();
+    private final LongArray keyframeTicks = new LongArray();
+    private long lastTick;
+    private int frameCount;
+    private int maxCount;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    /**
+     * Offset of the frame following the last decoded one.
+     */
+    private long readOffset;
+
+    /**
+     * The frame at or before the current time, and the one after it.
+     */
+    private Frame current = new Frame(), next = new Frame();
+    private int frame;
+    private float time;
+
+    public TrajectoryPlayer(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt() != TrajectoryFormat.MAGIC) {
+            throw new IOException("Not a trajectory recording");
+        }
+        int version = header.getInt();
+        if (version < 2 || version > TrajectoryFormat.VERSION) {
+            throw new IOException("Unsupported trajectory version " + version);
+        }
+        worldWidth = header.getFloat();
+        worldHeight = header.getFloat();
+        float velocityRange = header.getFloat();
+        keyframeInterval = header.getInt();
+        codec = new TrajectoryCodec(worldWidth, worldHeight, velocityRange);
+
+        // Version 2 recordings did not store their scene, and start their frames straight after the header
+        long offset = TrajectoryFormat.HEADER_SIZE;
+        File scenePath = null;
+        if (version >= 3) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, offset);
+            ByteBuffer sceneBytes = ByteBuffer.allocate(length.getInt());
+            readFully(sceneBytes, offset + 4);
+            if (sceneBytes.hasRemaining()) {
+                scenePath = new File(new String(sceneBytes.array(), StandardCharsets.UTF_8));
+            }
+            offset += 4 + sceneBytes.limit();
+        }
+        firstFrame = offset;
+        scene = scenePath;
+
+        if (!readIndex(version)) {
+            scanFrames();
+        }
+        if (frameCount == 0) {
+            throw new IOException("Trajectory recording has no frames");
+        }
+        lastTick = findLastTick();
+        seek(0);
+    }
+
+    /**
+     * Read the keyframe index from the end of the file.
+     * Before version 4 the index only held keyframe offsets, keyframes were then always every keyframe interval'th
+     * frame and their ticks are read from their frame headers.
+     * @return False if the recording has no index (it was not closed properly).
+     */
+    private boolean readIndex(int version) throws IOException {
+        long size = channel.size();
+        if (size < firstFrame + TrajectoryFormat.TRAILER_SIZE) return false;
+
+        ByteBuffer trailer = ByteBuffer.allocate(TrajectoryFormat.TRAILER_SIZE);
+        readFully(trailer, size - TrajectoryFormat.TRAILER_SIZE);
+        int frames = trailer.getInt();
+        int keyframeCount = trailer.getInt();
+        int largestCount = trailer.getInt();
+        long indexOffset = trailer.getLong();
+        if (trailer.getInt() != TrajectoryFormat.INDEX_MAGIC) return false;
+
+        boolean full = version >= 4;
+        ByteBuffer index = ByteBuffer.allocate(keyframeCount * (full ? TrajectoryFormat.INDEX_ENTRY_SIZE : 8));
+        readFully(index, indexOffset);
+        for (int i = 0; i < keyframeCount; i++) {
+            long offset = index.getLong();
+            keyframes.add(offset);
+            if (full) {
+                keyframeFrames.add(index.getInt());
+                keyframeTicks.add(index.getLong());
+            } else {
+                keyframeFrames.add(i * keyframeInterval);
+                keyframeTicks.add(readTick(offset));
+            }
+        }
+        frameCount = frames;
+        maxCount = largestCount;
+        return true;
+    }
+
+    /**
+     * Build the keyframe index by walking every frame header.
+     */
+    private void scanFrames() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.FRAME_HEADER_SIZE);
+        long size = channel.size();
+        long offset = firstFrame;
+        while (offset + TrajectoryFormat.FRAME_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, offset);
+            if (header.getInt() != TrajectoryFormat.FRAME_MAGIC) break;
+            long tick = header.getLong();
+            header.getFloat();
+            int count = header.getInt();
+            boolean keyframe = header.get() != 0;
+            int payloadSize = header.getInt();
+            long frameSize = TrajectoryFormat.FRAME_HEADER_SIZE + payloadSize;
+            if (offset + frameSize > size) break;
+
+            if (keyframe) {
+                keyframes.add(offset);
+                keyframeFrames.add(frameCount);
+                keyframeTicks.add(tick);
+            }
+            maxCount = Math.max(maxCount, count);
+            frameCount++;
+            offset += frameSize;
+        }
+        // A recording cut off part way through a keyframe interval loses nothing, but one cut before its first
+        // keyframe has nothing to decode
+        if (keyframes.size == 0) frameCount = 0;
+    }
+
+    /**
+     * Tick of the last frame, found by walking the frame headers after the last keyframe.
+     */
+    private long findLastTick() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.FRAME_HEADER_SIZE);
+        long offset = keyframes.peek();
+        long tick = keyframeTicks.peek();
+        for (int i = keyframeFrames.peek(); i < frameCount; i++) {
+            header.clear();
+            readFully(header, offset);
+            header.getInt();
+            tick = header.getLong();
+            offset += TrajectoryFormat.FRAME_HEADER_SIZE + header.getInt(TrajectoryFormat.FRAME_PAYLOAD_SIZE_OFFSET);
+        }
+        return tick;
+    }
+
+    /**
+     * Tick of the frame starting at the given offset.
+     */
+    private long readTick(long offset) throws IOException {
+        ByteBuffer tick = ByteBuffer.allocate(8);
+        readFully(tick, offset + 4);
+        return tick.getLong();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Trajectory recording ended early");
+            }
+        }
+        buffer.flip();
+    }
+
+    public float getWorldWidth() {
+        return worldWidth;
+    }
+
+    public float getWorldHeight() {
+        return worldHeight;
+    }
+
+    /**
+     * Scene file the recording was made in, or null if it was made in the default scene.
+     */
+    public File getScene() {
+        return scene;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Largest number of boids in any frame.
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Index of the frame at or before the current playback time.
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Simulation tick the current frame was recorded at.
+     */
+    public long getTick() {
+        return current.tick;
+    }
+
+    /**
+     * Simulation tick the first frame was recorded at.
+     */
+    public long getFirstTick() {
+        return keyframeTicks.first();
+    }
+
+    /**
+     * Simulation tick the last frame was recorded at.
+     */
+    public long getLastTick() {
+        return lastTick;
+    }
+
+    /**
+     * State of the flock in the current frame.
+     */
+    public FlockState getState() {
+        return current.state;
+    }
+
+    /**
+     * Jump to the start of the given frame, decoding from the keyframe before it.
+     * @param frame Index of the frame, clamped to the recording.
+     */
+    public void seek(int frame) {
+        frame = Math.min(Math.max(frame, 0), frameCount - 1);
+        int keyframe = lastAtOrBefore(keyframeFrames.items, keyframeFrames.size, frame);
+        readOffset = keyframes.get(keyframe);
+        for (int i = keyframeFrames.get(keyframe); i <= frame; i++) {
+            decodeNext(current);
+        }
+        this.frame = frame;
+        time = 0;
+        decodeFollowing();
+    }
+
+    /**
+     * Jump to the start of the last frame recorded at or before the given tick (or the first frame, if the tick is
+     * before it), decoding from the keyframe before it.
+     * @param tick Simulation tick to seek to.
+     */
+    public void seekTick(long tick) {
+        int keyframe = lastAtOrBefore(keyframeTicks.items, keyframeTicks.size, tick);
+        readOffset = keyframes.get(keyframe);
+        int frame = keyframeFrames.get(keyframe);
+        decodeNext(current);
+        while (frame + 1 < frameCount && peekTick() <= tick) {
+            decodeNext(current);
+            frame++;
+        }
+        this.frame = frame;
+        time = 0;
+        decodeFollowing();
+    }
+
+    /**
+     * Binary search for the last of the sorted values which is at most the given value.
+     * @return Its index, or 0 if every value is larger.
+     */
+    private static int lastAtOrBefore(int[] values, int size, int value) {
+        int low = 0, high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (values[mid] <= value) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    private static int lastAtOrBefore(long[] values, int size, long value) {
+        int low = 0, high = size - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (values[mid] <= value) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Tick of the frame at readOffset, without decoding it.
+     */
+    private long peekTick() {
+        ByteBuffer header = map(readOffset, TrajectoryFormat.FRAME_HEADER_SIZE);
+        return header.getLong(header.position() + 4);
+    }
+
+    /**
+     * Advance playback by the given time, looping back to the first frame after the last.
+     * @param delta Time to advance by (in seconds).
+     */
+    public void advance(float delta) {
+        time += delta;
+        while (time >= current.delta && current.delta > 0) {
+            time -= current.delta;
+            frame = (frame + 1) % frameCount;
+
+            Frame swap = current;
+            current = next;
+            next = swap;
+            decodeFollowing();
+        }
+    }
+
+    /**
+     * Decode the frame after the current one into next.
+     */
+    private void decodeFollowing() {
+        if (frame == frameCount - 1) {
+            // Loop back to the first frame, which is always a keyframe
+            readOffset = keyframes.get(0);
+        }
+        decodeNext(next);
+    }
+
+    /**
+     * Place the given boids at the current playback time.
+     * Boid i is placed using the recorded boid with id i, boids without a recorded counterpart are hidden.
+     * Boids which wrapped around the world between the two frames are drawn at the later position.
+     * @param boids Boids to place, should number at least {@link #getMaxCount()}.
+     */
+    public void apply(Array<ReplayBoid> boids) {
+        float alpha = current.delta > 0 ? time / current.delta : 0;
+        // Going back to the start of the recording is a jump, not something to interpolate
+        if (frame == frameCount - 1) alpha = 0;
+        float maxJumpX = worldWidth / 2, maxJumpY = worldHeight / 2;
+        FlockState from = current.state, to = next.state;
+
+        for (int i = 0; i < boids.size; i++) {
+            ReplayBoid boid = boids.get(i);
+            if (i >= from.size) {
+                boid.setVisible(false);
+                continue;
+            }
+            boid.setVisible(true);
+
+            float x = from.posX[i], y = from.posY[i], heading = from.heading[i];
+            if (i < to.size) {
+                float dx = to.posX[i] - x, dy = to.posY[i] - y;
+                if (Math.abs(dx) > maxJumpX || Math.abs(dy) > maxJumpY) {
+                    x = to.posX[i];
+                    y = to.posY[i];
+                    heading = to.heading[i];
+                } else {
+                    // Turn along the shortest direction
+                    float turn = ((to.heading[i] - heading) % 360 + 540) % 360 - 180;
+                    x += dx * alpha;
+                    y += dy * alpha;
+                    heading += turn * alpha;
+                }
+            }
+            boid.setTransform(x, y, heading);
+        }
+    }
+
+    /**
+     * Decode the frame at readOffset into the given frame and move readOffset on to the frame after it.
+     */
+    private void decodeNext(Frame out) {
+        ByteBuffer buffer = map(readOffset, TrajectoryFormat.FRAME_HEADER_SIZE);
+        buffer.getInt();
+        out.tick = buffer.getLong();
+        out.delta = buffer.getFloat();
+        int count = buffer.getInt();
+        boolean keyframe = buffer.get() != 0;
+        int payloadSize = buffer.getInt();
+
+        buffer = map(readOffset, TrajectoryFormat.FRAME_HEADER_SIZE + payloadSize);
+        buffer.position(buffer.position() + TrajectoryFormat.FRAME_HEADER_SIZE);
+        codec.decode(buffer, count, keyframe, out.state);
+        readOffset += TrajectoryFormat.FRAME_HEADER_SIZE + payloadSize;
+    }
+
+    /**
+     * Make sure the mapped window covers the given range of the file.
+     * @return The window, positioned at the start of the range.
+     */
+    private ByteBuffer map(long offset, int size) {
+        try {
+            if (window == null || offset < windowStart || offset + size > windowStart + window.capacity()) {
+                long length = Math.min(Math.max(MAP_SIZE, size), channel.size() - offset);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                windowStart = offset;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read trajectory", e);
+        }
+        window.position((int) (offset - windowStart));
+        return window;
+    }
+
+    @Override
+    public void dispose() {
+        window = null;
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close trajectory", e);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.randomman552.boids.replay;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.boid.FlockState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Appends the flock state of every tick to a trajectory file (see {@link TrajectoryFormat}).
+ * The simulation thread only copies the state arrays into a pooled frame, the frames are then encoded by a
+ * background thread ({@link TrajectoryCodec}) straight into a memory mapped window of the file which is moved along
+ * as it fills up.
+ * Recording only blocks the simulation when the writer falls more than QUEUE_SIZE frames behind.
+ */
+public class TrajectoryRecorder implements Disposable {
+    private static final int QUEUE_SIZE = 8;
+    private static final long MAP_SIZE = 64L << 20;
+
+    private static class Frame {
+        final FlockState state = new FlockState();
+        long tick;
+        float delta;
+    }
+
+    /**
+     * Queued to tell the writer to stop.
+     */
+    private final Frame end = new Frame();
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<Frame> free = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ArrayBlockingQueue<Frame> full = new ArrayBlockingQueue<>(QUEUE_SIZE + 1);
+    private final Thread writer;
+    private volatile IOException error;
+    private boolean disposed;
+
+    // Only used by the writer thread
+    private final TrajectoryCodec codec;
+    private final int keyframeInterval;
+    private final LongArray keyframes = new LongArray();
+    private final IntArray keyframeFrames = new IntArray();
+    private final LongArray keyframeTicks = new LongArray();
+    private int maxCount;
+    private MappedByteBuffer window;
+    private long position;
+    private volatile int framesWritten;
+
+    /**
+     * Start a recording with a keyframe every second of simulation, replacing the file if it exists.
+     * @param path File to record to.
+     * @param worldWidth Width of the recorded world.
+     * @param worldHeight Height of the recorded world.
+     */
+    public TrajectoryRecorder(File path, float worldWidth, float worldHeight) throws IOException {
+        this(path, worldWidth, worldHeight, null);
+    }
+
+    /**
+     * Start a recording of a world created from a scene file with a keyframe every second of simulation.
+     * @param scene Scene file the world was created from, stored so it can be replayed with the same obstacles,
+     *              or null for the default scene.
+     * @see #TrajectoryRecorder(File, float, float)
+     */
+    public TrajectoryRecorder(File path, float worldWidth, float worldHeight, File scene) throws IOException {
+        this(path, worldWidth, worldHeight, Constants.SIMULATION_RATE, scene);
+    }
+
+    /**
+     * Start a recording, replacing the file if it exists.
+     * @param keyframeInterval Number of frames from one keyframe to the next. Seeking decodes at most this many
+     *                         frames, but keyframes are about twice the size of other frames.
+     * @see #TrajectoryRecorder(File, float, float, File)
+     */
+    public TrajectoryRecorder(File path, float worldWidth, float worldHeight, int keyframeInterval, File scene)
+            throws IOException {
+        this.keyframeInterval = keyframeInterval;
+        // Velocities may briefly exceed the boid speed while turning, leave some headroom
+        float velocityRange = Constants.VELOCITY * 2f;
+        codec = new TrajectoryCodec(worldWidth, worldHeight, velocityRange);
+
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        byte[] scenePath = scene != null ? scene.getPath().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer header = ByteBuffer.allocate(TrajectoryFormat.HEADER_SIZE + 4 + scenePath.length);
+        header.putInt(TrajectoryFormat.MAGIC);
+        header.putInt(TrajectoryFormat.VERSION);
+        header.putFloat(worldWidth);
+        header.putFloat(worldHeight);
+        header.putFloat(velocityRange);
+        header.putInt(keyframeInterval);
+        header.putInt(scenePath.length);
+        header.put(scenePath);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        position = header.limit();
+
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            free.add(new Frame());
+        }
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeFrames();
+            }
+        }, "Trajectory recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue the given flock state to be written as the next frame.
+     * @param tick Tick the state belongs to.
+     * @param delta Time step the state is advanced by (in seconds).
+     * @param state State to record, copied before returning.
+     */
+    public void record(long tick, float delta, FlockState state) {
+        checkError();
+        Frame frame;
+        try {
+            frame = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        int count = state.size;
+        FlockState copy = frame.state;
+        copy.ensureCapacity(count);
+        copy.size = count;
+        System.arraycopy(state.posX, 0, copy.posX, 0, count);
+        System.arraycopy(state.posY, 0, copy.posY, 0, count);
+        System.arraycopy(state.velX, 0, copy.velX, 0, count);
+        System.arraycopy(state.velY, 0, copy.velY, 0, count);
+        System.arraycopy(state.heading, 0, copy.heading, 0, count);
+        frame.tick = tick;
+        frame.delta = delta;
+        full.add(frame);
+    }
+
+    /**
+     * Number of frames written to the file so far.
+     */
+    public int getFramesWritten() {
+        return framesWritten;
+    }
+
+    private void writeFrames() {
+        try {
+            while (true) {
+                Frame frame = full.take();
+                if (frame == end) break;
+                writeFrame(frame);
+                free.add(frame);
+            }
+        } catch (IOException e) {
+            error = e;
+            // Wake the simulation thread if it is waiting for a frame, it will then see the error
+            free.offer(new Frame());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeFrame(Frame frame) throws IOException {
+        FlockState state = frame.state;
+        int count = state.size;
+        ensureWindow(TrajectoryFormat.maxFrameSize(count));
+
+        maxCount = Math.max(maxCount, count);
+        boolean keyframe = framesWritten % keyframeInterval == 0;
+        if (keyframe) {
+            keyframes.add(position);
+            keyframeFrames.add(framesWritten);
+            keyframeTicks.add(frame.tick);
+        }
+        int start = window.position();
+        window.putInt(TrajectoryFormat.FRAME_MAGIC);
+        window.putLong(frame.tick);
+        window.putFloat(frame.delta);
+        window.putInt(count);
+        window.put((byte) (keyframe ? 1 : 0));
+        window.putInt(0);
+        codec.encode(state, keyframe, window);
+        int payloadSize = window.position() - start - TrajectoryFormat.FRAME_HEADER_SIZE;
+        window.putInt(start + TrajectoryFormat.FRAME_PAYLOAD_SIZE_OFFSET, payloadSize);
+
+        position += window.position() - start;
+        framesWritten++;
+    }
+
+    /**
+     * Make sure the mapped window has room for the given number of bytes, moving it to the current position if not.
+     */
+    private void ensureWindow(int size) throws IOException {
+        if (window == null || window.remaining() < size) {
+            window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(MAP_SIZE, size));
+        }
+    }
+
+    /**
+     * Write the keyframe index and trailer after the last frame.
+     */
+    private void writeIndex() throws IOException {
+        long indexOffset = position;
+        int indexSize = keyframes.size * TrajectoryFormat.INDEX_ENTRY_SIZE;
+        ensureWindow(indexSize + TrajectoryFormat.TRAILER_SIZE);
+        for (int i = 0; i < keyframes.size; i++) {
+            window.putLong(keyframes.get(i));
+            window.putInt(keyframeFrames.get(i));
+            window.putLong(keyframeTicks.get(i));
+        }
+        window.putInt(framesWritten);
+        window.putInt(keyframes.size);
+        window.putInt(maxCount);
+        window.putLong(indexOffset);
+        window.putInt(TrajectoryFormat.INDEX_MAGIC);
+        position += indexSize + TrajectoryFormat.TRAILER_SIZE;
+    }
+
+    private void checkError() {
+        if (error != null) {
+            throw new RuntimeException("Failed to write trajectory", error);
+        }
+    }
+
+    /**
+     * Write any queued frames and close the file.
+     */
+    @Override
+    public void dispose() {
+        if (disposed) return;
+        disposed = true;
+        try {
+            // There is always room, at most QUEUE_SIZE frames are ever queued
+            full.offer(end);
+            writer.join();
+            if (error == null) {
+                writeIndex();
+            }
+            if (window != null) {
+                window.force();
+                window = null;
+            }
+            try {
+                // Cut off the unused end of the last mapped window, some platforms refuse while it is still mapped
+                channel.truncate(position);
+            } catch (IOException ignored) {
+                // Readers then do not find the index at the end, and fall back to scanning the frames
+            }
+            file.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close trajectory", e);
+        }
+        checkError();
+    }
+}
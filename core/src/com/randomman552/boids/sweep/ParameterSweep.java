@@ -0,0 +1,255 @@
+package com.randomman552.boids.sweep;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.randomman552.boids.Simulation;
+import com.randomman552.boids.SimulationConfig;
+import com.randomman552.boids.boid.FlockAnalytics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a grid of simulations, one for every combination of the swept parameter values, across a pool of threads.
+ * Every run is its own {@link Simulation} (with its own Box2D world) steering with its own {@link SimulationConfig},
+ * so runs share nothing but the read-only settings in Constants, which must not be changed during a sweep.
+ * Each run steers on its own thread, whatever PARALLEL_STEERING is set to.
+ * The summary of every run is written as one line of a single CSV file, in the order of the grid.
+ * <p>
+ * The grid is read from a text file with one parameter per line, given as NAME=value,value,...
+ * where NAME is one of SENSE_RADIUS, TURN_RATE, SEPARATION_FORCE_SCALAR, VELOCITY_MATCH_FORCE_SCALAR,
+ * FLOCK_CENTER_FORCE_SCALAR or SEED. Parameters not listed keep their value in Constants, lines starting with #
+ * are ignored.
+ */
+public class ParameterSweep {
+    private static final String[] PARAMETERS = {
+            "SENSE_RADIUS", "TURN_RATE", "SEPARATION_FORCE_SCALAR", "VELOCITY_MATCH_FORCE_SCALAR",
+            "FLOCK_CENTER_FORCE_SCALAR"
+    };
+
+    /**
+     * Values of each parameter in PARAMETERS order.
+     */
+    private final FloatArray[] values = new FloatArray[PARAMETERS.length];
+    private final LongArray seeds = new LongArray();
+    private final Array<SimulationConfig> configs = new Array<>();
+    private final LongArray runSeeds = new LongArray();
+
+    /**
+     * Create a sweep holding only the current values in Constants and a seed of 0.
+     */
+    public ParameterSweep() {
+        SimulationConfig base = SimulationConfig.fromConstants();
+        float[] defaults = {
+                base.senseRadius, base.turnRate, base.separationForceScalar, base.velocityMatchForceScalar,
+                base.flockCenterForceScalar
+        };
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new FloatArray();
+            values[i].add(defaults[i]);
+        }
+        seeds.add(0);
+        updateRuns();
+    }
+
+    /**
+     * Read a sweep from a grid file.
+     * @throws IllegalArgumentException If a line names an unknown parameter or holds no values.
+     */
+    public static ParameterSweep load(File file) throws IOException {
+        ParameterSweep sweep = new ParameterSweep();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                int equals = line.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": expected NAME=value,..., got " + line);
+                }
+                String name = line.substring(0, equals).trim();
+                String[] parts = line.substring(equals + 1).split(",");
+                if (name.equals("SEED")) {
+                    sweep.seeds.clear();
+                    for (String part : parts) {
+                        sweep.seeds.add(Long.parseLong(part.trim()));
+                    }
+                } else {
+                    FloatArray parameter = sweep.values[indexOf(name, file, lineNumber)];
+                    parameter.clear();
+                    for (String part : parts) {
+                        parameter.add(Float.parseFloat(part.trim()));
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        sweep.updateRuns();
+        return sweep;
+    }
+
+    private static int indexOf(String name, File file, int lineNumber) {
+        for (int i = 0; i < PARAMETERS.length; i++) {
+            if (PARAMETERS[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException(file + ":" + lineNumber + ": unknown parameter " + name);
+    }
+
+    /**
+     * Expand the parameter values into the cartesian product of runs, the last parameter varying fastest.
+     */
+    private void updateRuns() {
+        configs.clear();
+        runSeeds.clear();
+        int[] index = new int[values.length];
+        while (true) {
+            for (int s = 0; s < seeds.size; s++) {
+                SimulationConfig.Builder builder = new SimulationConfig.Builder();
+                builder.senseRadius = values[0].get(index[0]);
+                builder.turnRate = values[1].get(index[1]);
+                builder.separationForceScalar = values[2].get(index[2]);
+                builder.velocityMatchForceScalar = values[3].get(index[3]);
+                builder.flockCenterForceScalar = values[4].get(index[4]);
+                // Runs are already spread across the sweep's threads, steering each in parallel too would only
+                // add contention
+                builder.parallelSteering = false;
+                configs.add(builder.build());
+                runSeeds.add(seeds.get(s));
+            }
+
+            // Advance like an odometer
+            int p = values.length - 1;
+            while (p >= 0 && ++index[p] == values[p].size) {
+                index[p--] = 0;
+            }
+            if (p < 0) return;
+        }
+    }
+
+    /**
+     * Number of simulations in the sweep.
+     */
+    public int size() {
+        return configs.size;
+    }
+
+    public SimulationConfig getConfig(int run) {
+        return configs.get(run);
+    }
+
+    public long getSeed(int run) {
+        return runSeeds.get(run);
+    }
+
+    /**
+     * Run every simulation in the sweep and write their summaries to a CSV file, replacing it if it exists.
+     * Each run populates the default scene, is stepped for warmUpTicks unmeasured and then for ticks measured ticks.
+     * @param boidCount Number of boids in each simulation.
+     * @param threads Number of simulations run at once.
+     * @param out File to write the results to.
+     */
+    public void run(final int boidCount, final int warmUpTicks, final int ticks, final float timestep,
+                    int threads, File out) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < size(); i++) {
+                final int run = i;
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return runOne(run, boidCount, warmUpTicks, ticks, timestep);
+                    }
+                }));
+            }
+
+            Writer csv = new BufferedWriter(new FileWriter(out));
+            try {
+                csv.write("run,seed,sense_radius,turn_rate,separation_force_scalar,velocity_match_force_scalar,"
+                        + "flock_center_force_scalar,boids,ticks,polarisation,clusters,largest_cluster,mean_nearest_distance,"
+                        + "neighbours_per_boid,contacts_per_tick,ms_per_tick\n");
+                // Lines are written in grid order as the runs complete
+                for (Future<String> result : results) {
+                    csv.write(result.get());
+                    csv.write('\n');
+                    csv.flush();
+                }
+            } finally {
+                csv.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the sweep", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Sweep run failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run one simulation of the sweep.
+     * @return The CSV line summarising the run.
+     */
+    private String runOne(int run, int boidCount, int warmUpTicks, int ticks, float timestep) {
+        SimulationConfig config = configs.get(run);
+        long seed = runSeeds.get(run);
+        Simulation simulation = new Simulation(seed);
+        try {
+            // Set before populating, the boids' sensor fixtures take the sense radius when created
+            simulation.setConfig(config);
+            simulation.populate(boidCount);
+            for (int i = 0; i < warmUpTicks; i++) {
+                simulation.step(timestep);
+            }
+
+            simulation.counters.reset();
+            FlockAnalytics analytics = simulation.analytics;
+            double polarisation = 0, clusters = 0, largest = 0, nearest = 0;
+            long analyticsTime = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ticks; i++) {
+                simulation.step(timestep);
+                // Measured from the neighbours gathered during the step, the time taken is not counted
+                long analyticsStart = System.nanoTime();
+                analytics.update(simulation.getTick() - 1, simulation.flock);
+                analyticsTime += System.nanoTime() - analyticsStart;
+                polarisation += analytics.getPolarisation();
+                clusters += analytics.getClusterCount();
+                largest += analytics.getLargestCluster();
+                nearest += analytics.getMeanNearestDistance();
+            }
+            double millis = (System.nanoTime() - start - analyticsTime) / 1e6;
+
+            int measured = Math.max(ticks, 1);
+            return String.format(Locale.ROOT, "%d,%d,%s,%s,%s,%s,%s,%d,%d,%.4f,%.2f,%.2f,%.4f,%.3f,%.1f,%.3f",
+                    run, seed, config.senseRadius, config.turnRate, config.separationForceScalar,
+                    config.velocityMatchForceScalar, config.flockCenterForceScalar, boidCount, ticks,
+                    polarisation / measured, clusters / measured, largest / measured, nearest / measured,
+                    boidCount > 0 ? (double) simulation.counters.neighboursExamined / measured / boidCount : 0,
+                    (double) simulation.counters.contactsProcessed / measured,
+                    millis / measured);
+        } finally {
+            simulation.dispose();
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.randomman552.boids.ui;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
-import com.badlogic.gdx.physics.box2d.Box2DDebugRenderer;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.InputEvent;
 import com.badlogic.gdx.scenes.scene2d.InputListener;
@@ -14,6 +13,12 @@ import com.badlogic.gdx.utils.viewport.ScreenViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 import com.randomman552.boids.Boids;
 import com.randomman552.boids.Constants;
+import com.randomman552.boids.boid.FlockAnalytics;
+import com.randomman552.boids.util.FrameGovernor;
+import com.randomman552.boids.util.FrameProfiler;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Class defining all on screen ui elements for controlling boids.
@@ -55,8 +60,47 @@ public class UIStage extends Stage {
         }
     }
 
+    /**
+     * File frame timings are written to when enabled from the options, relative to the working directory.
+     */
+    private static final String FRAME_TIMINGS_FILE = "frame-timings.csv";
+    /**
+     * File flock analytics are written to when enabled from the options, relative to the working directory.
+     */
+    private static final String FLOCK_ANALYTICS_FILE = "flock-analytics.csv";
+    /**
+     * Seconds between updates of the frame timings overlay, so it can be read and does not allocate every frame.
+     */
+    private static final float TIMINGS_UPDATE_INTERVAL = 0.25f;
+
     protected final TextButton openButton;
     protected final Table table;
+    protected final Label timingsLabel;
+    protected final Label analyticsLabel;
+    protected final Label governorLabel;
+    // Options the frame governor may change
+    private final CheckBox topologicalNeighboursCheckbox;
+    private final Slider neighbourCountSlider;
+    private final Slider steeringFractionSlider;
+    private final CheckBox drawPhysicsDebugCheckbox;
+    private final CheckBox drawObstacleAvoidanceCheckbox;
+    private final CheckBox drawSeparationForceCheckbox;
+    private final CheckBox drawVelMatchForceCheckbox;
+    private final CheckBox drawCenteringForceCheckbox;
+    private int governorChanges;
+    /**
+     * Added after the listener setting the option, so the frame governor keeps the user's choice.
+     */
+    private final ChangeListener governedOptionListener = new ChangeListener() {
+        @Override
+        public void changed(ChangeEvent event, Actor actor) {
+            Boids.getInstance().governor.settingsChanged();
+        }
+    };
+    private final StringBuilder timingsText = new StringBuilder();
+    private float timingsAge = TIMINGS_UPDATE_INTERVAL;
+    private final StringBuilder analyticsText = new StringBuilder();
+    private float analyticsAge = TIMINGS_UPDATE_INTERVAL;
 
     public UIStage() {
         super();
@@ -81,6 +125,18 @@ public class UIStage extends Stage {
         });
         addActor(openButton);
 
+        timingsLabel = new Label("", skin);
+        timingsLabel.setSize(420, 220);
+        timingsLabel.setAlignment(Align.topLeft);
+        timingsLabel.setVisible(Constants.SHOW_FRAME_TIMINGS);
+        addActor(timingsLabel);
+
+        analyticsLabel = new Label("", skin);
+        analyticsLabel.setSize(420, 100);
+        analyticsLabel.setAlignment(Align.topLeft);
+        analyticsLabel.setVisible(Constants.SHOW_FLOCK_ANALYTICS);
+        addActor(analyticsLabel);
+
         // region Create table layout
         table = new Table();
         float tableHeight = 0;
@@ -140,22 +196,180 @@ public class UIStage extends Stage {
         table.add(flockCenterForceSliderLabel, flockCenterForceSlider);
         // endregion
 
+        // region Performance options
+        Label performanceHeaderLabel = new Label("Performance options:", skin);
+        CheckBox useSpatialGridCheckbox = new CheckBox("Use spatial grid", skin);
+        CheckBox parallelSteeringCheckbox = new CheckBox("Parallel steering", skin);
+        CheckBox fixedTimestepCheckbox = new CheckBox("Fixed timestep", skin);
+        CheckBox obstacleFieldCheckbox = new CheckBox("Use obstacle distance field", skin);
+        CheckBox obstacleBVHCheckbox = new CheckBox("Use obstacle BVH for rays", skin);
+        CheckBox periodicBoundaryCheckbox = new CheckBox("Periodic world wrap", skin);
+        CheckBox barnesHutCheckbox = new CheckBox("Approximate distant boids (quadtree)", skin);
+        CheckBox frameGovernorCheckbox = new CheckBox("Frame rate governor", skin);
+        governorLabel = new Label("", skin);
+        topologicalNeighboursCheckbox = new CheckBox("Only nearest neighbours", skin);
+        Label neighbourCountSliderLabel = new Label("Nearest neighbours:", skin);
+        neighbourCountSlider = new Slider(1, 20, 1,false, skin);
+        Label steeringFractionSliderLabel = new Label("Steering per tick:", skin);
+        steeringFractionSlider = new Slider(0.05f, 1, 0.05f,false, skin);
+
+        useSpatialGridCheckbox.setChecked(Constants.USE_SPATIAL_GRID);
+        parallelSteeringCheckbox.setChecked(Constants.PARALLEL_STEERING);
+        fixedTimestepCheckbox.setChecked(Constants.USE_FIXED_TIMESTEP);
+        obstacleFieldCheckbox.setChecked(Constants.USE_OBSTACLE_FIELD);
+        obstacleBVHCheckbox.setChecked(Constants.USE_OBSTACLE_BVH);
+        periodicBoundaryCheckbox.setChecked(Constants.PERIODIC_BOUNDARY);
+        barnesHutCheckbox.setChecked(Constants.BARNES_HUT_CENTERING);
+        frameGovernorCheckbox.setChecked(Constants.FRAME_GOVERNOR);
+        setGovernorText(0);
+        topologicalNeighboursCheckbox.setChecked(Constants.TOPOLOGICAL_NEIGHBOURS);
+        neighbourCountSlider.setValue(Constants.TOPOLOGICAL_NEIGHBOUR_COUNT);
+        steeringFractionSlider.setValue(Constants.STEERING_UPDATE_FRACTION);
+
+        tableHeight += performanceHeaderLabel.getHeight() + useSpatialGridCheckbox.getHeight() * 9;
+        tableHeight += governorLabel.getPrefHeight();
+        tableHeight += Math.max(neighbourCountSlider.getHeight(), neighbourCountSliderLabel.getHeight()) * 2;
+
+        // region Add input listeners
+        useSpatialGridCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.USE_SPATIAL_GRID = checkBox.isChecked();
+            }
+        });
+        parallelSteeringCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.PARALLEL_STEERING = checkBox.isChecked();
+            }
+        });
+        fixedTimestepCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.USE_FIXED_TIMESTEP = checkBox.isChecked();
+            }
+        });
+        obstacleFieldCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.USE_OBSTACLE_FIELD = checkBox.isChecked();
+            }
+        });
+        obstacleBVHCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.USE_OBSTACLE_BVH = checkBox.isChecked();
+            }
+        });
+        periodicBoundaryCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.PERIODIC_BOUNDARY = checkBox.isChecked();
+            }
+        });
+        barnesHutCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.BARNES_HUT_CENTERING = checkBox.isChecked();
+            }
+        });
+        frameGovernorCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.FRAME_GOVERNOR = checkBox.isChecked();
+            }
+        });
+        topologicalNeighboursCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.TOPOLOGICAL_NEIGHBOURS = checkBox.isChecked();
+            }
+        });
+        neighbourCountSlider.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                if (actor instanceof Slider) {
+                    Slider slider = ((Slider) actor);
+                    Constants.TOPOLOGICAL_NEIGHBOUR_COUNT = (int) slider.getValue();
+                }
+            }
+        });
+        steeringFractionSlider.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                if (actor instanceof Slider) {
+                    Slider slider = ((Slider) actor);
+                    Constants.STEERING_UPDATE_FRACTION = slider.getValue();
+                }
+            }
+        });
+        topologicalNeighboursCheckbox.addListener(governedOptionListener);
+        neighbourCountSlider.addListener(governedOptionListener);
+        steeringFractionSlider.addListener(governedOptionListener);
+        // endregion
+
+        table.row();
+        table.add(performanceHeaderLabel).colspan(2);
+        table.row();
+        table.add(useSpatialGridCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(parallelSteeringCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(fixedTimestepCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(obstacleFieldCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(obstacleBVHCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(periodicBoundaryCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(topologicalNeighboursCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(neighbourCountSliderLabel, neighbourCountSlider);
+        table.row();
+        table.add(steeringFractionSliderLabel, steeringFractionSlider);
+        table.row();
+        table.add(barnesHutCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(frameGovernorCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(governorLabel).colspan(2).align(Align.left);
+        // endregion
+
         // region Debug draw options
         Label debugHeaderLabel = new Label("Debug draw options:", skin);
-        CheckBox drawPhysicsDebugCheckbox = new CheckBox("Draw physics", skin);
+        drawPhysicsDebugCheckbox = new CheckBox("Draw physics", skin);
         // Avoidance drawing checkbox
-        CheckBox drawObstacleAvoidanceCheckbox = new CheckBox("Draw avoidance", skin);
+        drawObstacleAvoidanceCheckbox = new CheckBox("Draw avoidance", skin);
         // Force drawing checkboxes
-        CheckBox drawSeparationForceCheckbox = new CheckBox("Draw separation force", skin);
-        CheckBox drawVelMatchForceCheckbox = new CheckBox("Draw velocity match force", skin);
-        CheckBox drawCenteringForceCheckbox = new CheckBox("Draw flock centering force", skin);
-
+        drawSeparationForceCheckbox = new CheckBox("Draw separation force", skin);
+        drawVelMatchForceCheckbox = new CheckBox("Draw velocity match force", skin);
+        drawCenteringForceCheckbox = new CheckBox("Draw flock centering force", skin);
+        // Frame timing checkboxes
+        CheckBox showFrameTimingsCheckbox = new CheckBox("Show frame timings", skin);
+        CheckBox writeFrameTimingsCheckbox = new CheckBox("Write frame timings to CSV", skin);
+        // Flock analytics checkboxes
+        CheckBox showFlockAnalyticsCheckbox = new CheckBox("Show flock analytics", skin);
+        CheckBox writeFlockAnalyticsCheckbox = new CheckBox("Write flock analytics to CSV", skin);
+
+        showFrameTimingsCheckbox.setChecked(Constants.SHOW_FRAME_TIMINGS);
+        writeFrameTimingsCheckbox.setChecked(Boids.getInstance().profiler.isWritingCsv());
+        showFlockAnalyticsCheckbox.setChecked(Constants.SHOW_FLOCK_ANALYTICS);
         drawObstacleAvoidanceCheckbox.setChecked(Constants.DRAW_OBSTACLE_AVOIDANCE);
         drawSeparationForceCheckbox.setChecked(Constants.DRAW_SEPARATION_FORCE);
         drawVelMatchForceCheckbox.setChecked(Constants.DRAW_VELOCITY_MATCH_FORCE);
         drawCenteringForceCheckbox.setChecked(Constants.DRAW_FLOCK_CENTERING_FORCE);
 
-        tableHeight += debugHeaderLabel.getHeight() + drawPhysicsDebugCheckbox.getHeight() * 5;
+        tableHeight += debugHeaderLabel.getHeight() + drawPhysicsDebugCheckbox.getHeight() * 9;
 
         // region Add input listeners
         drawObstacleAvoidanceCheckbox.addListener(new ChangeListener() {
@@ -169,9 +383,7 @@ public class UIStage extends Stage {
             @Override
             public void changed(ChangeEvent event, Actor actor) {
                 CheckBox checkBox = ((CheckBox) actor);
-                Box2DDebugRenderer debugRenderer = Boids.getInstance().box2DDebugRenderer;
-                debugRenderer.setDrawVelocities(checkBox.isChecked());
-                debugRenderer.setDrawBodies(checkBox.isChecked());
+                Constants.DRAW_PHYSICS_DEBUG = checkBox.isChecked();
             }
         });
         drawSeparationForceCheckbox.addListener(new ChangeListener() {
@@ -195,6 +407,61 @@ public class UIStage extends Stage {
                 Constants.DRAW_FLOCK_CENTERING_FORCE = checkBox.isChecked();
             }
         });
+        drawObstacleAvoidanceCheckbox.addListener(governedOptionListener);
+        drawPhysicsDebugCheckbox.addListener(governedOptionListener);
+        drawSeparationForceCheckbox.addListener(governedOptionListener);
+        drawVelMatchForceCheckbox.addListener(governedOptionListener);
+        drawCenteringForceCheckbox.addListener(governedOptionListener);
+        showFrameTimingsCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.SHOW_FRAME_TIMINGS = checkBox.isChecked();
+                timingsLabel.setVisible(checkBox.isChecked());
+            }
+        });
+        writeFrameTimingsCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                FrameProfiler profiler = Boids.getInstance().profiler;
+                try {
+                    if (checkBox.isChecked()) {
+                        profiler.startCsv(new File(FRAME_TIMINGS_FILE));
+                    } else {
+                        profiler.stopCsv();
+                    }
+                } catch (IOException e) {
+                    Gdx.app.error("UIStage", "Failed to write frame timings", e);
+                    checkBox.setChecked(profiler.isWritingCsv());
+                }
+            }
+        });
+        showFlockAnalyticsCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                Constants.SHOW_FLOCK_ANALYTICS = checkBox.isChecked();
+                analyticsLabel.setVisible(checkBox.isChecked());
+            }
+        });
+        writeFlockAnalyticsCheckbox.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                CheckBox checkBox = ((CheckBox) actor);
+                FlockAnalytics analytics = Boids.getInstance().simulation.analytics;
+                try {
+                    if (checkBox.isChecked()) {
+                        analytics.startCsv(new File(FLOCK_ANALYTICS_FILE));
+                    } else {
+                        analytics.stopCsv();
+                    }
+                } catch (IOException e) {
+                    Gdx.app.error("UIStage", "Failed to write flock analytics", e);
+                    checkBox.setChecked(analytics.isWritingCsv());
+                }
+            }
+        });
         // endregion
 
         table.row();
@@ -210,6 +477,14 @@ public class UIStage extends Stage {
         table.add(drawVelMatchForceCheckbox).colspan(2).align(Align.left);
         table.row();
         table.add(drawCenteringForceCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(showFrameTimingsCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(writeFrameTimingsCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(showFlockAnalyticsCheckbox).colspan(2).align(Align.left);
+        table.row();
+        table.add(writeFlockAnalyticsCheckbox).colspan(2).align(Align.left);
         // endregion
 
         // region Foreground color options
@@ -298,5 +573,87 @@ public class UIStage extends Stage {
 
         openButton.setPosition(-Gdx.graphics.getWidth()/2f, Gdx.graphics.getHeight()/2f - openButton.getHeight());
         table.setPosition(-Gdx.graphics.getWidth()/2f, Gdx.graphics.getHeight()/2f - openButton.getHeight() - table.getHeight());
+        timingsLabel.setPosition(Gdx.graphics.getWidth()/2f - timingsLabel.getWidth(), Gdx.graphics.getHeight()/2f - timingsLabel.getHeight());
+        analyticsLabel.setPosition(timingsLabel.getX(), timingsLabel.getY() - analyticsLabel.getHeight());
+    }
+
+    /**
+     * Refresh the frame timings overlay, if it is shown and due an update.
+     * @param profiler Profiler to show the timings of.
+     */
+    public void updateTimings(FrameProfiler profiler) {
+        if (!timingsLabel.isVisible()) return;
+        timingsAge += Gdx.graphics.getDeltaTime();
+        if (timingsAge < TIMINGS_UPDATE_INTERVAL) return;
+        timingsAge = 0;
+
+        timingsText.setLength(0);
+        timingsText.append("Phase (ms): p50 / p99 / max\n");
+        for (FrameProfiler.Phase phase : FrameProfiler.Phase.values()) {
+            timingsText.append(phase.label).append(": ");
+            appendMillis(profiler.percentile(phase, 0.5f)).append(" / ");
+            appendMillis(profiler.percentile(phase, 0.99f)).append(" / ");
+            appendMillis(profiler.percentile(phase, 1)).append('\n');
+        }
+        timingsText.append("Neighbours examined: ").append(profiler.getNeighboursExamined()).append('\n');
+        timingsText.append("Rays cast: ").append(profiler.getRaysCast()).append('\n');
+        timingsText.append("Contacts: ").append(profiler.getContactsProcessed());
+        timingsLabel.setText(timingsText);
+    }
+
+    /**
+     * Refresh the flock analytics overlay, if it is shown and due an update.
+     * @param analytics Analytics to show.
+     */
+    public void updateAnalytics(FlockAnalytics analytics) {
+        if (!analyticsLabel.isVisible()) return;
+        analyticsAge += Gdx.graphics.getDeltaTime();
+        if (analyticsAge < TIMINGS_UPDATE_INTERVAL) return;
+        analyticsAge = 0;
+
+        analyticsText.setLength(0);
+        analyticsText.append("Polarisation: ").append(Math.round(analytics.getPolarisation() * 100) / 100f).append('\n');
+        analyticsText.append("Flocks: ").append(analytics.getClusterCount()).append('\n');
+        analyticsText.append("Largest flock: ").append(analytics.getLargestCluster())
+                .append(" / ").append(analytics.getBoidCount()).append('\n');
+        analyticsText.append("Mean nearest neighbour: ")
+                .append(Math.round(analytics.getMeanNearestDistance() * 100) / 100f);
+        analyticsLabel.setText(analyticsText);
+    }
+
+    /**
+     * Show the governor's quality level, and refresh the options it changed since the last call.
+     * @param governor Governor to show.
+     */
+    public void updateGovernor(FrameGovernor governor) {
+        if (governor.getChanges() == governorChanges) return;
+        governorChanges = governor.getChanges();
+        setGovernorText(governor.getLevel());
+
+        topologicalNeighboursCheckbox.setChecked(Constants.TOPOLOGICAL_NEIGHBOURS);
+        neighbourCountSlider.setValue(Constants.TOPOLOGICAL_NEIGHBOUR_COUNT);
+        steeringFractionSlider.setValue(Constants.STEERING_UPDATE_FRACTION);
+        drawPhysicsDebugCheckbox.setChecked(Constants.DRAW_PHYSICS_DEBUG);
+        drawObstacleAvoidanceCheckbox.setChecked(Constants.DRAW_OBSTACLE_AVOIDANCE);
+        drawSeparationForceCheckbox.setChecked(Constants.DRAW_SEPARATION_FORCE);
+        drawVelMatchForceCheckbox.setChecked(Constants.DRAW_VELOCITY_MATCH_FORCE);
+        drawCenteringForceCheckbox.setChecked(Constants.DRAW_FLOCK_CENTERING_FORCE);
+    }
+
+    private void setGovernorText(int level) {
+        governorLabel.setText("Quality level " + level + "/" + FrameGovernor.MAX_LEVEL
+                + "\nEscape steps " + Constants.ESCAPE_STEPS
+                + ", iterations " + Constants.VELOCITY_ITERATIONS + "/" + Constants.POSITION_ITERATIONS);
+    }
+
+    /**
+     * Append a time in nanoseconds as milliseconds with two decimal places.
+     */
+    private StringBuilder appendMillis(long nanos) {
+        long hundredths = nanos / 10000;
+        timingsText.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10) timingsText.append('0');
+        return timingsText.append(fraction);
     }
 }
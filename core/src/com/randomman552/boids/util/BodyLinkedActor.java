@@ -6,11 +6,22 @@ import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.utils.Disposable;
-import com.randomman552.boids.Boids;
+import com.randomman552.boids.Simulation;
 
 public class BodyLinkedActor extends Actor implements Disposable {
+    protected final Simulation simulation;
     protected Body body;
 
+    // Transform to draw at instead of the actor's own, set when interpolating between simulation steps
+    private boolean interpolated;
+    private float drawX, drawY, drawRotation;
+    // Set while the actor's transform is changed together with the body's, so the body is only updated once
+    private boolean settingTransform;
+
+    public BodyLinkedActor(Simulation simulation) {
+        this.simulation = simulation;
+    }
+
     protected TextureRegion getFrame() {
         return null;
     }
@@ -18,6 +29,7 @@ public class BodyLinkedActor extends Actor implements Disposable {
     @Override
     public void act(float delta) {
         super.act(delta);
+        interpolated = false;
         setPosition(body.getPosition().x - getOriginX(), body.getPosition().y - getOriginY());
         setRotation((float) Math.toDegrees(body.getAngle()));
     }
@@ -32,17 +44,52 @@ public class BodyLinkedActor extends Actor implements Disposable {
         setRotation(vel.angleDeg() - 90);
     }
 
+    public Body getBody() {
+        return body;
+    }
+
     public Vector2 getVelocity() {
         return body.getLinearVelocity();
     }
 
+    /**
+     * Draw this actor centered at the given point with the given rotation, until it next acts.
+     * Unlike setPosition, this does not move the linked body.
+     * @param centerX X coordinate of the center point.
+     * @param centerY Y coordinate of the center point.
+     * @param rotation Rotation in degrees.
+     */
+    public void setInterpolatedTransform(float centerX, float centerY, float rotation) {
+        interpolated = true;
+        drawX = centerX - getOriginX();
+        drawY = centerY - getOriginY();
+        drawRotation = rotation;
+    }
+
+    /**
+     * Move this actor and its linked body, updating the body once rather than once for the position and once for
+     * the rotation (each update moves the body's fixtures in the Box2D broad phase).
+     * @param centerX X coordinate of the center point.
+     * @param centerY Y coordinate of the center point.
+     * @param rotation Rotation in degrees.
+     */
+    public void setTransform(float centerX, float centerY, float rotation) {
+        settingTransform = true;
+        setPosition(centerX - getOriginX(), centerY - getOriginY());
+        setRotation(rotation);
+        settingTransform = false;
+        body.setTransform(getX() + getOriginX(), getY() + getOriginY(), (float) Math.toRadians(getRotation()));
+    }
+
     @Override
     protected void positionChanged() {
+        if (settingTransform) return;
         body.setTransform(getX() + getOriginX(), getY() + getOriginY(), body.getAngle());
     }
 
     @Override
     protected void rotationChanged() {
+        if (settingTransform) return;
         body.setTransform(body.getPosition().x, body.getPosition().y, (float) Math.toRadians(getRotation()));
     }
 
@@ -51,17 +98,17 @@ public class BodyLinkedActor extends Actor implements Disposable {
         if (getFrame() == null) return;
         batch.setColor(getColor());
         batch.draw(getFrame(),
-                getX(), getY(),
+                interpolated ? drawX : getX(), interpolated ? drawY : getY(),
                 getOriginX(), getOriginY(),
                 getWidth(), getHeight(),
                 getScaleX(), getScaleY(),
-                getRotation()
+                interpolated ? drawRotation : getRotation()
         );
         batch.setColor(1, 1, 1, 1);
     }
 
     @Override
     public void dispose() {
-        Boids.getInstance().world.destroyBody(body);
+        simulation.world.destroyBody(body);
     }
 }
@@ -0,0 +1,94 @@
+package com.randomman552.boids.util;
+
+/**
+ * Union-find over the integers 0 to n - 1, with union by size and path halving, in flat int arrays.
+ * The arrays are only re-allocated when a reset needs more elements than they hold, so resetting every tick
+ * allocates nothing once warmed up.
+ */
+public class DisjointSets {
+    private int[] parent = new int[0];
+    private int[] size = new int[0];
+    private int count;
+    private int sets;
+    private int largest;
+
+    /**
+     * Put every element in a set of its own.
+     * @param count Number of elements.
+     */
+    public void reset(int count) {
+        if (parent.length < count) {
+            int capacity = Math.max(count, parent.length * 3 / 2);
+            parent = new int[capacity];
+            size = new int[capacity];
+        }
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+        this.count = count;
+        sets = count;
+        largest = count > 0 ? 1 : 0;
+    }
+
+    /**
+     * Representative of the set containing an element.
+     */
+    public int find(int element) {
+        int[] parent = this.parent;
+        while (parent[element] != element) {
+            // Point every other element on the path at its grandparent
+            parent[element] = parent[parent[element]];
+            element = parent[element];
+        }
+        return element;
+    }
+
+    /**
+     * Merge the sets containing two elements.
+     * @return Whether they were in different sets.
+     */
+    public boolean union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) return false;
+        if (size[a] < size[b]) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        parent[b] = a;
+        size[a] += size[b];
+        largest = Math.max(largest, size[a]);
+        sets--;
+        return true;
+    }
+
+    /**
+     * Number of elements in the set containing an element.
+     */
+    public int sizeOf(int element) {
+        return size[find(element)];
+    }
+
+    /**
+     * Number of elements since the last reset.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Number of distinct sets.
+     */
+    public int getSetCount() {
+        return sets;
+    }
+
+    /**
+     * Number of elements in the largest set.
+     */
+    public int getLargestSize() {
+        return largest;
+    }
+}
@@ -0,0 +1,293 @@
+package com.randomman552.boids.util;
+
+/**
+ * Quadtree storing the number of points, the sum of their positions and the sum of their velocities in every node,
+ * used to approximate the flock centering and velocity matching sums over a large radius (Barnes-Hut).
+ * A query adds up whole nodes which lie entirely inside the radius (exact), opens nodes near the query point down to
+ * their points, and approximates distant nodes crossing the edge of the radius by their aggregate when they subtend
+ * less than the opening angle (theta), including them when their centre of mass is inside the radius.
+ * The tree is rebuilt from scratch every tick and stored in flat arrays, which are only re-allocated when they grow.
+ */
+public class FlockQuadtree {
+    private static final int LEAF_SIZE = 8;
+    private static final int MAX_DEPTH = 16;
+
+    /**
+     * Traversal stack and result of a query, each thread querying the tree needs its own.
+     */
+    public static class Query {
+        private final int[] stack = new int[3 * MAX_DEPTH + 4];
+        /**
+         * Number of points summed.
+         */
+        public int count;
+        /**
+         * Sum of the positions of the points relative to the query position.
+         */
+        public float offsetX, offsetY;
+        /**
+         * Sum of the velocities of the points.
+         */
+        public float velocityX, velocityY;
+        /**
+         * Number of nodes and points looked at.
+         */
+        public int visited;
+
+        void reset() {
+            count = 0;
+            offsetX = offsetY = 0;
+            velocityX = velocityY = 0;
+            visited = 0;
+        }
+    }
+
+    private float[] xs, ys, vxs, vys;
+    private float width, height;
+    private boolean periodic;
+
+    /**
+     * Point indices, reordered during the build so each leaf covers a contiguous range.
+     */
+    private int[] order = new int[0];
+
+    // Nodes, each a square given by its minimum corner and size
+    private float[] nodeX = new float[16], nodeY = new float[16], nodeSize = new float[16];
+    /**
+     * Leaves: first index into order, interior nodes: index of the first of the four children (which follow it).
+     */
+    private int[] nodeStart = new int[16];
+    private int[] nodeCount = new int[16];
+    private boolean[] nodeLeaf = new boolean[16];
+    private float[] nodeSumX = new float[16], nodeSumY = new float[16];
+    private float[] nodeSumVX = new float[16], nodeSumVY = new float[16];
+    private int nodeTotal;
+
+    /**
+     * Rebuild the tree from the given points.
+     * The arrays are referenced (not copied) and must not be modified until the next rebuild.
+     * @param count Number of points to insert.
+     * @param width Width of the area covered by the tree, starting at 0.
+     * @param height Height of the area covered by the tree, starting at 0.
+     */
+    public void rebuild(float[] xs, float[] ys, float[] vxs, float[] vys, int count, float width, float height) {
+        this.xs = xs;
+        this.ys = ys;
+        this.vxs = vxs;
+        this.vys = vys;
+        this.width = width;
+        this.height = height;
+
+        if (order.length < count) order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        nodeTotal = 1;
+        build(0, 0, count, 0, 0, Math.max(width, height), 0);
+    }
+
+    /**
+     * Whether queries wrap around the edges of the area, as for the periodic world boundary.
+     * The query radius must then not exceed half the width or height of the area.
+     */
+    public void setPeriodic(boolean periodic) {
+        this.periodic = periodic;
+    }
+
+    private void build(int node, int start, int end, float x, float y, float size, int depth) {
+        ensureNodeCapacity(node + 1);
+        nodeX[node] = x;
+        nodeY[node] = y;
+        nodeSize[node] = size;
+        nodeCount[node] = end - start;
+
+        if (end - start <= LEAF_SIZE || depth >= MAX_DEPTH) {
+            nodeLeaf[node] = true;
+            nodeStart[node] = start;
+            float sumX = 0, sumY = 0, sumVX = 0, sumVY = 0;
+            for (int i = start; i < end; i++) {
+                int p = order[i];
+                sumX += xs[p];
+                sumY += ys[p];
+                sumVX += vxs[p];
+                sumVY += vys[p];
+            }
+            nodeSumX[node] = sumX;
+            nodeSumY[node] = sumY;
+            nodeSumVX[node] = sumVX;
+            nodeSumVY[node] = sumVY;
+            return;
+        }
+
+        // Split into quadrants: bottom left, bottom right, top left, top right
+        float half = size / 2;
+        float midX = x + half, midY = y + half;
+        int splitX = partition(start, end, xs, midX);
+        int splitLeft = partition(start, splitX, ys, midY);
+        int splitRight = partition(splitX, end, ys, midY);
+
+        int child = nodeTotal;
+        nodeTotal += 4;
+        nodeLeaf[node] = false;
+        nodeStart[node] = child;
+        build(child, start, splitLeft, x, y, half, depth + 1);
+        build(child + 1, splitX, splitRight, midX, y, half, depth + 1);
+        build(child + 2, splitLeft, splitX, x, midY, half, depth + 1);
+        build(child + 3, splitRight, end, midX, midY, half, depth + 1);
+
+        float sumX = 0, sumY = 0, sumVX = 0, sumVY = 0;
+        for (int c = child; c < child + 4; c++) {
+            sumX += nodeSumX[c];
+            sumY += nodeSumY[c];
+            sumVX += nodeSumVX[c];
+            sumVY += nodeSumVY[c];
+        }
+        nodeSumX[node] = sumX;
+        nodeSumY[node] = sumY;
+        nodeSumVX[node] = sumVX;
+        nodeSumVY[node] = sumVY;
+    }
+
+    /**
+     * Reorder order[start, end) so points with a coordinate below the split come first.
+     * @return Index of the first point at or above the split.
+     */
+    private int partition(int start, int end, float[] coordinates, float split) {
+        int i = start, j = end - 1;
+        while (i <= j) {
+            if (coordinates[order[i]] < split) {
+                i++;
+            } else {
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+                j--;
+            }
+        }
+        return i;
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        // Children are allocated four at a time
+        capacity += 4;
+        if (nodeStart.length >= capacity) return;
+        capacity = Math.max(capacity, nodeStart.length * 2);
+        nodeX = grow(nodeX, capacity);
+        nodeY = grow(nodeY, capacity);
+        nodeSize = grow(nodeSize, capacity);
+        nodeSumX = grow(nodeSumX, capacity);
+        nodeSumY = grow(nodeSumY, capacity);
+        nodeSumVX = grow(nodeSumVX, capacity);
+        nodeSumVY = grow(nodeSumVY, capacity);
+        int[] start = new int[capacity], count = new int[capacity];
+        System.arraycopy(nodeStart, 0, start, 0, nodeStart.length);
+        System.arraycopy(nodeCount, 0, count, 0, nodeCount.length);
+        nodeStart = start;
+        nodeCount = count;
+        boolean[] leaf = new boolean[capacity];
+        System.arraycopy(nodeLeaf, 0, leaf, 0, nodeLeaf.length);
+        nodeLeaf = leaf;
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Sum the points within the given radius of a position, including any point at the position itself.
+     * @param x X coordinate to search around.
+     * @param y Y coordinate to search around.
+     * @param radius Search radius.
+     * @param theta Opening angle, the largest ratio of node size to distance at which a node crossing the edge of
+     *              the radius is approximated by its aggregate. 0 gives exact sums.
+     * @param out Query to store the sums in.
+     */
+    public void aggregate(float x, float y, float radius, float theta, Query out) {
+        out.reset();
+        if (nodeTotal == 0 || nodeCount[0] == 0) return;
+        aggregateImage(x, y, radius, theta, out);
+        if (!periodic) return;
+
+        // Also search the images of the position across each edge the radius crosses, as SpatialGrid does
+        float wrapX = x - radius < 0 ? x + width : (x + radius >= width ? x - width : x);
+        float wrapY = y - radius < 0 ? y + height : (y + radius >= height ? y - height : y);
+        if (wrapX != x) aggregateImage(wrapX, y, radius, theta, out);
+        if (wrapY != y) {
+            aggregateImage(x, wrapY, radius, theta, out);
+            if (wrapX != x) aggregateImage(wrapX, wrapY, radius, theta, out);
+        }
+    }
+
+    private void aggregateImage(float x, float y, float radius, float theta, Query out) {
+        float radius2 = radius * radius;
+        float theta2 = theta * theta;
+        int[] stack = out.stack;
+        int top = 0;
+        stack[top++] = 0;
+
+        while (top > 0) {
+            int node = stack[--top];
+            int count = nodeCount[node];
+            if (count == 0) continue;
+            out.visited++;
+
+            float minX = nodeX[node], minY = nodeY[node], size = nodeSize[node];
+            float maxX = minX + size, maxY = minY + size;
+            // Nearest and furthest points of the node from the query position
+            float nearX = Math.max(Math.max(minX - x, x - maxX), 0);
+            float nearY = Math.max(Math.max(minY - y, y - maxY), 0);
+            if (nearX * nearX + nearY * nearY > radius2) continue;
+            float farX = Math.max(x - minX, maxX - x);
+            float farY = Math.max(y - minY, maxY - y);
+            if (farX * farX + farY * farY <= radius2) {
+                addNode(node, x, y, out);
+                continue;
+            }
+
+            if (nodeLeaf[node]) {
+                int start = nodeStart[node];
+                for (int i = start; i < start + count; i++) {
+                    int p = order[i];
+                    float dx = xs[p] - x, dy = ys[p] - y;
+                    out.visited++;
+                    if (dx * dx + dy * dy > radius2) continue;
+                    out.count++;
+                    out.offsetX += dx;
+                    out.offsetY += dy;
+                    out.velocityX += vxs[p];
+                    out.velocityY += vys[p];
+                }
+                continue;
+            }
+
+            // A distant node crossing the edge of the radius is taken whole or not at all, by its centre of mass
+            float comX = nodeSumX[node] / count - x, comY = nodeSumY[node] / count - y;
+            float dist2 = comX * comX + comY * comY;
+            if (size * size < theta2 * dist2) {
+                if (dist2 <= radius2) addNode(node, x, y, out);
+                continue;
+            }
+
+            int child = nodeStart[node];
+            stack[top++] = child;
+            stack[top++] = child + 1;
+            stack[top++] = child + 2;
+            stack[top++] = child + 3;
+        }
+    }
+
+    private void addNode(int node, float x, float y, Query out) {
+        int count = nodeCount[node];
+        out.count += count;
+        out.offsetX += nodeSumX[node] - count * x;
+        out.offsetY += nodeSumY[node] - count * y;
+        out.velocityX += nodeSumVX[node];
+        out.velocityY += nodeSumVY[node];
+    }
+
+    public int getNodeCount() {
+        return nodeTotal;
+    }
+}
@@ -0,0 +1,251 @@
+package com.randomman552.boids.util;
+
+import com.badlogic.gdx.Gdx;
+import com.randomman552.boids.Constants;
+
+/**
+ * Holds the frame rate at Constants.TARGET_FRAME_RATE by lowering simulation quality while frames run over budget,
+ * and raising it again once there is headroom.
+ * Quality is a level from 0 (the settings chosen by the user) to MAX_LEVEL, each level lowering more of:
+ * the debug drawing flags, the steering update fraction, ESCAPE_STEPS, the topological neighbour cap and the
+ * Box2D solver iterations. The settings in place when quality is first lowered are restored at level 0, along with
+ * any the user changes while quality is lowered (see {@link #settingsChanged()}).
+ * Every change to a setting is logged.
+ */
+public class FrameGovernor {
+    public static final int MAX_LEVEL = 4;
+    private static final String TAG = "FrameGovernor";
+
+    /**
+     * Fractions of the frame budget above which quality is lowered, and below which it is raised.
+     * Frame work time is measured without waiting for vsync, so leave room for the buffer swap.
+     */
+    private static final float OVER_BUDGET = 0.9f, UNDER_BUDGET = 0.6f;
+    /**
+     * Seconds frames must stay over (under) budget before quality is lowered (raised).
+     */
+    private static final float LOWER_AFTER = 0.5f, RAISE_AFTER = 3f;
+    /**
+     * Seconds after a change before the next one, so the effect of the last change shows in the frame times.
+     */
+    private static final float COOLDOWN = 1f;
+
+    private float smoothedTime;
+    private float overTime, underTime, cooldown;
+    private int level;
+    private int changes;
+
+    // Settings at level 0
+    private int baseEscapeSteps;
+    private float baseSteeringFraction;
+    private boolean baseTopological;
+    private int baseNeighbourCount;
+    private int baseVelocityIterations, basePositionIterations;
+    private boolean baseDrawPhysics, baseDrawAvoidance, baseDrawSeparation, baseDrawVelocityMatch, baseDrawCentering;
+    // Settings last set by the governor, to tell which the user has changed since
+    private int appliedEscapeSteps;
+    private float appliedSteeringFraction;
+    private boolean appliedTopological;
+    private int appliedNeighbourCount;
+    private int appliedVelocityIterations, appliedPositionIterations;
+    private boolean appliedDrawPhysics, appliedDrawAvoidance, appliedDrawSeparation, appliedDrawVelocityMatch,
+            appliedDrawCentering;
+
+    /**
+     * Update the governor with the time taken by the last frame, changing quality if needed.
+     * @param frameTime Time spent working on the last frame, excluding any wait for vsync (in nanoseconds).
+     * @param delta Time since the last frame (in seconds).
+     */
+    public void update(long frameTime, float delta) {
+        if (!Constants.FRAME_GOVERNOR) {
+            if (level != 0) setLevel(0);
+            return;
+        }
+
+        // Smooth out single slow frames (garbage collection, window events)
+        float millis = frameTime / 1e6f;
+        smoothedTime = smoothedTime == 0 ? millis : smoothedTime + (millis - smoothedTime) * 0.1f;
+        float budget = 1000f / Constants.TARGET_FRAME_RATE;
+
+        overTime = smoothedTime > budget * OVER_BUDGET ? overTime + delta : 0;
+        underTime = smoothedTime < budget * UNDER_BUDGET ? underTime + delta : 0;
+        if (cooldown > 0) {
+            cooldown -= delta;
+            return;
+        }
+
+        if (overTime >= LOWER_AFTER && level < MAX_LEVEL) {
+            setLevel(level + 1);
+        } else if (underTime >= RAISE_AFTER && level > 0) {
+            setLevel(level - 1);
+        }
+    }
+
+    /**
+     * Current quality level, 0 being full quality.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Number of times the level has changed, to tell when settings shown elsewhere need refreshing.
+     */
+    public int getChanges() {
+        return changes;
+    }
+
+    /**
+     * Change the quality level, applying the settings of the new level.
+     */
+    public void setLevel(int level) {
+        level = Math.min(Math.max(level, 0), MAX_LEVEL);
+        if (level == this.level) return;
+        if (this.level == 0) {
+            saveBase();
+        }
+        log("Quality level " + this.level + " -> " + level);
+        this.level = level;
+        changes++;
+        overTime = underTime = 0;
+        cooldown = COOLDOWN;
+        apply();
+    }
+
+    /**
+     * Take any setting changed since the governor last set it as the user's choice, to be restored at level 0
+     * rather than overwritten by the value saved when quality was first lowered.
+     * The new value stays in place until the level next changes, when the level's limits apply to it.
+     * Call after the user changes a setting the governor controls.
+     */
+    public void settingsChanged() {
+        if (level == 0) return;
+        if (Constants.ESCAPE_STEPS != appliedEscapeSteps) {
+            baseEscapeSteps = appliedEscapeSteps = Constants.ESCAPE_STEPS;
+        }
+        if (Constants.STEERING_UPDATE_FRACTION != appliedSteeringFraction) {
+            baseSteeringFraction = appliedSteeringFraction = Constants.STEERING_UPDATE_FRACTION;
+        }
+        if (Constants.TOPOLOGICAL_NEIGHBOURS != appliedTopological) {
+            baseTopological = appliedTopological = Constants.TOPOLOGICAL_NEIGHBOURS;
+        }
+        if (Constants.TOPOLOGICAL_NEIGHBOUR_COUNT != appliedNeighbourCount) {
+            baseNeighbourCount = appliedNeighbourCount = Constants.TOPOLOGICAL_NEIGHBOUR_COUNT;
+        }
+        if (Constants.VELOCITY_ITERATIONS != appliedVelocityIterations) {
+            baseVelocityIterations = appliedVelocityIterations = Constants.VELOCITY_ITERATIONS;
+        }
+        if (Constants.POSITION_ITERATIONS != appliedPositionIterations) {
+            basePositionIterations = appliedPositionIterations = Constants.POSITION_ITERATIONS;
+        }
+        if (Constants.DRAW_PHYSICS_DEBUG != appliedDrawPhysics) {
+            baseDrawPhysics = appliedDrawPhysics = Constants.DRAW_PHYSICS_DEBUG;
+        }
+        if (Constants.DRAW_OBSTACLE_AVOIDANCE != appliedDrawAvoidance) {
+            baseDrawAvoidance = appliedDrawAvoidance = Constants.DRAW_OBSTACLE_AVOIDANCE;
+        }
+        if (Constants.DRAW_SEPARATION_FORCE != appliedDrawSeparation) {
+            baseDrawSeparation = appliedDrawSeparation = Constants.DRAW_SEPARATION_FORCE;
+        }
+        if (Constants.DRAW_VELOCITY_MATCH_FORCE != appliedDrawVelocityMatch) {
+            baseDrawVelocityMatch = appliedDrawVelocityMatch = Constants.DRAW_VELOCITY_MATCH_FORCE;
+        }
+        if (Constants.DRAW_FLOCK_CENTERING_FORCE != appliedDrawCentering) {
+            baseDrawCentering = appliedDrawCentering = Constants.DRAW_FLOCK_CENTERING_FORCE;
+        }
+    }
+
+    private void saveBase() {
+        baseEscapeSteps = Constants.ESCAPE_STEPS;
+        baseSteeringFraction = Constants.STEERING_UPDATE_FRACTION;
+        baseTopological = Constants.TOPOLOGICAL_NEIGHBOURS;
+        baseNeighbourCount = Constants.TOPOLOGICAL_NEIGHBOUR_COUNT;
+        baseVelocityIterations = Constants.VELOCITY_ITERATIONS;
+        basePositionIterations = Constants.POSITION_ITERATIONS;
+        baseDrawPhysics = Constants.DRAW_PHYSICS_DEBUG;
+        baseDrawAvoidance = Constants.DRAW_OBSTACLE_AVOIDANCE;
+        baseDrawSeparation = Constants.DRAW_SEPARATION_FORCE;
+        baseDrawVelocityMatch = Constants.DRAW_VELOCITY_MATCH_FORCE;
+        baseDrawCentering = Constants.DRAW_FLOCK_CENTERING_FORCE;
+    }
+
+    /**
+     * Set every setting to its value at the current level. Settings are only ever lowered from their base value.
+     */
+    private void apply() {
+        boolean debug = level < 1;
+        float steeringFraction = baseSteeringFraction;
+        int escapeSteps = baseEscapeSteps;
+        boolean topological = baseTopological;
+        int neighbourCount = baseNeighbourCount;
+        int velocityIterations = baseVelocityIterations, positionIterations = basePositionIterations;
+
+        if (level >= 2) {
+            steeringFraction = Math.min(steeringFraction, 0.5f);
+            escapeSteps = Math.min(escapeSteps, 4);
+        }
+        if (level >= 3) {
+            neighbourCount = topological ? Math.min(neighbourCount, 7) : 7;
+            topological = true;
+            velocityIterations = Math.min(velocityIterations, 3);
+            positionIterations = Math.min(positionIterations, 1);
+        }
+        if (level >= 4) {
+            steeringFraction = Math.min(steeringFraction, 0.25f);
+            escapeSteps = Math.min(escapeSteps, 3);
+            neighbourCount = Math.min(neighbourCount, 4);
+            velocityIterations = Math.min(velocityIterations, 2);
+        }
+
+        Constants.DRAW_PHYSICS_DEBUG = change("DRAW_PHYSICS_DEBUG", Constants.DRAW_PHYSICS_DEBUG, debug && baseDrawPhysics);
+        Constants.DRAW_OBSTACLE_AVOIDANCE = change("DRAW_OBSTACLE_AVOIDANCE", Constants.DRAW_OBSTACLE_AVOIDANCE, debug && baseDrawAvoidance);
+        Constants.DRAW_SEPARATION_FORCE = change("DRAW_SEPARATION_FORCE", Constants.DRAW_SEPARATION_FORCE, debug && baseDrawSeparation);
+        Constants.DRAW_VELOCITY_MATCH_FORCE = change("DRAW_VELOCITY_MATCH_FORCE", Constants.DRAW_VELOCITY_MATCH_FORCE, debug && baseDrawVelocityMatch);
+        Constants.DRAW_FLOCK_CENTERING_FORCE = change("DRAW_FLOCK_CENTERING_FORCE", Constants.DRAW_FLOCK_CENTERING_FORCE, debug && baseDrawCentering);
+        Constants.STEERING_UPDATE_FRACTION = change("STEERING_UPDATE_FRACTION", Constants.STEERING_UPDATE_FRACTION, steeringFraction);
+        Constants.ESCAPE_STEPS = change("ESCAPE_STEPS", Constants.ESCAPE_STEPS, escapeSteps);
+        Constants.TOPOLOGICAL_NEIGHBOURS = change("TOPOLOGICAL_NEIGHBOURS", Constants.TOPOLOGICAL_NEIGHBOURS, topological);
+        Constants.TOPOLOGICAL_NEIGHBOUR_COUNT = change("TOPOLOGICAL_NEIGHBOUR_COUNT", Constants.TOPOLOGICAL_NEIGHBOUR_COUNT, neighbourCount);
+        Constants.VELOCITY_ITERATIONS = change("VELOCITY_ITERATIONS", Constants.VELOCITY_ITERATIONS, velocityIterations);
+        Constants.POSITION_ITERATIONS = change("POSITION_ITERATIONS", Constants.POSITION_ITERATIONS, positionIterations);
+        saveApplied();
+    }
+
+    private void saveApplied() {
+        appliedEscapeSteps = Constants.ESCAPE_STEPS;
+        appliedSteeringFraction = Constants.STEERING_UPDATE_FRACTION;
+        appliedTopological = Constants.TOPOLOGICAL_NEIGHBOURS;
+        appliedNeighbourCount = Constants.TOPOLOGICAL_NEIGHBOUR_COUNT;
+        appliedVelocityIterations = Constants.VELOCITY_ITERATIONS;
+        appliedPositionIterations = Constants.POSITION_ITERATIONS;
+        appliedDrawPhysics = Constants.DRAW_PHYSICS_DEBUG;
+        appliedDrawAvoidance = Constants.DRAW_OBSTACLE_AVOIDANCE;
+        appliedDrawSeparation = Constants.DRAW_SEPARATION_FORCE;
+        appliedDrawVelocityMatch = Constants.DRAW_VELOCITY_MATCH_FORCE;
+        appliedDrawCentering = Constants.DRAW_FLOCK_CENTERING_FORCE;
+    }
+
+    private static int change(String name, int from, int to) {
+        if (from != to) log(name + " " + from + " -> " + to);
+        return to;
+    }
+
+    private static float change(String name, float from, float to) {
+        if (from != to) log(name + " " + from + " -> " + to);
+        return to;
+    }
+
+    private static boolean change(String name, boolean from, boolean to) {
+        if (from != to) log(name + " " + from + " -> " + to);
+        return to;
+    }
+
+    private static void log(String message) {
+        // The simulation can run without an application (headless runs and benchmarks)
+        if (Gdx.app != null) {
+            Gdx.app.log(TAG, message);
+        } else {
+            System.out.println(TAG + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.randomman552.boids.util;
+
+import com.randomman552.boids.SimulationCounters;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Times the phases of each frame and keeps the last WINDOW frames of every phase, so percentiles of recent frame
+ * times can be shown while the program runs.
+ * Recording a phase is a call to System.nanoTime and an add, the percentiles are only sorted out when asked for.
+ * Each frame (phase times and simulation counters) can also be streamed to a CSV file.
+ */
+public class FrameProfiler {
+    public enum Phase {
+        /**
+         * Steering, obstacle avoidance and every other actor acting (Simulation.act).
+         */
+        SIMULATION("Simulation"),
+        WORLD_STEP("World step"),
+        STAGE_DRAW("Stage draw"),
+        DEBUG_DRAW("Physics debug draw"),
+        UI_DRAW("UI draw"),
+        /**
+         * The whole frame, from the first phase starting to the end of the last.
+         */
+        FRAME("Frame");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Number of frames percentiles are taken over.
+     */
+    public static final int WINDOW = 300;
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Time spent in each phase so far this frame (in nanoseconds).
+     */
+    private final long[] current = new long[PHASES.length];
+    /**
+     * Ring buffer of the time spent in each phase over the last WINDOW frames.
+     */
+    private final long[][] history = new long[PHASES.length][WINDOW];
+    private final long[] sorted = new long[WINDOW];
+    private int frames;
+    private long frameStart;
+
+    // Counters of the last frame
+    private long neighboursExamined, raysCast, contactsProcessed;
+
+    private Writer csv;
+    private final StringBuilder line = new StringBuilder();
+    private char[] lineChars = new char[256];
+
+    /**
+     * Mark the start of a frame.
+     * @return The current time, to pass to the first {@link #record(Phase, long)}.
+     */
+    public long beginFrame() {
+        frameStart = System.nanoTime();
+        return frameStart;
+    }
+
+    /**
+     * Add the time since the given start to a phase of the current frame.
+     * A phase may be recorded several times in one frame (for example one world step per simulation step),
+     * the times are added up.
+     * @param phase Phase which just finished.
+     * @param start Time the phase started at, as returned by System.nanoTime or the previous record.
+     * @return The current time, so the next phase can start from it.
+     */
+    public long record(Phase phase, long start) {
+        long now = System.nanoTime();
+        current[phase.ordinal()] += now - start;
+        return now;
+    }
+
+    /**
+     * Finish the current frame, adding it to the history and the CSV file.
+     * @param counters Counters of the work done during the frame, they are reset afterwards.
+     */
+    public void endFrame(SimulationCounters counters) {
+        current[Phase.FRAME.ordinal()] = System.nanoTime() - frameStart;
+        neighboursExamined = counters.neighboursExamined;
+        raysCast = counters.raysCast;
+        contactsProcessed = counters.contactsProcessed;
+        counters.reset();
+
+        int slot = frames % WINDOW;
+        for (int p = 0; p < PHASES.length; p++) {
+            history[p][slot] = current[p];
+        }
+        if (csv != null) {
+            writeLine();
+        }
+        frames++;
+        Arrays.fill(current, 0);
+    }
+
+    /**
+     * Time below which the given fraction of recent frames spent in a phase.
+     * @param phase Phase to look at.
+     * @param percentile Percentile to find, from 0 to 1 (1 gives the maximum).
+     * @return Time in nanoseconds, or 0 before the first frame.
+     */
+    public long percentile(Phase phase, float percentile) {
+        int count = Math.min(frames, WINDOW);
+        if (count == 0) return 0;
+        System.arraycopy(history[phase.ordinal()], 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.min(Math.max(index, 0), count - 1)];
+    }
+
+    /**
+     * Time spent in a phase during the last finished frame (in nanoseconds).
+     */
+    public long getLast(Phase phase) {
+        if (frames == 0) return 0;
+        return history[phase.ordinal()][(frames - 1) % WINDOW];
+    }
+
+    public long getNeighboursExamined() {
+        return neighboursExamined;
+    }
+
+    public long getRaysCast() {
+        return raysCast;
+    }
+
+    public long getContactsProcessed() {
+        return contactsProcessed;
+    }
+
+    /**
+     * Start writing every frame to a CSV file, replacing it if it exists.
+     * Each row holds the frame number, the time of each phase in microseconds and the counters.
+     */
+    public void startCsv(File file) throws IOException {
+        stopCsv();
+        csv = new BufferedWriter(new FileWriter(file));
+        line.setLength(0);
+        line.append("frame");
+        for (Phase phase : PHASES) {
+            line.append(',').append(phase.name().toLowerCase()).append("_us");
+        }
+        line.append(",neighbours_examined,rays_cast,contacts_processed\n");
+        csv.write(line.toString());
+    }
+
+    public boolean isWritingCsv() {
+        return csv != null;
+    }
+
+    /**
+     * Stop writing to the CSV file and close it.
+     */
+    public void stopCsv() throws IOException {
+        if (csv == null) return;
+        csv.close();
+        csv = null;
+    }
+
+    private void writeLine() {
+        line.setLength(0);
+        line.append(frames);
+        for (int p = 0; p < PHASES.length; p++) {
+            line.append(',').append(current[p] / 1000);
+        }
+        line.append(',').append(neighboursExamined)
+                .append(',').append(raysCast)
+                .append(',').append(contactsProcessed)
+                .append('\n');
+
+        // Copy out through a reused array rather than toString, to keep the per-frame path free of allocations
+        if (lineChars.length < line.length()) lineChars = new char[line.length() * 2];
+        line.getChars(0, line.length(), lineChars, 0);
+        try {
+            csv.write(lineChars, 0, line.length());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write frame timings", e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.randomman552.boids.util;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Fixed size max-heap of (squared distance, id) pairs, used to keep the k nearest of a set of candidates.
+ * Offering a candidate is O(log k) and allocates nothing, candidates further than the furthest kept one are
+ * rejected after a single comparison once the heap is full.
+ * Not thread safe, each thread selecting neighbours needs its own heap.
+ */
+public class NeighbourHeap {
+    private int[] ids = new int[0];
+    private float[] distances = new float[0];
+    private int size;
+    private int capacity;
+
+    /**
+     * Empty the heap and set the number of candidates it keeps.
+     * @param capacity Number of nearest candidates to keep (k).
+     */
+    public void reset(int capacity) {
+        if (ids.length < capacity) {
+            ids = new int[capacity];
+            distances = new float[capacity];
+        }
+        this.capacity = capacity;
+        size = 0;
+    }
+
+    /**
+     * Offer a candidate, keeping it if it is among the nearest seen since the last reset.
+     * @param id Id of the candidate.
+     * @param distance2 Squared distance to the candidate.
+     */
+    public void offer(int id, float distance2) {
+        if (size < capacity) {
+            // Sift up from the end
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (distances[parent] >= distance2) break;
+                ids[i] = ids[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            distances[i] = distance2;
+            return;
+        }
+        if (capacity == 0 || distance2 >= distances[0]) return;
+
+        // Replace the furthest kept candidate (the root) and sift down
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && distances[child + 1] > distances[child]) child++;
+            if (distances[child] <= distance2) break;
+            ids[i] = ids[child];
+            distances[i] = distances[child];
+            i = child;
+        }
+        ids[i] = id;
+        distances[i] = distance2;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append the ids of the kept candidates (in no particular order).
+     */
+    public void drainTo(IntArray out) {
+        out.addAll(ids, 0, size);
+    }
+}
@@ -0,0 +1,260 @@
+package com.randomman552.boids.util;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Uniform grid used to find points near a given position without checking every point.
+ * The grid is rebuilt from scratch every tick using a counting sort, so all storage is kept in primitive int arrays
+ * which are only re-allocated when the number of points or cells grows.
+ */
+public class SpatialGrid {
+    private float cellSize = 1;
+    private float originX, originY;
+    private float width, height;
+    private int columns, rows;
+    private boolean periodic;
+
+    /**
+     * Index into entries at which each cell starts, cell c spans [cellStart[c], cellStart[c + 1]).
+     */
+    private int[] cellStart = new int[0];
+    /**
+     * Point indices sorted by cell.
+     */
+    private int[] entries = new int[0];
+    /**
+     * Cell of each point, kept to avoid calculating it twice during a rebuild.
+     */
+    private int[] pointCell = new int[0];
+
+    private float[] xs, ys;
+    private int count;
+
+    /**
+     * Rebuild the grid from the given point positions.
+     * The position arrays are referenced (not copied) and must not be modified until the next rebuild.
+     * @param xs X coordinates of the points.
+     * @param ys Y coordinates of the points.
+     * @param count Number of points to insert.
+     * @param cellSize Size of a grid cell, should be equal to the largest query radius.
+     * @param width Width of the area covered by the grid.
+     * @param height Height of the area covered by the grid.
+     */
+    public void rebuild(float[] xs, float[] ys, int count, float cellSize, float width, float height) {
+        rebuild(xs, ys, count, cellSize, 0, 0, width, height);
+    }
+
+    /**
+     * Rebuild the grid from the given point positions, covering the area starting at the given origin.
+     * Points outside the area are clamped into the edge cells.
+     */
+    public void rebuild(float[] xs, float[] ys, int count, float cellSize, float originX, float originY, float width, float height) {
+        this.xs = xs;
+        this.ys = ys;
+        this.count = count;
+        this.cellSize = cellSize;
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+
+        int cells = columns * rows;
+        if (cellStart.length < cells + 1) cellStart = new int[cells + 1];
+        if (entries.length < count) {
+            entries = new int[count];
+            pointCell = new int[count];
+        }
+
+        // Count points per cell
+        for (int c = 0; c <= cells; c++) {
+            cellStart[c] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int cell = cellIndex(cellX(xs[i]), cellY(ys[i]));
+            pointCell[i] = cell;
+            cellStart[cell + 1]++;
+        }
+
+        // Prefix sum to get start offsets
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+
+        // Scatter, cellStart[c] is used as the insertion cursor and restored afterwards
+        for (int i = 0; i < count; i++) {
+            entries[cellStart[pointCell[i]]++] = i;
+        }
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    /**
+     * Find all points within the given radius of a position.
+     * The radius should not exceed the cell size for the query to stay within the surrounding 3x3 cells.
+     * @param x X coordinate to search around.
+     * @param y Y coordinate to search around.
+     * @param radius Search radius.
+     * @param out Array to append the indices of found points to, this is not cleared first.
+     * @return Number of points found.
+     */
+    public int query(float x, float y, float radius, IntArray out) {
+        return query(x, y, radius, -1, out);
+    }
+
+    /**
+     * Find all points within the given radius of a position, skipping one point.
+     * @param exclude Index of a point to leave out of the results (usually the point being queried for), or -1.
+     * @see #query(float, float, float, IntArray)
+     */
+    public int query(float x, float y, float radius, int exclude, IntArray out) {
+        if (periodic) return queryPeriodic(x, y, radius, exclude, out);
+        return queryCells(x, y, radius * radius, exclude, out,
+                cellX(x - radius), cellX(x + radius), cellY(y - radius), cellY(y + radius));
+    }
+
+    /**
+     * Query treating the grid area as a torus, so points just across an edge are found as well.
+     * Each axis covers at most two ranges of cells: the one around the position and the one wrapped onto the far side.
+     */
+    private int queryPeriodic(float x, float y, float radius, int exclude, IntArray out) {
+        float radius2 = radius * radius;
+        int minX = cellX(x - radius), maxX = cellX(x + radius);
+        int wrapMinX = 0, wrapMaxX = -1;
+        if (x - radius < originX && x + radius >= originX + width) {
+            minX = 0;
+            maxX = columns - 1;
+        } else if (x - radius < originX) {
+            wrapMinX = cellX(x - radius + width);
+            wrapMaxX = columns - 1;
+        } else if (x + radius >= originX + width) {
+            wrapMaxX = cellX(x + radius - width);
+        }
+        // Merge overlapping ranges so no cell is visited twice
+        if (wrapMinX <= wrapMaxX && wrapMinX <= maxX + 1 && wrapMaxX >= minX - 1) {
+            minX = Math.min(minX, wrapMinX);
+            maxX = Math.max(maxX, wrapMaxX);
+            wrapMaxX = -1;
+        }
+
+        int minY = cellY(y - radius), maxY = cellY(y + radius);
+        int wrapMinY = 0, wrapMaxY = -1;
+        if (y - radius < originY && y + radius >= originY + height) {
+            minY = 0;
+            maxY = rows - 1;
+        } else if (y - radius < originY) {
+            wrapMinY = cellY(y - radius + height);
+            wrapMaxY = rows - 1;
+        } else if (y + radius >= originY + height) {
+            wrapMaxY = cellY(y + radius - height);
+        }
+        if (wrapMinY <= wrapMaxY && wrapMinY <= maxY + 1 && wrapMaxY >= minY - 1) {
+            minY = Math.min(minY, wrapMinY);
+            maxY = Math.max(maxY, wrapMaxY);
+            wrapMaxY = -1;
+        }
+
+        int found = queryCells(x, y, radius2, exclude, out, minX, maxX, minY, maxY);
+        if (wrapMinX <= wrapMaxX) {
+            found += queryCells(x, y, radius2, exclude, out, wrapMinX, wrapMaxX, minY, maxY);
+        }
+        if (wrapMinY <= wrapMaxY) {
+            found += queryCells(x, y, radius2, exclude, out, minX, maxX, wrapMinY, wrapMaxY);
+            if (wrapMinX <= wrapMaxX) {
+                found += queryCells(x, y, radius2, exclude, out, wrapMinX, wrapMaxX, wrapMinY, wrapMaxY);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Append the points within the block of cells [minX, maxX] x [minY, maxY] that are within range of a position.
+     */
+    private int queryCells(float x, float y, float radius2, int exclude, IntArray out, int minX, int maxX, int minY, int maxY) {
+        int found = 0;
+        for (int cy = minY; cy <= maxY; cy++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                int cell = cellIndex(cx, cy);
+                for (int e = cellStart[cell], end = cellStart[cell + 1]; e < end; e++) {
+                    int i = entries[e];
+                    if (i == exclude) continue;
+                    float dx = xs[i] - x, dy = ys[i] - y;
+                    if (periodic) {
+                        dx = wrapDelta(dx, width);
+                        dy = wrapDelta(dy, height);
+                    }
+                    if (dx * dx + dy * dy <= radius2) {
+                        out.add(i);
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Shortest signed distance along an axis which wraps around every size units.
+     * @param delta Difference between two coordinates, no more than size apart.
+     * @param size Size of the axis.
+     */
+    public static float wrapDelta(float delta, float size) {
+        float half = size * 0.5f;
+        if (delta > half) return delta - size;
+        if (delta < -half) return delta + size;
+        return delta;
+    }
+
+    /**
+     * Set whether queries treat the grid area as a torus, finding points across the opposite edge.
+     * Takes effect on the next query.
+     */
+    public void setPeriodic(boolean periodic) {
+        this.periodic = periodic;
+    }
+
+    public boolean isPeriodic() {
+        return periodic;
+    }
+
+    public int cellX(float x) {
+        int cx = (int) ((x - originX) / cellSize);
+        return Math.min(Math.max(cx, 0), columns - 1);
+    }
+
+    public int cellY(float y) {
+        int cy = (int) ((y - originY) / cellSize);
+        return Math.min(Math.max(cy, 0), rows - 1);
+    }
+
+    public int cellIndex(int cx, int cy) {
+        return cy * columns + cx;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Start offsets into {@link #getEntries()} for each cell (length is at least cells + 1).
+     * Exposed so hot loops can walk cells without going through a query.
+     */
+    public int[] getCellStart() {
+        return cellStart;
+    }
+
+    public int[] getEntries() {
+        return entries;
+    }
+}
@@ -0,0 +1,69 @@
+package com.randomman552.boids;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that stepping a warmed up simulation does not allocate on the simulation thread.
+ */
+public class SimulationAllocationTest {
+    private static final int BOIDS = 500;
+    private static final int WARM_UP_TICKS = 200;
+    private static final int MEASURED_TICKS = 200;
+    private static final float TIMESTEP = 1f / 60f;
+
+    private com.sun.management.ThreadMXBean threads;
+    private boolean periodicBoundary;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        periodicBoundary = Constants.PERIODIC_BOUNDARY;
+    }
+
+    @After
+    public void tearDown() {
+        Constants.PERIODIC_BOUNDARY = periodicBoundary;
+    }
+
+    @Test
+    public void periodicStepDoesNotAllocate() {
+        Constants.PERIODIC_BOUNDARY = true;
+        assertEquals(0, allocatedPerTick());
+    }
+
+    @Test
+    public void boundedStepDoesNotAllocate() {
+        // Map edges teleport boids through contacts, which used to box a cool down per boid
+        Constants.PERIODIC_BOUNDARY = false;
+        assertEquals(0, allocatedPerTick());
+    }
+
+    private long allocatedPerTick() {
+        Simulation simulation = new Simulation(1);
+        try {
+            simulation.populate(BOIDS);
+            for (int i = 0; i < WARM_UP_TICKS; i++) {
+                simulation.step(TIMESTEP);
+            }
+
+            long thread = Thread.currentThread().getId();
+            long start = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < MEASURED_TICKS; i++) {
+                simulation.step(TIMESTEP);
+            }
+            return (threads.getThreadAllocatedBytes(thread) - start) / MEASURED_TICKS;
+        } finally {
+            simulation.dispose();
+        }
+    }
+}
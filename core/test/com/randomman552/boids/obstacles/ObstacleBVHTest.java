@@ -0,0 +1,156 @@
+package com.randomman552.boids.obstacles;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Array;
+import com.randomman552.boids.Simulation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks ray casts through the BVH against testing the ray with the outline of every obstacle.
+ */
+public class ObstacleBVHTest {
+    private static final float WIDTH = 16, HEIGHT = 9;
+    private static final int RAYS = 20000;
+
+    private Simulation simulation;
+    private final Array<Obstacle> obstacles = new Array<>();
+
+    @Before
+    public void setUp() {
+        simulation = new Simulation(11);
+        Random random = new Random(11);
+        for (int i = 0; i < 60; i++) {
+            obstacles.add(new CircleObstacle(simulation, random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT,
+                    0.05f + random.nextFloat() * 0.4f));
+        }
+        for (int i = 0; i < 60; i++) {
+            obstacles.add(PolygonObstacle.rectangle(simulation, random.nextFloat() * WIDTH,
+                    random.nextFloat() * HEIGHT, 0.1f + random.nextFloat(), 0.1f + random.nextFloat(),
+                    random.nextFloat() * 360));
+        }
+        for (int i = 0; i < 20; i++) {
+            float[] vertices = new float[2 * (2 + random.nextInt(5))];
+            float x = random.nextFloat() * WIDTH, y = random.nextFloat() * HEIGHT;
+            for (int v = 0; v < vertices.length; v += 2) {
+                vertices[v] = x + random.nextFloat() * 2;
+                vertices[v + 1] = y + random.nextFloat() * 2;
+            }
+            obstacles.add(new ChainObstacle(simulation, vertices, vertices.length >= 6 && i % 2 == 0));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        simulation.dispose();
+    }
+
+    @Test
+    public void rayCastsMatchBruteForce() {
+        ObstacleBVH bvh = new ObstacleBVH();
+        bvh.rebuild(obstacles);
+        Random random = new Random(12);
+        int hits = 0;
+        for (int r = 0; r < RAYS; r++) {
+            // Mostly short rays like obstacle avoidance probes, with some crossing much of the world
+            float x1 = random.nextFloat() * WIDTH, y1 = random.nextFloat() * HEIGHT;
+            float length = r % 10 == 0 ? random.nextFloat() * WIDTH : random.nextFloat();
+            float angle = r % 20 == 1 ? 0 : random.nextFloat() * 360;
+            float x2 = x1 + MathUtils.cosDeg(angle) * length, y2 = y1 + MathUtils.sinDeg(angle) * length;
+
+            boolean expected = bruteForce(x1, y1, x2, y2);
+            assertEquals("ray " + r + " from " + x1 + ", " + y1 + " to " + x2 + ", " + y2,
+                    expected, bvh.rayCast(x1, y1, x2, y2));
+            if (expected) hits++;
+        }
+        // Make sure both outcomes were covered
+        assertTrue(hits > RAYS / 20 && hits < RAYS - RAYS / 20);
+    }
+
+    @Test
+    public void batchRayCastMatchesSingleRays() {
+        ObstacleBVH bvh = new ObstacleBVH();
+        bvh.rebuild(obstacles);
+        Random random = new Random(13);
+        int count = 500;
+        float[] fromX = new float[count], fromY = new float[count], toX = new float[count], toY = new float[count];
+        for (int i = 0; i < count; i++) {
+            fromX[i] = random.nextFloat() * WIDTH;
+            fromY[i] = random.nextFloat() * HEIGHT;
+            toX[i] = fromX[i] + random.nextFloat() * 2 - 1;
+            toY[i] = fromY[i] + random.nextFloat() * 2 - 1;
+        }
+        boolean[] hits = new boolean[count];
+        bvh.rayCast(fromX, fromY, toX, toY, count, hits);
+        for (int i = 0; i < count; i++) {
+            assertEquals(bruteForce(fromX[i], fromY[i], toX[i], toY[i]), hits[i]);
+        }
+    }
+
+    @Test
+    public void emptyTreeHitsNothing() {
+        ObstacleBVH bvh = new ObstacleBVH();
+        bvh.rebuild(new Array<Obstacle>());
+        assertFalse(bvh.rayCast(0, 0, WIDTH, HEIGHT));
+    }
+
+    /**
+     * Whether the segment hits the outline of any obstacle, a circle only counting when the segment starts outside.
+     */
+    private boolean bruteForce(float x1, float y1, float x2, float y2) {
+        for (Obstacle obstacle : obstacles) {
+            if (obstacle instanceof CircleObstacle) {
+                CircleObstacle circle = (CircleObstacle) obstacle;
+                if (hitsCircle(circle.getCenterX(), circle.getCenterY(), circle.getRadius(), x1, y1, x2, y2)) {
+                    return true;
+                }
+            } else if (obstacle instanceof PolygonObstacle) {
+                if (hitsPolyline(((PolygonObstacle) obstacle).getVertices(), true, x1, y1, x2, y2)) return true;
+            } else {
+                ChainObstacle chain = (ChainObstacle) obstacle;
+                if (hitsPolyline(chain.getVertices(), chain.isLooped(), x1, y1, x2, y2)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hitsPolyline(float[] vertices, boolean looped, float x1, float y1, float x2, float y2) {
+        int segments = looped ? vertices.length / 2 : vertices.length / 2 - 1;
+        for (int s = 0; s < segments; s++) {
+            int i = s * 2, next = (i + 2) % vertices.length;
+            if (hitsSegment(vertices[i], vertices[i + 1], vertices[next], vertices[next + 1], x1, y1, x2, y2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hitsSegment(float ax, float ay, float bx, float by, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1, dy = y2 - y1;
+        float ex = bx - ax, ey = by - ay;
+        float denominator = dx * ey - dy * ex;
+        if (denominator == 0) return false;
+        float wx = ax - x1, wy = ay - y1;
+        float t = (wx * ey - wy * ex) / denominator;
+        float u = (wx * dy - wy * dx) / denominator;
+        return t >= 0 && t <= 1 && u >= 0 && u <= 1;
+    }
+
+    private static boolean hitsCircle(float cx, float cy, float radius, float x1, float y1, float x2, float y2) {
+        float ox = x1 - cx, oy = y1 - cy;
+        if (ox * ox + oy * oy <= radius * radius) return false;
+        float dx = x2 - x1, dy = y2 - y1;
+        float len2 = dx * dx + dy * dy;
+        float t = (len2 == 0) ? 0 : -(ox * dx + oy * dy) / len2;
+        t = Math.min(Math.max(t, 0), 1);
+        float px = ox + dx * t, py = oy + dy * t;
+        return px * px + py * py <= radius * radius;
+    }
+}
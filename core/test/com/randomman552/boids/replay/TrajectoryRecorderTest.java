@@ -0,0 +1,194 @@
+package com.randomman552.boids.replay;
+
+import com.badlogic.gdx.utils.Array;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.boid.FlockState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records random flock states and plays them back, checking the quantisation error and that seeking decodes the same
+ * frames as playing through the recording.
+ */
+public class TrajectoryRecorderTest {
+    private static final float WIDTH = 16, HEIGHT = 9;
+    private static final float DELTA = 1f / 60f;
+    private static final int FRAMES = 250;
+    private static final int KEYFRAME_INTERVAL = 20;
+    /**
+     * Tick of the first frame, recordings of a restored snapshot do not start at 0.
+     */
+    private static final long FIRST_TICK = 1000;
+
+    private File file;
+    private FlockState[] recorded;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("boids", ".trajectory");
+        recorded = new FlockState[FRAMES];
+        Random random = new Random(3);
+
+        // Boids moving at a constant velocity and wrapping around the world, with a few spawned part way through
+        int count = 200;
+        FlockState state = new FlockState(count + FRAMES / 50);
+        state.size = count;
+        for (int i = 0; i < state.getCapacity(); i++) {
+            float angle = random.nextFloat() * 360;
+            state.set(i, random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT,
+                    (float) Math.cos(Math.toRadians(angle)) * Constants.VELOCITY,
+                    (float) Math.sin(Math.toRadians(angle)) * Constants.VELOCITY, angle - 90);
+        }
+
+        TrajectoryRecorder recorder = new TrajectoryRecorder(file, WIDTH, HEIGHT, KEYFRAME_INTERVAL, null);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            if (frame % 50 == 49) state.size++;
+            recorded[frame] = copy(state);
+            recorder.record(FIRST_TICK + frame, DELTA, state);
+            for (int i = 0; i < state.size; i++) {
+                state.posX[i] = wrap(state.posX[i] + state.velX[i] * DELTA, WIDTH);
+                state.posY[i] = wrap(state.posY[i] + state.velY[i] * DELTA, HEIGHT);
+                state.heading[i] += 1;
+            }
+        }
+        recorder.dispose();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void playbackIsWithinQuantisationError() throws IOException {
+        TrajectoryPlayer player = new TrajectoryPlayer(file);
+        try {
+            assertEquals(FRAMES, player.getFrameCount());
+            assertEquals(FIRST_TICK, player.getFirstTick());
+            assertEquals(FIRST_TICK + FRAMES - 1, player.getLastTick());
+
+            // Half a step of the 16 bit quantisation of each value
+            float positionError = WIDTH / 0xFFFF / 2 + 1e-5f;
+            float velocityError = Constants.VELOCITY * 2f * 2 / 0xFFFF / 2 + 1e-5f;
+            float headingError = 360f / 0x10000 / 2 + 1e-3f;
+            for (int frame = 0; frame < FRAMES; frame++) {
+                assertEquals(frame, player.getFrame());
+                assertEquals(FIRST_TICK + frame, player.getTick());
+                FlockState expected = recorded[frame], actual = player.getState();
+                assertEquals(expected.size, actual.size);
+                for (int i = 0; i < expected.size; i++) {
+                    assertEquals(expected.posX[i], actual.posX[i], positionError);
+                    assertEquals(expected.posY[i], actual.posY[i], positionError);
+                    assertEquals(expected.velX[i], actual.velX[i], velocityError);
+                    assertEquals(expected.velY[i], actual.velY[i], velocityError);
+                    float turn = ((actual.heading[i] - expected.heading[i]) % 360 + 540) % 360 - 180;
+                    assertEquals(0, turn, headingError);
+                }
+                player.advance(DELTA);
+            }
+            // Playback loops back to the start
+            assertEquals(0, player.getFrame());
+        } finally {
+            player.dispose();
+        }
+    }
+
+    @Test
+    public void seekingMatchesSequentialPlayback() throws IOException {
+        assertSeekingMatchesSequentialPlayback(file);
+    }
+
+    @Test
+    public void seekingWithoutIndexMatchesSequentialPlayback() throws IOException {
+        // Cut off the index, as if the recording was never closed, so the player has to scan the frames
+        TrajectoryPlayer player = new TrajectoryPlayer(file);
+        int keyframes = (FRAMES + KEYFRAME_INTERVAL - 1) / KEYFRAME_INTERVAL;
+        player.dispose();
+        try (RandomAccessFile cut = new RandomAccessFile(file, "rw")) {
+            cut.setLength(cut.length() - keyframes * TrajectoryFormat.INDEX_ENTRY_SIZE - TrajectoryFormat.TRAILER_SIZE);
+        }
+        assertSeekingMatchesSequentialPlayback(file);
+    }
+
+    private static void assertSeekingMatchesSequentialPlayback(File file) throws IOException {
+        TrajectoryPlayer sequential = new TrajectoryPlayer(file);
+        TrajectoryPlayer seeking = new TrajectoryPlayer(file);
+        try {
+            Array<FlockState> decoded = new Array<>();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                decoded.add(copy(sequential.getState()));
+                sequential.advance(DELTA);
+            }
+
+            // Backwards and forwards across keyframes, landing on, just before and just after them
+            int[] targets = {FRAMES - 1, 0, 39, 40, 41, 7, 200, 199, 120, FRAMES - 1, 1};
+            for (int frame : targets) {
+                seeking.seekTick(FIRST_TICK + frame);
+                assertEquals(frame, seeking.getFrame());
+                assertEquals(FIRST_TICK + frame, seeking.getTick());
+                assertStatesEqual(decoded.get(frame), seeking.getState());
+
+                seeking.seek(frame);
+                assertEquals(FIRST_TICK + frame, seeking.getTick());
+                assertStatesEqual(decoded.get(frame), seeking.getState());
+            }
+
+            // Ticks outside the recording go to its ends
+            seeking.seekTick(0);
+            assertEquals(0, seeking.getFrame());
+            seeking.seekTick(FIRST_TICK + FRAMES * 2);
+            assertEquals(FRAMES - 1, seeking.getFrame());
+
+            // Playing on from a seek carries on decoding the following frames
+            seeking.seekTick(FIRST_TICK + 57);
+            for (int frame = 57; frame < 90; frame++) {
+                assertStatesEqual(decoded.get(frame), seeking.getState());
+                seeking.advance(DELTA);
+            }
+            assertTrue(seeking.getFrame() == 90);
+        } finally {
+            sequential.dispose();
+            seeking.dispose();
+        }
+    }
+
+    private static void assertStatesEqual(FlockState expected, FlockState actual) {
+        assertEquals(expected.size, actual.size);
+        assertArrayEquals(slice(expected.posX, expected.size), slice(actual.posX, actual.size), 0);
+        assertArrayEquals(slice(expected.posY, expected.size), slice(actual.posY, actual.size), 0);
+        assertArrayEquals(slice(expected.velX, expected.size), slice(actual.velX, actual.size), 0);
+        assertArrayEquals(slice(expected.velY, expected.size), slice(actual.velY, actual.size), 0);
+        assertArrayEquals(slice(expected.heading, expected.size), slice(actual.heading, actual.size), 0);
+    }
+
+    private static float[] slice(float[] values, int size) {
+        float[] slice = new float[size];
+        System.arraycopy(values, 0, slice, 0, size);
+        return slice;
+    }
+
+    private static FlockState copy(FlockState state) {
+        FlockState copy = new FlockState(state.size);
+        copy.size = state.size;
+        for (int i = 0; i < state.size; i++) {
+            copy.set(i, state.posX[i], state.posY[i], state.velX[i], state.velY[i], state.heading[i]);
+        }
+        return copy;
+    }
+
+    private static float wrap(float value, float size) {
+        if (value < 0) return value + size;
+        if (value >= size) return value - size;
+        return value;
+    }
+}
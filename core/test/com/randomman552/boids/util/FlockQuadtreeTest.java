@@ -0,0 +1,108 @@
+package com.randomman552.boids.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks quadtree sums against adding up every point within the radius.
+ */
+public class FlockQuadtreeTest {
+    private static final int POINTS = 3000;
+    private static final int QUERIES = 1000;
+    private static final float WIDTH = 16, HEIGHT = 9;
+    /**
+     * Whole nodes are added as their sums less count times the query position, which loses precision to
+     * cancellation, so sums are compared relative to the number of points in them.
+     */
+    private static final float TOLERANCE = 1e-4f;
+
+    @Test
+    public void exactBoundedSumsMatchBruteForce() {
+        compare(false);
+    }
+
+    @Test
+    public void exactPeriodicSumsMatchBruteForce() {
+        compare(true);
+    }
+
+    @Test
+    public void approximateSumsVisitFewerNodes() {
+        Random random = new Random(9);
+        float[] xs = new float[POINTS], ys = new float[POINTS], vxs = new float[POINTS], vys = new float[POINTS];
+        fill(random, xs, ys, vxs, vys);
+        FlockQuadtree tree = new FlockQuadtree();
+        tree.rebuild(xs, ys, vxs, vys, POINTS, WIDTH, HEIGHT);
+
+        FlockQuadtree.Query exact = new FlockQuadtree.Query(), approximate = new FlockQuadtree.Query();
+        int exactVisited = 0, approximateVisited = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float x = random.nextFloat() * WIDTH, y = random.nextFloat() * HEIGHT;
+            tree.aggregate(x, y, 4, 0, exact);
+            tree.aggregate(x, y, 4, 0.5f, approximate);
+            exactVisited += exact.visited;
+            approximateVisited += approximate.visited;
+        }
+        assertTrue(approximateVisited < exactVisited);
+    }
+
+    private void compare(boolean periodic) {
+        Random random = new Random(periodic ? 7 : 8);
+        float[] xs = new float[POINTS], ys = new float[POINTS], vxs = new float[POINTS], vys = new float[POINTS];
+        fill(random, xs, ys, vxs, vys);
+        // A clump of points small enough to reach the maximum depth
+        for (int i = 0; i < 40; i++) {
+            xs[i] = 3 + i * 1e-6f;
+            ys[i] = 4;
+        }
+
+        FlockQuadtree tree = new FlockQuadtree();
+        tree.setPeriodic(periodic);
+        tree.rebuild(xs, ys, vxs, vys, POINTS, WIDTH, HEIGHT);
+        FlockQuadtree.Query query = new FlockQuadtree.Query();
+        for (int q = 0; q < QUERIES; q++) {
+            float x = q < POINTS ? xs[q] : random.nextFloat() * WIDTH;
+            float y = q < POINTS ? ys[q] : random.nextFloat() * HEIGHT;
+            // The radius must stay within half the height to wrap around
+            float radius = 0.1f + random.nextFloat() * 4;
+            tree.aggregate(x, y, radius, 0, query);
+
+            int count = 0;
+            float offsetX = 0, offsetY = 0, velocityX = 0, velocityY = 0;
+            for (int i = 0; i < POINTS; i++) {
+                float dx = xs[i] - x, dy = ys[i] - y;
+                if (periodic) {
+                    dx = SpatialGrid.wrapDelta(dx, WIDTH);
+                    dy = SpatialGrid.wrapDelta(dy, HEIGHT);
+                }
+                if (dx * dx + dy * dy > radius * radius) continue;
+                count++;
+                offsetX += dx;
+                offsetY += dy;
+                velocityX += vxs[i];
+                velocityY += vys[i];
+            }
+
+            String message = "query " + q + " at " + x + ", " + y + " radius " + radius;
+            assertEquals(message, count, query.count);
+            float tolerance = TOLERANCE * Math.max(1, count) * Math.max(WIDTH, HEIGHT);
+            assertEquals(message, offsetX, query.offsetX, tolerance);
+            assertEquals(message, offsetY, query.offsetY, tolerance);
+            assertEquals(message, velocityX, query.velocityX, tolerance);
+            assertEquals(message, velocityY, query.velocityY, tolerance);
+        }
+    }
+
+    private static void fill(Random random, float[] xs, float[] ys, float[] vxs, float[] vys) {
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextFloat() * WIDTH;
+            ys[i] = random.nextFloat() * HEIGHT;
+            vxs[i] = random.nextFloat() * 6 - 3;
+            vys[i] = random.nextFloat() * 6 - 3;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.randomman552.boids.util;
+
+import com.badlogic.gdx.utils.IntArray;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks grid queries against checking the distance to every point.
+ */
+public class SpatialGridTest {
+    private static final int POINTS = 3000;
+    private static final int QUERIES = 2000;
+    private static final float WIDTH = 16, HEIGHT = 9;
+
+    @Test
+    public void boundedQueriesMatchBruteForce() {
+        compare(false, 0, 0, 1f);
+    }
+
+    @Test
+    public void periodicQueriesMatchBruteForce() {
+        compare(true, 0, 0, 1f);
+    }
+
+    @Test
+    public void offsetGridQueriesMatchBruteForce() {
+        // As used by the tiles of a decomposed flock, with cells not dividing the area evenly
+        compare(false, -3.5f, 20, 0.7f);
+    }
+
+    @Test
+    public void periodicOffsetGridQueriesMatchBruteForce() {
+        compare(true, -3.5f, 20, 0.7f);
+    }
+
+    private void compare(boolean periodic, float originX, float originY, float cellSize) {
+        Random random = new Random(periodic ? 5 : 6);
+        float[] xs = new float[POINTS], ys = new float[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = originX + random.nextFloat() * WIDTH;
+            ys[i] = originY + random.nextFloat() * HEIGHT;
+        }
+        // Points on the edges of the area, and (without wrapping) outside it, which are clamped into the edge cells
+        xs[0] = originX;
+        ys[1] = originY;
+        xs[2] = Math.nextAfter(originX + WIDTH, Double.NEGATIVE_INFINITY);
+        ys[3] = Math.nextAfter(originY + HEIGHT, Double.NEGATIVE_INFINITY);
+        if (!periodic) {
+            xs[4] = originX - 0.3f;
+            ys[5] = originY + HEIGHT + 0.3f;
+        }
+        // Points on top of each other
+        xs[6] = xs[7];
+        ys[6] = ys[7];
+
+        SpatialGrid grid = new SpatialGrid();
+        grid.setPeriodic(periodic);
+        grid.rebuild(xs, ys, POINTS, cellSize, originX, originY, WIDTH, HEIGHT);
+        IntArray found = new IntArray();
+        for (int q = 0; q < QUERIES; q++) {
+            // Query from the points themselves (excluding them) and from arbitrary positions, with radii up to a cell
+            int exclude = q % 2 == 0 ? q % POINTS : -1;
+            float x = exclude >= 0 ? xs[exclude] : originX + random.nextFloat() * WIDTH;
+            float y = exclude >= 0 ? ys[exclude] : originY + random.nextFloat() * HEIGHT;
+            float radius = cellSize * (q % 3 == 0 ? 1 : random.nextFloat());
+
+            found.clear();
+            int count = grid.query(x, y, radius, exclude, found);
+            assertEquals(found.size, count);
+            int[] expected = bruteForce(xs, ys, x, y, radius, exclude, periodic);
+            found.sort();
+            assertArrayEquals("query " + q + " at " + x + ", " + y + " radius " + radius, expected, found.toArray());
+        }
+    }
+
+    /**
+     * Indices of every point within the radius, in ascending order.
+     */
+    private static int[] bruteForce(float[] xs, float[] ys, float x, float y, float radius, int exclude,
+                                    boolean periodic) {
+        IntArray expected = new IntArray();
+        for (int i = 0; i < xs.length; i++) {
+            if (i == exclude) continue;
+            float dx = xs[i] - x, dy = ys[i] - y;
+            if (periodic) {
+                dx = SpatialGrid.wrapDelta(dx, WIDTH);
+                dy = SpatialGrid.wrapDelta(dy, HEIGHT);
+            }
+            if (dx * dx + dy * dy <= radius * radius) expected.add(i);
+        }
+        return expected.toArray();
+    }
+}
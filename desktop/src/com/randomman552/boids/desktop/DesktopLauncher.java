@@ -4,11 +4,24 @@ import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 import com.randomman552.boids.Boids;
 
+import java.io.File;
+
+/**
+ * Usage: DesktopLauncher [--record trajectory] [--replay trajectory] [--profile-csv file] [--scene file]
+ */
 public class DesktopLauncher {
 	public static void main (String[] arg) {
+		Boids boids = new Boids();
+		for (int i = 0; i < arg.length - 1; i++) {
+			if (arg[i].equals("--record")) boids.setRecordFile(new File(arg[++i]));
+			else if (arg[i].equals("--replay")) boids.setReplayFile(new File(arg[++i]));
+			else if (arg[i].equals("--profile-csv")) boids.setProfileFile(new File(arg[++i]));
+			else if (arg[i].equals("--scene")) boids.setSceneFile(new File(arg[++i]));
+		}
+
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
 		config.width = 1280;
 		config.height = 720;
-		new LwjglApplication(new Boids(), config);
+		new LwjglApplication(boids, config);
 	}
 }
@@ -0,0 +1,199 @@
+package com.randomman552.boids.headless;
+
+import com.badlogic.gdx.math.RandomXS128;
+import com.randomman552.boids.Simulation;
+import com.randomman552.boids.SimulationSnapshot;
+import com.randomman552.boids.domain.DecomposedFlock;
+import com.randomman552.boids.replay.TrajectoryRecorder;
+import com.randomman552.boids.sweep.ParameterSweep;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the simulation without a window or graphics context and reports the achieved tick rate.
+ * Usage: HeadlessLauncher [boids] [ticks] [timestep] [--seed seed] [--scene file] [--load snapshot] [--save snapshot]
+ * [--record trajectory] [--analytics results] [--tiles columnsxrows [--world widthxheight]] [--sweep grid [--out results] [--threads n]]
+ * With --scene the obstacles are loaded from a scene file (see SceneLoader) rather than creating the default scene.
+ * With --load the boids argument is ignored and the simulation is restored from the snapshot instead,
+ * with --save a snapshot is written after the last tick, and with --record every measured tick is recorded.
+ * With --analytics the flock analytics of every measured tick are written to a CSV file.
+ * With --tiles only flocking is run, in a periodic world split into the given grid of tiles (see DecomposedFlock),
+ * sized by --world or otherwise scaled to hold 4 boids per square unit.
+ * With --sweep a simulation is run for every combination of the parameter values in the grid file
+ * (see ParameterSweep), on --threads threads (one per core by default), and the results are written to --out.
+ */
+public class HeadlessLauncher {
+	// Looked up once, ManagementFactory.getThreadMXBean() allocates on every call and would skew the per-tick figure
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	public static void main (String[] arg) throws IOException {
+		List<String> positional = new ArrayList<>();
+		Long seed = null;
+		File scene = null, load = null, save = null, record = null, analytics = null;
+		String tiles = null, world = null;
+		File sweep = null, out = new File("sweep-results.csv");
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < arg.length; i++) {
+			switch (arg[i]) {
+				case "--seed": seed = Long.parseLong(arg[++i]); break;
+				case "--scene": scene = new File(arg[++i]); break;
+				case "--load": load = new File(arg[++i]); break;
+				case "--save": save = new File(arg[++i]); break;
+				case "--record": record = new File(arg[++i]); break;
+				case "--analytics": analytics = new File(arg[++i]); break;
+				case "--tiles": tiles = arg[++i]; break;
+				case "--world": world = arg[++i]; break;
+				case "--sweep": sweep = new File(arg[++i]); break;
+				case "--out": out = new File(arg[++i]); break;
+				case "--threads": threads = Integer.parseInt(arg[++i]); break;
+				default: positional.add(arg[i]);
+			}
+		}
+		int boidCount = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 1000;
+		int ticks = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 1000;
+		float timestep = positional.size() > 2 ? Float.parseFloat(positional.get(2)) : 1f / 60f;
+		if (ticks < 1) {
+			// Every mode reports per-tick figures, which would divide by zero
+			throw new IllegalArgumentException("At least 1 tick must be run, got " + ticks);
+		}
+
+		if (sweep != null) {
+			runSweep(boidCount, ticks, timestep, sweep, out, threads);
+			return;
+		}
+		if (tiles != null) {
+			runDecomposed(boidCount, ticks, timestep, seed != null ? seed : System.nanoTime(), tiles, world);
+			return;
+		}
+
+		Simulation simulation;
+		if (load != null) {
+			long loadStart = System.nanoTime();
+			simulation = SimulationSnapshot.load(load);
+			boidCount = simulation.flock.size();
+			System.out.printf("Restored %d boids at tick %d in %.1f ms%n",
+					boidCount, simulation.getTick(), (System.nanoTime() - loadStart) / 1e6);
+		} else {
+			simulation = seed != null ? new Simulation(seed) : new Simulation();
+			if (scene != null) {
+				long loadStart = System.nanoTime();
+				simulation.populate(boidCount, scene);
+				System.out.printf("Loaded %d obstacles from %s in %.1f ms%n",
+						simulation.getObstacles().size, scene, (System.nanoTime() - loadStart) / 1e6);
+			} else {
+				simulation.populate(boidCount);
+			}
+		}
+
+		// Warm up so the JIT has compiled the hot path before measuring
+		int warmUpTicks = Math.min(ticks, 100);
+		for (int i = 0; i < warmUpTicks; i++) {
+			simulation.step(timestep);
+		}
+
+		TrajectoryRecorder recorder = null;
+		if (record != null) {
+			recorder = new TrajectoryRecorder(record, simulation.getWorldWidth(), simulation.getWorldHeight(), scene);
+			simulation.setRecorder(recorder);
+		}
+		if (analytics != null) {
+			simulation.analytics.startCsv(analytics);
+		}
+
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < ticks; i++) {
+			simulation.step(timestep);
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - startBytes;
+
+		double seconds = elapsed / 1e9;
+		System.out.printf("%d boids, %d ticks of %.4fs in %.3fs%n", boidCount, ticks, timestep, seconds);
+		System.out.printf("%.1f ticks/s, %.3f ms/tick%n", ticks / seconds, seconds * 1000 / ticks);
+		if (allocated >= 0) {
+			System.out.printf("%.1f bytes allocated/tick (simulation thread)%n", (double) allocated / ticks);
+		}
+
+		if (analytics != null) {
+			simulation.analytics.stopCsv();
+			System.out.printf("Flock analytics written to %s (polarisation %.3f, %d flocks, largest %d)%n", analytics,
+					simulation.analytics.getPolarisation(), simulation.analytics.getClusterCount(),
+					simulation.analytics.getLargestCluster());
+		}
+		if (recorder != null) {
+			recorder.dispose();
+			System.out.printf("Recorded %d frames to %s%n", recorder.getFramesWritten(), record);
+		}
+		if (save != null) {
+			SimulationSnapshot.save(simulation, save);
+			System.out.printf("Saved tick %d to %s%n", simulation.getTick(), save);
+		}
+		simulation.dispose();
+	}
+
+	/**
+	 * Run every simulation of a parameter sweep and write the results to a CSV file.
+	 */
+	private static void runSweep(int boidCount, int ticks, float timestep, File grid, File out, int threads) throws IOException {
+		ParameterSweep sweep = ParameterSweep.load(grid);
+		System.out.printf("Running %d simulations of %d boids for %d ticks on %d threads%n",
+				sweep.size(), boidCount, ticks, threads);
+		long start = System.nanoTime();
+		sweep.run(boidCount, Math.min(ticks, 100), ticks, timestep, threads, out);
+		System.out.printf("Finished in %.3fs, results written to %s%n", (System.nanoTime() - start) / 1e9, out);
+	}
+
+	/**
+	 * Run only flocking, split across a grid of tiles, and report the achieved tick rate.
+	 * @param tiles Grid of tiles, as columnsxrows.
+	 * @param world World size, as widthxheight, or null to scale the world to 4 boids per square unit.
+	 */
+	private static void runDecomposed(int boidCount, int ticks, float timestep, long seed, String tiles, String world) {
+		String[] grid = tiles.split("x");
+		float width, height;
+		if (world != null) {
+			String[] size = world.split("x");
+			width = Float.parseFloat(size[0]);
+			height = Float.parseFloat(size[1]);
+		} else {
+			// Keep the default 16:9 aspect ratio
+			float area = boidCount / 4f;
+			height = (float) Math.sqrt(area * 9 / 16);
+			width = area / height;
+		}
+
+		DecomposedFlock flock = new DecomposedFlock(width, height, Integer.parseInt(grid[0]), Integer.parseInt(grid[1]));
+		flock.populate(boidCount, new RandomXS128(seed));
+		int warmUpTicks = Math.min(ticks, 100);
+		for (int i = 0; i < warmUpTicks; i++) {
+			flock.step(timestep);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ticks; i++) {
+			flock.step(timestep);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d boids in a %.0fx%.0f world split into %s tiles, %d ticks of %.4fs in %.3fs%n",
+				boidCount, width, height, tiles, ticks, timestep, seconds);
+		System.out.printf("%.1f ticks/s, %.3f ms/tick, %d ghosts/tick%n",
+				ticks / seconds, seconds * 1000 / ticks, flock.getGhostCount());
+		flock.dispose();
+	}
+
+	/**
+	 * Bytes allocated by the current thread so far, or -1 if the JVM cannot report it.
+	 */
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
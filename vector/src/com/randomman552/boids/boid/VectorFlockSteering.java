@@ -0,0 +1,136 @@
+package com.randomman552.boids.boid;
+
+import com.randomman552.boids.util.SpatialGrid;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Flocking kernel calculating the same forces as {@link FlockSteering}, with the neighbour loop written against the
+ * Vector API (jdk.incubator.vector) so as many neighbours as fit in a SIMD register are handled at once.
+ * Neighbour positions and velocities are first copied into contiguous arrays, as loading them through the id array
+ * (a gather) crashed the JVM in C2 compiled code on JDK 17.0.9 with AVX-512. Neighbours left over after the last full vector are
+ * handled one at a time as in the scalar kernel. Only the order of the sums differs, so results agree to within
+ * float rounding.
+ * Needs JDK 16+ run with --add-modules jdk.incubator.vector, and is only created through
+ * {@link FlockSteering#create(boolean)}, which falls back to the scalar kernel when it cannot be loaded.
+ */
+public class VectorFlockSteering extends FlockSteering {
+    /**
+     * Eight lanes, boids usually have fewer neighbours than the sixteen of a 512-bit vector, which would leave them
+     * all to the scalar loop.
+     */
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+
+    // Neighbour positions and velocities of the boid being steered, in neighbour order
+    private float[] gatheredPosX = new float[0], gatheredPosY = new float[0];
+    private float[] gatheredVelX = new float[0], gatheredVelY = new float[0];
+
+    @Override
+    public boolean isVectorised() {
+        return true;
+    }
+
+    @Override
+    public void steer(FlockState state, int id, int[] neighbours, int count) {
+        float[] posX = state.posX, posY = state.posY;
+        float[] velX = state.velX, velY = state.velY;
+        float x = posX[id], y = posY[id];
+        float sepForceAtMin = config.separationForceAtMinDist;
+        float minSepDist = config.minSeparationDist;
+        boolean periodic = config.periodicBoundary;
+        float width = config.worldWidth, height = config.worldHeight;
+
+        int bound = SPECIES.loopBound(count);
+        gather(state, neighbours, bound);
+        float[] nPosX = gatheredPosX, nPosY = gatheredPosY, nVelX = gatheredVelX, nVelY = gatheredVelY;
+
+        FloatVector sepX = FloatVector.zero(SPECIES), sepY = FloatVector.zero(SPECIES);
+        FloatVector velSumX = FloatVector.zero(SPECIES), velSumY = FloatVector.zero(SPECIES);
+        FloatVector posSumX = FloatVector.zero(SPECIES), posSumY = FloatVector.zero(SPECIES);
+
+        int n = 0;
+        for (; n < bound; n += SPECIES.length()) {
+            FloatVector dx = FloatVector.fromArray(SPECIES, nPosX, n).sub(x);
+            FloatVector dy = FloatVector.fromArray(SPECIES, nPosY, n).sub(y);
+            if (periodic) {
+                dx = wrapDelta(dx, width);
+                dy = wrapDelta(dy, height);
+            }
+            FloatVector dist = dx.mul(dx).add(dy.mul(dy)).sqrt();
+
+            // Separation, matching the scalar kernel lane by lane (no force from a neighbour on top of the boid)
+            FloatVector force = FloatVector.broadcast(SPECIES, sepForceAtMin).div(dist.div(minSepDist))
+                    .blend(sepForceAtMin, dist.lt(0.5f))
+                    .blend(0, dist.eq(0));
+            sepX = sepX.add(dx.mul(force));
+            sepY = sepY.add(dy.mul(force));
+
+            // Velocity matching and flock centering sums
+            velSumX = velSumX.add(FloatVector.fromArray(SPECIES, nVelX, n));
+            velSumY = velSumY.add(FloatVector.fromArray(SPECIES, nVelY, n));
+            posSumX = posSumX.add(dx.add(x));
+            posSumY = posSumY.add(dy.add(y));
+        }
+
+        float sepXSum = sepX.reduceLanes(VectorOperators.ADD), sepYSum = sepY.reduceLanes(VectorOperators.ADD);
+        float sumVelX = velX[id] + velSumX.reduceLanes(VectorOperators.ADD);
+        float sumVelY = velY[id] + velSumY.reduceLanes(VectorOperators.ADD);
+        float sumPosX = x + posSumX.reduceLanes(VectorOperators.ADD);
+        float sumPosY = y + posSumY.reduceLanes(VectorOperators.ADD);
+
+        // Neighbours left over after the last full vector
+        for (; n < count; n++) {
+            int other = neighbours[n];
+            float dx = posX[other] - x, dy = posY[other] - y;
+            if (periodic) {
+                dx = SpatialGrid.wrapDelta(dx, width);
+                dy = SpatialGrid.wrapDelta(dy, height);
+            }
+            float dist = (float) Math.sqrt(dx * dx + dy * dy);
+            if (dist != 0) {
+                float forceScalar = (dist < 0.5f) ? sepForceAtMin : sepForceAtMin / (dist / minSepDist);
+                sepXSum += dx * forceScalar;
+                sepYSum += dy * forceScalar;
+            }
+            sumVelX += velX[other];
+            sumVelY += velY[other];
+            sumPosX += x + dx;
+            sumPosY += y + dy;
+        }
+
+        float inv = 1f / (count + 1);
+        combine(sepXSum, sepYSum, sumVelX, sumVelY, sumPosX * inv - x, sumPosY * inv - y);
+    }
+
+    /**
+     * Copy the positions and velocities of the first count neighbours into the gathered arrays.
+     */
+    private void gather(FlockState state, int[] neighbours, int count) {
+        if (gatheredPosX.length < count) {
+            int capacity = Math.max(count, gatheredPosX.length * 2);
+            gatheredPosX = new float[capacity];
+            gatheredPosY = new float[capacity];
+            gatheredVelX = new float[capacity];
+            gatheredVelY = new float[capacity];
+        }
+        for (int n = 0; n < count; n++) {
+            int other = neighbours[n];
+            gatheredPosX[n] = state.posX[other];
+            gatheredPosY[n] = state.posY[other];
+            gatheredVelX[n] = state.velX[other];
+            gatheredVelY[n] = state.velY[other];
+        }
+    }
+
+    /**
+     * Lane-wise {@link SpatialGrid#wrapDelta(float, float)}.
+     */
+    private static FloatVector wrapDelta(FloatVector delta, float size) {
+        float half = size * 0.5f;
+        VectorMask<Float> above = delta.compare(VectorOperators.GT, half);
+        VectorMask<Float> below = delta.compare(VectorOperators.LT, -half);
+        return delta.sub(size, above).add(size, below);
+    }
+}
@@ -0,0 +1,102 @@
+package com.randomman552.boids.boid;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.randomman552.boids.Constants;
+import com.randomman552.boids.SimulationConfig;
+import com.randomman552.boids.util.SpatialGrid;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the Vector API kernel calculates the same forces as the scalar kernel, to within float rounding.
+ */
+public class VectorFlockSteeringTest {
+    private static final int BOIDS = 2000;
+    private static final float TOLERANCE = 1e-4f;
+    /**
+     * Both kernels sum absolute neighbour positions and then subtract the boid's own, which cancels most of the
+     * precision of a float, so a different summation order shows up in the centering force (and the desired
+     * velocity, three times its size) at around 1e-3.
+     */
+    private static final float CENTERING_TOLERANCE = 5e-3f;
+
+    @Test
+    public void kernelIsLoaded() {
+        assertTrue(FlockSteering.isVectorAvailable());
+        assertTrue(FlockSteering.create(true) instanceof VectorFlockSteering);
+    }
+
+    @Test
+    public void matchesScalarKernelBounded() {
+        compare(false);
+    }
+
+    @Test
+    public void matchesScalarKernelPeriodic() {
+        compare(true);
+    }
+
+    /**
+     * Steer every boid of a random flock with both kernels, covering neighbour counts below, at and above the
+     * vector length, and compare the forces.
+     */
+    private void compare(boolean periodic) {
+        SimulationConfig.Builder builder = new SimulationConfig.Builder();
+        builder.periodicBoundary = periodic;
+        SimulationConfig config = builder.build();
+        float width = config.worldWidth, height = config.worldHeight;
+
+        Random random = new Random(periodic ? 1 : 2);
+        FlockState state = new FlockState(BOIDS);
+        state.size = BOIDS;
+        for (int i = 0; i < BOIDS; i++) {
+            float angle = random.nextFloat() * 360;
+            state.set(i, random.nextFloat() * width, random.nextFloat() * height,
+                    (float) Math.cos(Math.toRadians(angle)) * Constants.VELOCITY,
+                    (float) Math.sin(Math.toRadians(angle)) * Constants.VELOCITY, angle - 90);
+        }
+        // A neighbour on top of its boid, which exerts no separation force
+        state.set(1, state.posX[0], state.posY[0], state.velX[1], state.velY[1], state.heading[1]);
+
+        FlockSteering scalar = FlockSteering.create(false);
+        FlockSteering vector = FlockSteering.create(true);
+        scalar.setConfig(config);
+        vector.setConfig(config);
+
+        SpatialGrid grid = new SpatialGrid();
+        grid.setPeriodic(periodic);
+        IntArray neighbours = new IntArray();
+        // Vary the radius so neighbour counts range from none to several vectors' worth
+        for (int r = 1; r <= 8; r++) {
+            float radius = r * 0.25f;
+            grid.rebuild(state.posX, state.posY, state.size, radius, width, height);
+            for (int i = r - 1; i < BOIDS; i += 8) {
+                neighbours.clear();
+                grid.query(state.posX[i], state.posY[i], radius, i, neighbours);
+
+                scalar.steer(state, i, neighbours);
+                vector.steer(state, i, neighbours);
+                String boid = "boid " + i + " with " + neighbours.size + " neighbours";
+                assertClose(boid, scalar.separationX, vector.separationX);
+                assertClose(boid, scalar.separationY, vector.separationY);
+                assertClose(boid, scalar.velocityMatchX, vector.velocityMatchX);
+                assertClose(boid, scalar.velocityMatchY, vector.velocityMatchY);
+                assertEquals(boid, scalar.centeringX, vector.centeringX, CENTERING_TOLERANCE);
+                assertEquals(boid, scalar.centeringY, vector.centeringY, CENTERING_TOLERANCE);
+                assertEquals(boid, scalar.desiredX, vector.desiredX, CENTERING_TOLERANCE);
+                assertEquals(boid, scalar.desiredY, vector.desiredY, CENTERING_TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * Compare relative to the size of the value, as the forces grow with the number of neighbours.
+     */
+    private static void assertClose(String message, float expected, float actual) {
+        assertEquals(message, expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)));
+    }
+}